@@ -0,0 +1,74 @@
+package org.grails.webflow.benchmark
+
+import grails.util.GrailsWebMockUtil
+import org.grails.webflow.PropertyExpression
+import org.grails.webflow.engine.builder.ClosureInvokingAction
+import org.grails.webflow.engine.builder.RuntimeRedirectAction
+import org.grails.web.servlet.mvc.GrailsWebRequest
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.springframework.webflow.test.MockExternalContext
+import org.springframework.webflow.test.MockRequestContext
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Cost of running flow actions: a plain closure action, one that binds and validates a command object, and a
+ * redirect whose parameters are property expressions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class FlowActionBenchmark {
+
+    WebflowBenchmarkFixture fixture
+    MockRequestContext context
+    ClosureInvokingAction plainAction
+    ClosureInvokingAction commandObjectAction
+    RuntimeRedirectAction redirectAction
+
+    @Setup
+    void setUp() {
+        fixture = WebflowBenchmarkFixture.create()
+        GrailsWebRequest webRequest = GrailsWebMockUtil.bindMockWebRequest(fixture.appCtx)
+        webRequest.params.title = "Dune"
+        webRequest.params.quantity = "2"
+
+        context = new MockRequestContext()
+        context.setExternalContext(new MockExternalContext())
+        context.flowScope.put("id", "42")
+
+        plainAction = new ClosureInvokingAction({ [total: 42] })
+        commandObjectAction = new ClosureInvokingAction({ OrderCommand cmd -> [order: cmd] })
+        commandObjectAction.applicationContext = fixture.appCtx
+
+        redirectAction = new RuntimeRedirectAction(controller: "book", action: "show",
+                params: [id: new PropertyExpression("flow.id")], urlMapper: fixture.createUrlMappingsHolder())
+    }
+
+    @TearDown
+    void tearDown() {
+        fixture.tearDown()
+    }
+
+    @Benchmark
+    Object executeAction() {
+        plainAction.execute(context)
+    }
+
+    @Benchmark
+    Object executeActionWithCommandObject() {
+        commandObjectAction.execute(context)
+    }
+
+    @Benchmark
+    Object executeRedirect() {
+        redirectAction.execute(context)
+    }
+}
@@ -0,0 +1,38 @@
+package org.grails.webflow.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Time taken by {@link org.grails.webflow.engine.builder.FlowBuilder} to assemble a representative flow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class FlowAssemblyBenchmark {
+
+    WebflowBenchmarkFixture fixture
+
+    @Setup
+    void setUp() {
+        fixture = WebflowBenchmarkFixture.create()
+    }
+
+    @TearDown
+    void tearDown() {
+        fixture.tearDown()
+    }
+
+    @Benchmark
+    Object assembleFlow() {
+        fixture.assemble()
+    }
+}
@@ -0,0 +1,68 @@
+package org.grails.webflow.benchmark
+
+import grails.util.GrailsWebMockUtil
+import org.grails.web.servlet.DefaultGrailsApplicationAttributes
+import org.grails.webflow.MockApplicationContext
+import org.grails.webflow.context.servlet.GrailsFlowUrlHandler
+import org.grails.webflow.mvc.servlet.GrailsFlowHandlerMapping
+import grails.web.mapping.UrlMappingsHolder
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.mock.web.MockHttpServletResponse
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Cost of mapping a request onto its flow handler and of building the URL a paused flow redirects to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class FlowRequestMappingBenchmark {
+
+    WebflowBenchmarkFixture fixture
+    MockHttpServletRequest request
+    GrailsFlowHandlerMapping handlerMapping
+    GrailsFlowUrlHandler urlHandler
+
+    @Setup
+    void setUp() {
+        fixture = WebflowBenchmarkFixture.create()
+        UrlMappingsHolder holder = fixture.createUrlMappingsHolder()
+
+        handlerMapping = new GrailsFlowHandlerMapping(holder)
+        handlerMapping.grailsApplication = fixture.grailsApplication
+        handlerMapping.registerFlow(fixture.createControllerClass(), "shop")
+
+        def ctx = new MockApplicationContext()
+        ctx.registerMockBean(UrlMappingsHolder.BEAN_ID, holder)
+        urlHandler = new GrailsFlowUrlHandler(applicationContext: ctx)
+
+        request = new MockHttpServletRequest("GET", "/book/shop")
+        GrailsWebMockUtil.bindMockWebRequest(fixture.appCtx, request, new MockHttpServletResponse())
+        request.setAttribute(DefaultGrailsApplicationAttributes.CONTROLLER_NAME_ATTRIBUTE, "book")
+        request.addParameter("title", "Dune")
+    }
+
+    @TearDown
+    void tearDown() {
+        fixture.tearDown()
+    }
+
+    @Benchmark
+    Object resolveHandler() {
+        handlerMapping.getHandlerInternal(request)
+    }
+
+    @Benchmark
+    String createFlowExecutionUrl() {
+        urlHandler.createFlowExecutionUrl(WebflowBenchmarkFixture.FLOW_ID, "e1s2", request)
+    }
+}
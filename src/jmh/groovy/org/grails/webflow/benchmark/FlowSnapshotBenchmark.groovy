@@ -0,0 +1,84 @@
+package org.grails.webflow.benchmark
+
+import org.grails.webflow.execution.repository.snapshot.CompactFlowExecutionSnapshotFactory
+import org.grails.webflow.execution.repository.snapshot.DeltaFlowExecutionSnapshotFactory
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.springframework.webflow.core.collection.LocalAttributeMap
+import org.springframework.webflow.engine.impl.FlowExecutionImplFactory
+import org.springframework.webflow.execution.FlowExecution
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshotFactory
+import org.springframework.webflow.execution.repository.snapshot.SerializedFlowExecutionSnapshotFactory
+import org.springframework.webflow.test.MockFlowExecutionKey
+import org.springframework.webflow.test.MockFlowExecutionKeyFactory
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Cost of snapshotting a paused flow execution and restoring it, for each snapshot mode the plugin can be
+ * configured with through grails.plugin.springwebflow.flowExecutionSnapshotMode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class FlowSnapshotBenchmark {
+
+    @Param(["serialized", "delta", "classIds"])
+    String mode
+
+    WebflowBenchmarkFixture fixture
+    FlowExecutionSnapshotFactory snapshotFactory
+    FlowExecution execution
+    FlowExecutionSnapshot snapshot
+    MockFlowExecutionKeyFactory keyFactory = new MockFlowExecutionKeyFactory()
+    MockFlowExecutionKey key = new MockFlowExecutionKey("e1s1")
+
+    @Setup
+    void setUp() {
+        fixture = WebflowBenchmarkFixture.create()
+        fixture.registerFlow(WebflowBenchmarkFixture.FLOW_ID, fixture.flowClosure)
+
+        FlowExecutionImplFactory executionFactory = new FlowExecutionImplFactory()
+        executionFactory.executionKeyFactory = keyFactory
+        // as configured by the plugin, so pausing redirects rather than rendering the view
+        executionFactory.executionAttributes = new LocalAttributeMap(alwaysRedirectOnPause: true)
+        switch (mode) {
+            case "delta":
+                snapshotFactory = new DeltaFlowExecutionSnapshotFactory(executionFactory, fixture.flowDefinitionRegistry)
+                break
+            case "classIds":
+                snapshotFactory = new CompactFlowExecutionSnapshotFactory(executionFactory, fixture.flowDefinitionRegistry)
+                break
+            default:
+                snapshotFactory = new SerializedFlowExecutionSnapshotFactory(executionFactory, fixture.flowDefinitionRegistry)
+        }
+
+        execution = executionFactory.createFlowExecution(fixture.flowDefinitionRegistry.getFlowDefinition(WebflowBenchmarkFixture.FLOW_ID))
+        execution.start(null, fixture.createExternalContext())
+        execution.activeSession.scope.put("results", (1..50).collect { "Book $it".toString() })
+        snapshot = snapshotFactory.createSnapshot(execution)
+    }
+
+    @TearDown
+    void tearDown() {
+        fixture.tearDown()
+    }
+
+    @Benchmark
+    Object serialize() {
+        snapshotFactory.createSnapshot(execution)
+    }
+
+    @Benchmark
+    Object restore() {
+        snapshotFactory.restoreExecution(snapshot, WebflowBenchmarkFixture.FLOW_ID, key, new LocalAttributeMap(), keyFactory)
+    }
+}
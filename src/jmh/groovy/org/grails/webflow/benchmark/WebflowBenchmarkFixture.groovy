@@ -0,0 +1,102 @@
+package org.grails.webflow.benchmark
+
+import grails.core.GrailsControllerClass
+import org.grails.core.artefact.ControllerArtefactHandler
+import org.grails.web.mapping.DefaultUrlMappingEvaluator
+import org.grails.web.mapping.DefaultUrlMappingsHolder
+import org.grails.webflow.engine.builder.FlowBuilder
+import org.grails.webflow.support.AbstractGrailsTagAwareFlowExecutionTests
+import org.springframework.webflow.engine.Flow
+import org.springframework.webflow.engine.builder.FlowAssembler
+import org.springframework.webflow.test.MockExternalContext
+
+/**
+ * Sets up the same mock Grails environment as the flow execution tests, so the benchmarks run without a server.
+ */
+class WebflowBenchmarkFixture extends AbstractGrailsTagAwareFlowExecutionTests {
+
+    static final String FLOW_ID = "book/shop"
+
+    def searchService = [executeSearch: { q -> ["Dune", "Emma"] }]
+
+    static WebflowBenchmarkFixture create() {
+        WebflowBenchmarkFixture fixture = new WebflowBenchmarkFixture()
+        fixture.setUp()
+        fixture
+    }
+
+    Closure getFlowClosure() {
+        return {
+            displaySearchForm {
+                on("submit").to "executeSearch"
+            }
+            executeSearch {
+                action {
+                    [results: searchService.executeSearch(params.q)]
+                }
+                on("success").to "displayResults"
+                on("error").to "displaySearchForm"
+                on(IllegalStateException).to "errorView"
+            }
+            displayResults {
+                on("select").to "enterDetails"
+                on("return").to "displaySearchForm"
+            }
+            enterDetails {
+                render(view: "/book/details")
+                on("next") { OrderCommand cmd ->
+                    flow.order = cmd
+                    !cmd.hasErrors()
+                }.to "confirm"
+                on("back").to "displayResults"
+            }
+            confirm {
+                on("confirm").to "complete"
+                on("cancel").to "displaySearchForm"
+            }
+            complete()
+            errorView()
+        }
+    }
+
+    String getFlowId() { FLOW_ID }
+
+    /**
+     * Runs the flow DSL and assembles the flow without registering it.
+     */
+    Flow assemble() {
+        FlowBuilder builder = new FlowBuilder(FLOW_ID, getFlowClosure(), flowBuilderServices, flowDefinitionRegistry)
+        builder.viewPath = "/"
+        builder.applicationContext = appCtx
+        new FlowAssembler(builder, builder.getFlowBuilderContext()).assembleFlow()
+    }
+
+    MockExternalContext createExternalContext() {
+        MockExternalContext context = new MockExternalContext()
+        context.setNativeRequest request
+        context.setNativeResponse response
+        context.setNativeContext servletContext
+        context
+    }
+
+    DefaultUrlMappingsHolder createUrlMappingsHolder() {
+        new DefaultUrlMappingsHolder(new DefaultUrlMappingEvaluator(appCtx).evaluateMappings {
+            '/$controller/$action?/$id?'()
+        })
+    }
+
+    GrailsControllerClass createControllerClass() {
+        Class controller = gcl.parseClass('class BookController { def shopFlow = { start() } }')
+        (GrailsControllerClass) grailsApplication.addArtefact(ControllerArtefactHandler.TYPE, controller)
+    }
+}
+
+class OrderCommand {
+    String title
+    Integer quantity = 1
+
+    static constraints = {
+        title blank: false
+        quantity min: 1
+    }
+}
@@ -0,0 +1,75 @@
+package org.grails.webflow.load
+
+/**
+ * The wizard the load test drives: a search, a command object step and a payment subflow.
+ */
+class BookController {
+
+    def catalogue = [search: { String q -> (1..20).collect { "$q volume $it".toString() } }]
+
+    def shopFlow = {
+        displaySearchForm {
+            on("submit").to "executeSearch"
+        }
+        executeSearch {
+            action {
+                [results: catalogue.search(params.q)]
+            }
+            on("success").to "displayResults"
+        }
+        displayResults {
+            on("select") {
+                flow.selection = params.title
+            }.to "enterShipping"
+            on("return").to "displaySearchForm"
+        }
+        enterShipping {
+            on("next") { ShippingCommand cmd ->
+                // the command keeps its errors, so only its values go into flow scope
+                flow.shipping = [name: cmd.name, address: cmd.address, quantity: cmd.quantity]
+                !cmd.hasErrors()
+            }.to "payment"
+            on("back").to "displayResults"
+        }
+        payment {
+            subflow(paymentFlow)
+            on("paid").to "confirm"
+            on("cancelled").to "enterShipping"
+        }
+        confirm {
+            on("confirm").to "complete"
+            on("back").to "enterShipping"
+        }
+        complete()
+    }
+
+    def paymentFlow = {
+        enterCard {
+            on("submit") {
+                conversation.card = params.card
+            }.to "authorise"
+            on("cancel").to "cancelled"
+        }
+        authorise {
+            action {
+                conversation.authorisation = conversation.card.reverse()
+                success()
+            }
+            on("success").to "paid"
+        }
+        paid()
+        cancelled()
+    }
+}
+
+class ShippingCommand {
+    String name
+    String address
+    Integer quantity = 1
+
+    static constraints = {
+        name blank: false
+        address blank: false
+        quantity min: 1
+    }
+}
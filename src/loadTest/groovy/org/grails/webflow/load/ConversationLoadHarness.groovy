@@ -0,0 +1,289 @@
+package org.grails.webflow.load
+
+import grails.util.GrailsWebMockUtil
+import org.grails.web.servlet.mvc.GrailsWebRequest
+import org.grails.webflow.conversation.OffHeapConversationManager
+import org.grails.webflow.conversation.OffHeapConversationStore
+import org.grails.webflow.execution.GrailsFlowExecutorImpl
+import org.grails.webflow.execution.repository.snapshot.CompactFlowExecutionSnapshotFactory
+import org.grails.webflow.execution.repository.snapshot.DeltaFlowExecutionSnapshotFactory
+import org.grails.webflow.support.AbstractGrailsTagAwareFlowExecutionTests
+import org.springframework.binding.collection.SharedMapDecorator
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.mock.web.MockHttpServletResponse
+import org.springframework.web.context.request.RequestContextHolder
+import org.springframework.webflow.conversation.ConversationManager
+import org.springframework.webflow.conversation.impl.SessionBindingConversationManager
+import org.springframework.webflow.core.collection.LocalAttributeMap
+import org.springframework.webflow.core.collection.LocalSharedAttributeMap
+import org.springframework.webflow.core.collection.SharedAttributeMap
+import org.springframework.webflow.engine.impl.FlowExecutionImplFactory
+import org.springframework.webflow.executor.FlowExecutionResult
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshotFactory
+import org.springframework.webflow.execution.repository.snapshot.SerializedFlowExecutionSnapshotFactory
+import org.springframework.webflow.test.MockExternalContext
+import webflow.CustomFlowExecutionRepository
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadPoolExecutor
+
+/**
+ * Drives simulated users through the {@link BookController} wizard against a {@link GrailsFlowExecutorImpl} set up
+ * the way the plugin configures it. Every wizard run searches, uses the back button, binds a command object, pays in
+ * a subflow through an AJAX request and confirms. Once all wizards are done each user starts one more and leaves it
+ * paused, so that the heap those conversations retain can be measured.
+ */
+class ConversationLoadHarness extends AbstractGrailsTagAwareFlowExecutionTests {
+
+    static final String FLOW_ID = "book/shop"
+
+    /** Operations in a complete wizard run */
+    static final int OPERATIONS_PER_WIZARD = 7
+
+    int users = 50
+    int iterations = 20
+    /** 'serialized', 'delta' or 'classIds', as grails.plugin.springwebflow.flowExecutionSnapshotMode */
+    String snapshotMode = "serialized"
+    /** 'session' or 'offHeap', as grails.plugin.springwebflow.conversationStore */
+    String conversationStore = "session"
+    int offHeapCapacity = 64 * 1024 * 1024
+    int maxSnapshots = 30
+
+    GrailsFlowExecutorImpl flowExecutor
+    MeasuringFlowExecutionSnapshotFactory snapshotFactory
+    OffHeapConversationStore offHeapStore
+
+    Closure getFlowClosure() {
+        new BookController().shopFlow
+    }
+
+    String getFlowId() { FLOW_ID }
+
+    /**
+     * Registers the wizard and its subflow and builds the flow executor.
+     */
+    void start() {
+        setUp()
+        BookController controller = new BookController()
+        registerFlow("book/payment", controller.paymentFlow)
+        registerFlow(FLOW_ID, controller.shopFlow)
+
+        FlowExecutionImplFactory executionFactory = new FlowExecutionImplFactory()
+        executionFactory.executionAttributes = new LocalAttributeMap(alwaysRedirectOnPause: true)
+        snapshotFactory = new MeasuringFlowExecutionSnapshotFactory(createSnapshotFactory(executionFactory))
+
+        CustomFlowExecutionRepository repository = new CustomFlowExecutionRepository(createConversationManager(), snapshotFactory)
+        repository.maxSnapshots = maxSnapshots
+        executionFactory.executionKeyFactory = repository
+
+        flowExecutor = new GrailsFlowExecutorImpl(flowDefinitionRegistry, executionFactory, repository)
+        flowExecutor.registerFlowDefinitionId(FLOW_ID)
+        flowExecutor.registerFlowDefinitionId("book/payment")
+    }
+
+    void stop() {
+        offHeapStore?.close()
+        tearDown()
+    }
+
+    /**
+     * Runs a few wizards on the calling thread, so the measured run does not pay for class loading and JIT compilation.
+     */
+    void warmUp(int wizards) {
+        SimulatedUser user = new SimulatedUser(this, "warmUp", wizards * OPERATIONS_PER_WIZARD)
+        try {
+            wizards.times { user.wizard() }
+        }
+        finally {
+            RequestContextHolder.resetRequestAttributes()
+        }
+    }
+
+    ConversationLoadReport run() {
+        // users and threads exist before the baseline, so the heap delta is what the paused conversations retain
+        List<SimulatedUser> simulatedUsers = (0..<users).collect {
+            new SimulatedUser(this, "user$it", (iterations + 1) * OPERATIONS_PER_WIZARD)
+        }
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(users)
+        pool.prestartAllCoreThreads()
+        CountDownLatch startGate = new CountDownLatch(1)
+        try {
+            long heapBefore = usedHeapAfterGc()
+            List<Future<?>> futures = simulatedUsers.collect { SimulatedUser user ->
+                pool.submit({
+                    startGate.await()
+                    user.run()
+                } as Callable<Object>)
+            }
+            snapshotFactory.reset()
+            long start = System.nanoTime()
+            startGate.countDown()
+            futures*.get()
+            long elapsed = System.nanoTime() - start
+            long heapAfter = usedHeapAfterGc()
+
+            long[] latencies = new long[(int) simulatedUsers.sum { it.operations }]
+            int offset = 0
+            for (SimulatedUser user : simulatedUsers) {
+                System.arraycopy(user.latencies, 0, latencies, offset, user.operations)
+                offset += user.operations
+            }
+            Arrays.sort(latencies)
+            new ConversationLoadReport(
+                users: users,
+                iterations: iterations,
+                snapshotMode: snapshotMode,
+                conversationStore: conversationStore,
+                operations: latencies.length,
+                errors: (long) simulatedUsers.sum { it.errors },
+                elapsedNanos: elapsed,
+                latencies: latencies,
+                retainedConversations: users,
+                retainedHeapBytes: heapAfter - heapBefore,
+                conversationsStarted: users * (iterations + 1L),
+                snapshotCount: snapshotFactory.snapshotCount.get(),
+                snapshotBytes: snapshotFactory.snapshotBytes.get())
+        }
+        finally {
+            pool.shutdownNow()
+        }
+    }
+
+    protected FlowExecutionSnapshotFactory createSnapshotFactory(FlowExecutionImplFactory executionFactory) {
+        switch (snapshotMode) {
+            case "delta":
+                return new DeltaFlowExecutionSnapshotFactory(executionFactory, flowDefinitionRegistry)
+            case "classIds":
+                return new CompactFlowExecutionSnapshotFactory(executionFactory, flowDefinitionRegistry)
+            default:
+                return new SerializedFlowExecutionSnapshotFactory(executionFactory, flowDefinitionRegistry)
+        }
+    }
+
+    protected ConversationManager createConversationManager() {
+        if (conversationStore == "offHeap") {
+            offHeapStore = new OffHeapConversationStore(offHeapCapacity, OffHeapConversationStore.DEFAULT_BLOCK_SIZE)
+            return new OffHeapConversationManager(offHeapStore)
+        }
+        new SessionBindingConversationManager()
+    }
+
+    protected static long usedHeapAfterGc() {
+        def memory = ManagementFactory.memoryMXBean
+        for (int i = 0; i < 3; i++) {
+            System.gc()
+            Thread.sleep(100)
+        }
+        memory.heapMemoryUsage.used
+    }
+
+    /**
+     * A user with their own HTTP session, going through the wizard one request at a time.
+     */
+    static class SimulatedUser {
+        final ConversationLoadHarness harness
+        final String name
+        final SharedAttributeMap<Object> session = new LocalSharedAttributeMap<Object>(new SharedMapDecorator<String, Object>(new HashMap<String, Object>()))
+        final long[] latencies
+        int operations
+        long errors
+
+        SimulatedUser(ConversationLoadHarness harness, String name, int maxOperations) {
+            this.harness = harness
+            this.name = name
+            this.latencies = new long[maxOperations]
+        }
+
+        void run() {
+            try {
+                for (int i = 0; i < harness.iterations; i++) {
+                    String key = wizard()
+                    if (key) {
+                        // the payment is done, confirming ends the conversation
+                        request(key, "confirm", [:], false)
+                    }
+                }
+                // left paused at the confirm step for the footprint measurement
+                wizard()
+            }
+            finally {
+                RequestContextHolder.resetRequestAttributes()
+            }
+        }
+
+        /**
+         * @return the key of the execution paused at the confirm step, or null when a step failed
+         */
+        String wizard() {
+            String searchForm = launch()
+            String results = request(searchForm, "submit", [q: "Groovy"], false)
+            String shipping = request(results, "select", [title: "Groovy volume 1"], false)
+            if (shipping == null) {
+                return null
+            }
+            // back button: the user returns to the results page and selects again
+            shipping = request(results, "select", [title: "Groovy volume 2"], false)
+            String card = request(shipping, "next", [name: name, address: "1 Flow Street", quantity: "2"], false)
+            request(card, "submit", [card: "4111111111111111"], true)
+        }
+
+        String launch() {
+            MockExternalContext context = createContext([:], false)
+            long start = System.nanoTime()
+            try {
+                return pausedKey(harness.flowExecutor.launchExecution(FLOW_ID, null, context), start)
+            }
+            catch (Exception e) {
+                return failed(e)
+            }
+        }
+
+        String request(String key, String eventId, Map params, boolean ajax) {
+            if (key == null) {
+                return null
+            }
+            MockExternalContext context = createContext(params, ajax)
+            context.eventId = eventId
+            long start = System.nanoTime()
+            try {
+                return pausedKey(harness.flowExecutor.resumeExecution(key, context), start)
+            }
+            catch (Exception e) {
+                return failed(e)
+            }
+        }
+
+        private String pausedKey(FlowExecutionResult result, long start) {
+            latencies[operations++] = System.nanoTime() - start
+            result.paused ? result.pausedKey : null
+        }
+
+        private String failed(Exception e) {
+            if (errors++ == 0) {
+                e.printStackTrace()
+            }
+            null
+        }
+
+        private MockExternalContext createContext(Map params, boolean ajax) {
+            MockHttpServletRequest request = new MockHttpServletRequest(harness.servletContext)
+            params.each { k, v -> request.addParameter(k.toString(), v.toString()) }
+            GrailsWebRequest webRequest = GrailsWebMockUtil.bindMockWebRequest(harness.appCtx, request, new MockHttpServletResponse())
+            webRequest.controllerName = "book"
+            webRequest.actionName = "shop"
+
+            MockExternalContext context = new MockExternalContext()
+            context.nativeContext = harness.servletContext
+            context.nativeRequest = request
+            context.nativeResponse = webRequest.currentResponse
+            context.sessionMap = session
+            context.ajaxRequest = ajax
+            params.each { k, v -> context.mockRequestParameterMap.put(k.toString(), v.toString()) }
+            context
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.grails.webflow.load
+
+/**
+ * The outcome of a {@link ConversationLoadHarness} run.
+ */
+class ConversationLoadReport {
+
+    int users
+    int iterations
+    String snapshotMode
+    String conversationStore
+    long operations
+    long errors
+    long elapsedNanos
+    long[] latencies
+    int retainedConversations
+    long retainedHeapBytes
+    long conversationsStarted
+    long snapshotCount
+    long snapshotBytes
+
+    double getThroughput() {
+        elapsedNanos ? operations * 1000000000d / elapsedNanos : 0d
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency of the given percentile of operations in milliseconds
+     */
+    double latencyMillis(double percentile) {
+        if (!latencies) {
+            return 0d
+        }
+        int index = Math.min(latencies.length - 1, (int) Math.ceil(percentile / 100d * latencies.length) - 1)
+        latencies[Math.max(0, index)] / 1000000d
+    }
+
+    long getHeapPerConversation() {
+        retainedConversations ? Math.max(0L, retainedHeapBytes).intdiv(retainedConversations) : 0L
+    }
+
+    long getSnapshotBytesPerConversation() {
+        conversationsStarted ? snapshotBytes.intdiv(conversationsStarted) : 0L
+    }
+
+    long getSnapshotBytesPerSnapshot() {
+        snapshotCount ? snapshotBytes.intdiv(snapshotCount) : 0L
+    }
+
+    /**
+     * @return a description of every threshold the report exceeds, empty when there is none
+     */
+    List<String> exceeded(Map<String, Number> thresholds) {
+        List<String> failures = []
+        if (errors) {
+            failures << "$errors operations failed".toString()
+        }
+        check(failures, "p99 latency (ms)", latencyMillis(99), thresholds.maxP99Millis, true)
+        check(failures, "retained heap per conversation (bytes)", heapPerConversation, thresholds.maxHeapPerConversation, true)
+        check(failures, "snapshot bytes per conversation", snapshotBytesPerConversation, thresholds.maxSnapshotBytesPerConversation, true)
+        check(failures, "throughput (ops/s)", throughput, thresholds.minThroughput, false)
+        failures
+    }
+
+    private static void check(List<String> failures, String name, Number actual, Number limit, boolean max) {
+        if (limit != null && (max ? actual > limit : actual < limit)) {
+            failures << "$name was $actual, ${max ? 'maximum' : 'minimum'} is $limit".toString()
+        }
+    }
+
+    String toString() {
+        """\
+Conversation load test: $users users x $iterations wizards ($snapshotMode snapshots, $conversationStore conversation store)
+  operations           : $operations (${errors} failed) in ${String.format('%.1f', elapsedNanos / 1000000000d)}s
+  throughput           : ${String.format('%.1f', throughput)} ops/s
+  latency p50/p95/p99  : ${String.format('%.2f / %.2f / %.2f', latencyMillis(50), latencyMillis(95), latencyMillis(99))} ms
+  retained heap        : $heapPerConversation bytes per conversation ($retainedConversations paused conversations)
+  snapshots            : $snapshotCount written, $snapshotBytesPerSnapshot bytes each, $snapshotBytesPerConversation bytes per conversation"""
+    }
+}
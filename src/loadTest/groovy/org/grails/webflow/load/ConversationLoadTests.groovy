@@ -0,0 +1,49 @@
+package org.grails.webflow.load
+
+/**
+ * Runs the conversation load test with ./gradlew loadTest. The run is sized and its thresholds are set with system
+ * properties, for example:
+ *
+ * <pre>
+ * ./gradlew loadTest -Dwebflow.load.users=200 -Dwebflow.load.snapshotMode=delta -Dwebflow.load.maxP99Millis=50
+ * </pre>
+ *
+ * Without thresholds the report is only printed; any threshold that is set makes the test fail when it is exceeded.
+ * The thresholds are webflow.load.maxP99Millis, webflow.load.maxHeapPerConversation,
+ * webflow.load.maxSnapshotBytesPerConversation and webflow.load.minThroughput.
+ */
+class ConversationLoadTests extends GroovyTestCase {
+
+    static final String PREFIX = "webflow.load."
+
+    void testConcurrentConversations() {
+        ConversationLoadHarness harness = new ConversationLoadHarness(
+            users: Integer.getInteger(PREFIX + "users", 50),
+            iterations: Integer.getInteger(PREFIX + "iterations", 20),
+            snapshotMode: System.getProperty(PREFIX + "snapshotMode", "serialized"),
+            conversationStore: System.getProperty(PREFIX + "conversationStore", "session"))
+        harness.start()
+        ConversationLoadReport report
+        try {
+            harness.warmUp(Integer.getInteger(PREFIX + "warmUpWizards", 20))
+            report = harness.run()
+        }
+        finally {
+            harness.stop()
+        }
+        println report
+
+        Map<String, Number> thresholds = [
+            maxP99Millis: threshold("maxP99Millis"),
+            maxHeapPerConversation: threshold("maxHeapPerConversation"),
+            maxSnapshotBytesPerConversation: threshold("maxSnapshotBytesPerConversation"),
+            minThroughput: threshold("minThroughput")]
+        List<String> failures = report.exceeded(thresholds)
+        assertTrue("Load test regression:\n  " + failures.join("\n  "), failures.isEmpty())
+    }
+
+    private static Double threshold(String name) {
+        String value = System.getProperty(PREFIX + name)
+        value ? Double.valueOf(value) : null
+    }
+}
@@ -0,0 +1,48 @@
+package org.grails.webflow.load
+
+import org.springframework.webflow.core.collection.MutableAttributeMap
+import org.springframework.webflow.execution.FlowExecution
+import org.springframework.webflow.execution.FlowExecutionKey
+import org.springframework.webflow.execution.FlowExecutionKeyFactory
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshotFactory
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Counts the snapshots written by the snapshot factory it decorates and the bytes they hold.
+ */
+class MeasuringFlowExecutionSnapshotFactory implements FlowExecutionSnapshotFactory {
+
+    final FlowExecutionSnapshotFactory delegate
+    final AtomicLong snapshotCount = new AtomicLong()
+    final AtomicLong snapshotBytes = new AtomicLong()
+
+    MeasuringFlowExecutionSnapshotFactory(FlowExecutionSnapshotFactory delegate) {
+        this.delegate = delegate
+    }
+
+    FlowExecutionSnapshot createSnapshot(FlowExecution flowExecution) {
+        FlowExecutionSnapshot snapshot = delegate.createSnapshot(flowExecution)
+        snapshotCount.incrementAndGet()
+        snapshotBytes.addAndGet(sizeOf(snapshot))
+        snapshot
+    }
+
+    FlowExecution restoreExecution(FlowExecutionSnapshot snapshot, String flowId, FlowExecutionKey key,
+                                   MutableAttributeMap<Object> conversationScope, FlowExecutionKeyFactory keyFactory) {
+        delegate.restoreExecution(snapshot, flowId, key, conversationScope, keyFactory)
+    }
+
+    void reset() {
+        snapshotCount.set(0)
+        snapshotBytes.set(0)
+    }
+
+    /**
+     * Delta and compact snapshots know their size, serialized snapshots expose the bytes they hold.
+     */
+    protected long sizeOf(FlowExecutionSnapshot snapshot) {
+        snapshot.respondsTo("getSize") ? snapshot.size : snapshot.data.length
+    }
+}
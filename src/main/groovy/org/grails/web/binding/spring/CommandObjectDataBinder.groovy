@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.web.binding.spring
+
+/**
+ * Binds request parameters to newly created command objects
+ *
+ * @since 2.2
+ */
+interface CommandObjectDataBinder {
+
+    /**
+     * @return whether instances of the given class have properties that need to be autowired
+     */
+    boolean requiresAutowiring(Class commandClass)
+
+    void bind(Object commandObject, Map params)
+}
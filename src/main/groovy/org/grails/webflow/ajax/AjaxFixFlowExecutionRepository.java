@@ -0,0 +1,91 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.ajax;
+
+import org.springframework.util.Assert;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowExecutionKey;
+import org.springframework.webflow.execution.FlowExecutionKeyFactory;
+import org.springframework.webflow.execution.repository.FlowExecutionLock;
+import org.springframework.webflow.execution.repository.FlowExecutionRepository;
+import org.springframework.webflow.execution.repository.FlowExecutionRepositoryException;
+
+/**
+ * Decorates a flow execution repository that is also the flow execution key factory, so that every key asked for
+ * during an AJAX request is the one generated first. Parsing a key starts a new request and forgets the cached key.
+ *
+ * @since 2.2
+ */
+public class AjaxFixFlowExecutionRepository implements FlowExecutionRepository, FlowExecutionKeyFactory {
+
+    private final FlowExecutionRepository repository;
+    private final FlowExecutionKeyFactory keyFactory;
+
+    public AjaxFixFlowExecutionRepository(FlowExecutionRepository repository, FlowExecutionKeyFactory keyFactory) {
+        Assert.notNull(repository, "The flow execution repository is required");
+        Assert.notNull(keyFactory, "The flow execution key factory is required");
+        this.repository = repository;
+        this.keyFactory = keyFactory;
+    }
+
+    public FlowExecutionRepository getTargetRepository() {
+        return repository;
+    }
+
+    public FlowExecutionKey parseFlowExecutionKey(String encodedKey) throws FlowExecutionRepositoryException {
+        ExecutionParameterAccessor.clearExecutionParameter();
+        return repository.parseFlowExecutionKey(encodedKey);
+    }
+
+    public FlowExecutionKey getKey(FlowExecution execution) {
+        if (!AjaxWebFlowFixBeanPostProcessor.isAjaxRequest()) {
+            return keyFactory.getKey(execution);
+        }
+        FlowExecutionKey key = ExecutionParameterAccessor.getFlowExecutionKey();
+        if (key == null) {
+            key = keyFactory.getKey(execution);
+            ExecutionParameterAccessor.setExecutionParameter(key);
+        }
+        return key;
+    }
+
+    public FlowExecutionLock getLock(FlowExecutionKey key) throws FlowExecutionRepositoryException {
+        return repository.getLock(key);
+    }
+
+    public FlowExecution getFlowExecution(FlowExecutionKey key) throws FlowExecutionRepositoryException {
+        return repository.getFlowExecution(key);
+    }
+
+    public void putFlowExecution(FlowExecution flowExecution) throws FlowExecutionRepositoryException {
+        repository.putFlowExecution(flowExecution);
+    }
+
+    public void removeFlowExecution(FlowExecution flowExecution) throws FlowExecutionRepositoryException {
+        repository.removeFlowExecution(flowExecution);
+    }
+
+    public void updateFlowExecutionSnapshot(FlowExecution execution) {
+        keyFactory.updateFlowExecutionSnapshot(execution);
+    }
+
+    public void removeFlowExecutionSnapshot(FlowExecution execution) {
+        keyFactory.removeFlowExecutionSnapshot(execution);
+    }
+
+    public void removeAllFlowExecutionSnapshots(FlowExecution execution) {
+        keyFactory.removeAllFlowExecutionSnapshots(execution);
+    }
+}
@@ -0,0 +1,26 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.ajax;
+
+/**
+ * Implemented by flow execution repositories that cache the execution key of an AJAX request themselves, so that
+ * {@link AjaxWebFlowFixBeanPostProcessor} can switch the caching on rather than decorate them.
+ *
+ * @since 2.2
+ */
+public interface AjaxFlowExecutionKeyCaching {
+
+    void setAjaxKeyCaching(boolean ajaxKeyCaching);
+}
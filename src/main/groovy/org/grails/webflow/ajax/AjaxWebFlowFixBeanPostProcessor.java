@@ -22,11 +22,6 @@ import org.springframework.webflow.execution.factory.FlowExecutionListenerLoader
 import org.springframework.webflow.execution.factory.StaticFlowExecutionListenerLoader;
 import org.springframework.webflow.execution.repository.FlowExecutionRepository;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
-import java.util.*;
 
 /**
  * Spring {@link BeanPostProcessor} to attempt to introduce some fixes to the
@@ -135,9 +130,9 @@ public class AjaxWebFlowFixBeanPostProcessor implements BeanPostProcessor {
             }
             if ( isAjaxRequest()
                     && ExecutionParameterAccessor.getFlowExecutionKey() == null ) {
-                // Ensure there is a flow execution key...
-                FlowExecution execution = repository.getFlowExecution(context.getFlowExecutionContext().getKey());
-                FlowExecutionKey key = factory.getKey(execution);
+                // Ensure there is a flow execution key, generated from the live execution rather than one
+                // restored from its snapshot; the conversation's snapshot counter gives the next id either way
+                FlowExecutionKey key = factory.getKey(getFlowExecution(context));
                 ExecutionParameterAccessor.setExecutionParameter(key);
 
                 // Urgh - Set up execution and flowExecutionKey - if this is not performed,
@@ -152,6 +147,14 @@ public class AjaxWebFlowFixBeanPostProcessor implements BeanPostProcessor {
             }
         }
 
+        private FlowExecution getFlowExecution(RequestContext context) {
+            FlowExecutionContext flowExecutionContext = context.getFlowExecutionContext();
+            if (flowExecutionContext instanceof FlowExecution) {
+                return (FlowExecution) flowExecutionContext;
+            }
+            return repository.getFlowExecution(flowExecutionContext.getKey());
+        }
+
         @Override
         public void stateEntering(RequestContext context, StateDefinition state)
                 throws EnterStateVetoException {
@@ -212,118 +215,43 @@ public class AjaxWebFlowFixBeanPostProcessor implements BeanPostProcessor {
 
     }
 
-    public class InvocationHandlerImpl implements InvocationHandler {
-
-        private Object proxiedObject;
-
-        public InvocationHandlerImpl(Object proxiedObject) {
-            super();
-            this.proxiedObject = proxiedObject;
-        }
-
-        @Override
-        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-
-            Object  result = null;
-            boolean handled = false;
-
-            // If this is parsing a key, then clear the execution parameter...
-            String methodName = method.getName();
-            int argCount = method.getParameterTypes().length;
-
-            Class<?> invokedClass = method.getDeclaringClass();
-
-            try
-            {
-
-                // parseFlowExecutionKey?  Ensure thread has no cached FlowExecutionKey
-                if( invokedClass.equals(FlowExecutionRepository.class)
-                        && "parseFlowExecutionKey".equals(methodName)
-                        && argCount == 1 ) {
-                    handled = true;
-                    ExecutionParameterAccessor.clearExecutionParameter();
-                    result = method.invoke(proxiedObject, args);
-                }
-                // getKey?  If AJAX request...
-                else if( invokedClass.equals(FlowExecutionKeyFactory.class)
-                        && "getKey".equals(methodName)
-                        && argCount == 1
-                        && isAjaxRequest()) {
-                    handled = true;
-
-                    // Use cached key, else invoke method and cache key...
-                    if (ExecutionParameterAccessor.getFlowExecutionKey() != null) {
-                        result = ExecutionParameterAccessor.getFlowExecutionKey();
-                    }
-                    else {
-                        result = method.invoke(proxiedObject, args);
-                        if(result instanceof FlowExecutionKey) {
-                            ExecutionParameterAccessor.setExecutionParameter((FlowExecutionKey)result);
-                            return result;
-                        }
-                    }
-                }
-
-                if( ! handled ) {
-                    result = method.invoke(proxiedObject, args);
-                }
-
-            }
-            catch(InvocationTargetException eITE) {
-                // Error? Re-throw as correct exception!
-                throw eITE.getCause();
-            }
-
-            return result;
-        }
-
-
-
-    }
-
-    private FlowExecutionRepository repository;
-    private FlowExecutionKeyFactory factory;
-
     /**
-     * Process all beans before initialization so as we can proxy the {@link FlowExecutionRepository},
-     * {@link FlowExecutionKeyFactory}.  Also, need to introduce a {@link FlowExecutionListenerLoader} so
+     * Process all beans before initialization so as the {@link FlowExecutionRepository} reuses the key generated
+     * first during an AJAX request, either by itself ({@link AjaxFlowExecutionKeyCaching}) or through an
+     * {@link AjaxFixFlowExecutionRepository}.  Also, need to introduce a {@link FlowExecutionListenerLoader} so
      * as we can detect rendering of an AJAX view and ensure a key has been generated for it.
      */
     @Override
     public Object postProcessBeforeInitialization(Object bean, String beanName)
             throws BeansException {
 
-        if ( bean instanceof FlowExecutionRepository || bean instanceof FlowExecutionKeyFactory ) {
-
-            if(bean instanceof FlowExecutionRepository) {
-                AjaxFixFlowExecutionListener.repository = (FlowExecutionRepository)bean;
-            }
-
-            if(bean instanceof FlowExecutionKeyFactory) {
-                AjaxFixFlowExecutionListener.factory = (FlowExecutionKeyFactory)bean;
-            }
+        if(bean instanceof FlowExecutionRepository) {
+            AjaxFixFlowExecutionListener.repository = (FlowExecutionRepository)bean;
+        }
 
-            return createProxy(bean);
+        if(bean instanceof FlowExecutionKeyFactory) {
+            AjaxFixFlowExecutionListener.factory = (FlowExecutionKeyFactory)bean;
+        }
 
+        // the plugin's own repository caches AJAX keys itself, others are decorated
+        if(bean instanceof AjaxFlowExecutionKeyCaching) {
+            ((AjaxFlowExecutionKeyCaching)bean).setAjaxKeyCaching(true);
+        }
+        else if(bean instanceof FlowExecutionRepository && bean instanceof FlowExecutionKeyFactory) {
+            return new AjaxFixFlowExecutionRepository((FlowExecutionRepository)bean, (FlowExecutionKeyFactory)bean);
         }
 
         return bean;
 
     }
 
-    @SuppressWarnings("unchecked")
-    private <T> T createProxy(Object bean) {
-        Class<?>[] allInterfaces = ReflectionUtil.getInterfaces(bean);
-        return (T) Proxy.newProxyInstance(bean.getClass().getClassLoader(), allInterfaces, new InvocationHandlerImpl(bean));
-    }
-
     @Override
     public Object postProcessAfterInitialization(Object bean, String beanName)
             throws BeansException {
         return bean;
     }
 
-    static boolean isAjaxRequest() {
+    public static boolean isAjaxRequest() {
         boolean isAjax = false;
 
         ExternalContext ctx = ExternalContextHolder.getExternalContext();
@@ -336,46 +264,3 @@ public class AjaxWebFlowFixBeanPostProcessor implements BeanPostProcessor {
     }
 
 }
-
-class ReflectionUtil {
-
-    private static final WeakHashMap<Class<?>, Class<?>[]> INTERFACE_CACHE = new WeakHashMap<Class<?>, Class<?>[]>();
-
-    public static Class<?>[] getInterfaces(Object bean) {
-
-        Class<?>[] allInterfaces = null;
-
-        synchronized(INTERFACE_CACHE) {
-            allInterfaces = INTERFACE_CACHE.get(bean.getClass());
-        }
-
-        if(allInterfaces == null) {
-
-            Set<Class<?>> processedItems = new HashSet<Class<?>>();
-            Set<Class<?>> foundInterfaces = new HashSet<Class<?>>();
-            getInterfaces(processedItems, foundInterfaces, bean.getClass());
-            allInterfaces = foundInterfaces.toArray(new Class<?>[0]);
-
-            synchronized(INTERFACE_CACHE) {
-                INTERFACE_CACHE.put(bean.getClass(), allInterfaces);
-            }
-
-        }
-
-        return allInterfaces;
-    }
-
-
-    private static void getInterfaces(Collection<Class<?>> processedItems, Collection<Class<?>> foundInterfaces, Class<? extends Object> clazz) {
-        if( clazz != null
-                && ! processedItems.contains( clazz ) ) {
-            processedItems.add( clazz );
-            for(Class<?> interfaceClazz : clazz.getInterfaces()) {
-                foundInterfaces.add(interfaceClazz);
-                getInterfaces(processedItems, foundInterfaces, interfaceClazz);
-            }
-            getInterfaces(processedItems, foundInterfaces, clazz.getSuperclass());
-        }
-    }
-
-}
@@ -9,12 +9,12 @@ public class ExecutionParameterAccessor {
 
     private static ThreadLocal<FlowExecutionKey> EXECUTION_KEYS = new ThreadLocal<FlowExecutionKey>();
 
-    static void setExecutionParameter(FlowExecutionKey flowExecutionKey) {
+    public static void setExecutionParameter(FlowExecutionKey flowExecutionKey) {
         EXECUTION_KEYS.set(flowExecutionKey);
     }
 
     public static void clearExecutionParameter() {
-        EXECUTION_KEYS.set(null);
+        EXECUTION_KEYS.remove();
     }
 
     public static String getExecutionParameter() {
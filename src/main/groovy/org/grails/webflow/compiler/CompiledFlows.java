@@ -0,0 +1,39 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.compiler;
+
+import org.codehaus.groovy.transform.GroovyASTTransformationClass;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Translates the {@code *Flow} closures of a controller into flow definition models when the controller is compiled,
+ * so that the plugin can build them with {@link org.grails.webflow.engine.builder.StaticFlowBuilder} instead of
+ * running the flow DSL. Mistakes such as transitions to undeclared states are reported as compilation errors.
+ *
+ * <p>Flows that use parts of the DSL the translation does not cover, such as {@code globalTransitions}, flow input
+ * and output, redirects, transition criteria or dynamic targets, are left to the dynamic
+ * {@link org.grails.webflow.engine.builder.FlowBuilder}.</p>
+ *
+ * @since 2.2
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+@GroovyASTTransformationClass("org.grails.webflow.compiler.CompiledFlowsTransformation")
+public @interface CompiledFlows {
+}
@@ -0,0 +1,317 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.compiler;
+
+import org.codehaus.groovy.ast.ASTNode;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.PropertyNode;
+import org.codehaus.groovy.ast.expr.ArgumentListExpression;
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.ClosureExpression;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.ConstructorCallExpression;
+import org.codehaus.groovy.ast.expr.DeclarationExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.MapEntryExpression;
+import org.codehaus.groovy.ast.expr.MapExpression;
+import org.codehaus.groovy.ast.expr.MethodCallExpression;
+import org.codehaus.groovy.ast.expr.TupleExpression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.ast.stmt.BlockStatement;
+import org.codehaus.groovy.ast.stmt.ExpressionStatement;
+import org.codehaus.groovy.ast.stmt.ReturnStatement;
+import org.codehaus.groovy.ast.stmt.Statement;
+import org.codehaus.groovy.classgen.VariableScopeVisitor;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.syntax.SyntaxException;
+import org.codehaus.groovy.syntax.Token;
+import org.codehaus.groovy.syntax.Types;
+import org.codehaus.groovy.transform.ASTTransformation;
+import org.codehaus.groovy.transform.GroovyASTTransformation;
+import org.grails.webflow.engine.builder.FlowDefinitionModel;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a {@link FlowDefinitionModel} factory method for each {@code *Flow} closure of a class annotated with
+ * {@link CompiledFlows}. Each method is named after {@link FlowDefinitionModel#MODEL_METHOD_PREFIX} and the closure
+ * property, and is protected and synthetic so that Grails does not mistake it for an action.
+ *
+ * @since 2.2
+ */
+@GroovyASTTransformation(phase = CompilePhase.SEMANTIC_ANALYSIS)
+public class CompiledFlowsTransformation implements ASTTransformation {
+
+    private static final String FLOW_SUFFIX = "Flow";
+    private static final int ACC_SYNTHETIC = 0x1000;
+    private static final List<String> CLOSURE_METHODS = Arrays.asList("action", "onEntry", "onExit", "onRender");
+    // flow level keywords of the builder DSL, which the model has no equivalent for
+    private static final List<String> FLOW_KEYWORDS = Arrays.asList("globalTransitions", "onStart", "onEnd", "input",
+            "output", "flowAttributes", "persistenceContext");
+    private static final ClassNode MODEL_TYPE = ClassHelper.make(FlowDefinitionModel.class);
+
+    public void visit(ASTNode[] nodes, SourceUnit source) {
+        if (nodes.length != 2 || !(nodes[1] instanceof ClassNode)) {
+            return;
+        }
+
+        ClassNode classNode = (ClassNode) nodes[1];
+        boolean modified = false;
+        for (PropertyNode property : new ArrayList<PropertyNode>(classNode.getProperties())) {
+            Expression initialValue = property.getField().getInitialExpression();
+            if (property.isStatic() || !property.getName().endsWith(FLOW_SUFFIX) ||
+                    !(initialValue instanceof ClosureExpression)) {
+                continue;
+            }
+
+            Statement model = new FlowTranslation(property.getName(), source).translate((ClosureExpression) initialValue);
+            if (model != null) {
+                classNode.addMethod(new MethodNode(FlowDefinitionModel.MODEL_METHOD_PREFIX + property.getName(),
+                        Modifier.PROTECTED | ACC_SYNTHETIC, MODEL_TYPE, Parameter.EMPTY_ARRAY,
+                        ClassNode.EMPTY_ARRAY, model));
+                modified = true;
+            }
+        }
+
+        if (modified) {
+            new VariableScopeVisitor(source, true).visitClass(classNode);
+        }
+    }
+
+    /**
+     * Translates a single flow closure. Returns null when the flow uses something the translation does not cover.
+     */
+    private static class FlowTranslation {
+        private final String flowName;
+        private final SourceUnit source;
+        private final Map<String, List<Expression>> stateCalls = new LinkedHashMap<String, List<Expression>>();
+        private final Map<String, MethodCallExpression> stateNodes = new LinkedHashMap<String, MethodCallExpression>();
+        private final List<Object[]> targets = new ArrayList<Object[]>();
+
+        FlowTranslation(String flowName, SourceUnit source) {
+            this.flowName = flowName;
+            this.source = source;
+        }
+
+        Statement translate(ClosureExpression flow) {
+            for (Statement statement : statementsOf(flow)) {
+                MethodCallExpression call = implicitThisCall(statement);
+                if (call == null) {
+                    return null;
+                }
+
+                String stateId = call.getMethodAsString();
+                List<Expression> arguments = argumentsOf(call);
+                if (stateId == null || arguments == null || arguments.size() > 1 || FLOW_KEYWORDS.contains(stateId)) {
+                    return null;
+                }
+                if (arguments.size() == 1 && !(arguments.get(0) instanceof ClosureExpression)) {
+                    return null;
+                }
+                if (stateNodes.containsKey(stateId)) {
+                    error(call, "Flow [" + flowName + "] declares state [" + stateId + "] more than once");
+                    return null;
+                }
+
+                List<Expression> calls = new ArrayList<Expression>();
+                if (arguments.size() == 1 && !translateState(stateId, (ClosureExpression) arguments.get(0), calls)) {
+                    return null;
+                }
+                stateNodes.put(stateId, call);
+                stateCalls.put(stateId, calls);
+            }
+
+            if (stateNodes.isEmpty()) {
+                return null;
+            }
+
+            boolean valid = true;
+            for (Object[] target : targets) {
+                if (!stateNodes.containsKey(target[1])) {
+                    error((ASTNode) target[2], "Flow [" + flowName + "] state [" + target[0] +
+                            "] transitions to unknown state [" + target[1] + "]");
+                    valid = false;
+                }
+            }
+            return valid ? modelStatement() : null;
+        }
+
+        private boolean translateState(String stateId, ClosureExpression state, List<Expression> calls) {
+            for (Statement statement : statementsOf(state)) {
+                MethodCallExpression call = implicitThisCall(statement);
+                if (call == null) {
+                    MethodCallExpression to = transitionCall(statement);
+                    if (to == null || !translateTransition(stateId, to, calls)) {
+                        return false;
+                    }
+                    continue;
+                }
+
+                String name = call.getMethodAsString();
+                List<Expression> arguments = argumentsOf(call);
+                if (arguments == null) {
+                    return false;
+                }
+                if ("on".equals(name)) {
+                    error(call, "Flow [" + flowName + "] state [" + stateId + "] has a transition with no target, use on(...).to \"state\"");
+                    return false;
+                }
+                if (CLOSURE_METHODS.contains(name) && arguments.size() == 1 &&
+                        arguments.get(0) instanceof ClosureExpression) {
+                    calls.add(call(name, arguments.get(0)));
+                }
+                else if ("render".equals(name)) {
+                    Map<String, Expression> args = constantMap(arguments);
+                    if (args == null || args.size() != 1 || !args.containsKey("view")) {
+                        return false;
+                    }
+                    calls.add(call("render", args.get("view")));
+                }
+                else if ("subflow".equals(name)) {
+                    Map<String, Expression> args = constantMap(arguments);
+                    if (args == null || !args.containsKey("action") ||
+                            !new HashSet<String>(Arrays.asList("controller", "action")).containsAll(args.keySet())) {
+                        return false;
+                    }
+                    Expression controller = args.containsKey("controller") ? args.get("controller") : ConstantExpression.NULL;
+                    calls.add(call("subflow", controller, args.get("action")));
+                }
+                else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean translateTransition(String stateId, MethodCallExpression to, List<Expression> calls) {
+            MethodCallExpression on = (MethodCallExpression) to.getObjectExpression();
+            List<Expression> onArguments = argumentsOf(on);
+            List<Expression> toArguments = argumentsOf(to);
+            if (onArguments == null || onArguments.size() != 1 || toArguments == null || toArguments.size() != 1) {
+                return false;
+            }
+
+            Expression event = onArguments.get(0);
+            Expression target = toArguments.get(0);
+            boolean constantEvent = event instanceof ConstantExpression && ((ConstantExpression) event).getValue() instanceof String;
+            if (!(constantEvent || event instanceof ClassExpression) || !(target instanceof ConstantExpression) ||
+                    !(((ConstantExpression) target).getValue() instanceof String)) {
+                return false;
+            }
+
+            targets.add(new Object[] { stateId, ((ConstantExpression) target).getValue(), to });
+            calls.add(call("on", event, target));
+            return true;
+        }
+
+        private Statement modelStatement() {
+            BlockStatement block = new BlockStatement();
+            VariableExpression model = new VariableExpression("model", MODEL_TYPE);
+            // declare the model once, then chain the calls for each state from model.state(id)
+            block.addStatement(new ExpressionStatement(new DeclarationExpression(model,
+                    Token.newSymbol(Types.EQUAL, -1, -1),
+                    new ConstructorCallExpression(MODEL_TYPE, ArgumentListExpression.EMPTY_ARGUMENTS))));
+            for (Map.Entry<String, List<Expression>> state : stateCalls.entrySet()) {
+                Expression chain = new MethodCallExpression(model, "state",
+                        new ArgumentListExpression(new ConstantExpression(state.getKey())));
+                for (Expression call : state.getValue()) {
+                    MethodCallExpression stateCall = (MethodCallExpression) call;
+                    chain = new MethodCallExpression(chain, stateCall.getMethodAsString(), stateCall.getArguments());
+                }
+                block.addStatement(new ExpressionStatement(chain));
+            }
+            block.addStatement(new ReturnStatement(model));
+            return block;
+        }
+
+        private static MethodCallExpression call(String name, Expression... arguments) {
+            return new MethodCallExpression(VariableExpression.THIS_EXPRESSION, name, new ArgumentListExpression(arguments));
+        }
+
+        private static List<Statement> statementsOf(ClosureExpression closure) {
+            Statement code = closure.getCode();
+            if (code instanceof BlockStatement) {
+                return ((BlockStatement) code).getStatements();
+            }
+            List<Statement> statements = new ArrayList<Statement>();
+            statements.add(code);
+            return statements;
+        }
+
+        private static MethodCallExpression implicitThisCall(Statement statement) {
+            if (statement instanceof ExpressionStatement &&
+                    ((ExpressionStatement) statement).getExpression() instanceof MethodCallExpression) {
+                MethodCallExpression call = (MethodCallExpression) ((ExpressionStatement) statement).getExpression();
+                if (call.isImplicitThis()) {
+                    return call;
+                }
+            }
+            return null;
+        }
+
+        private static MethodCallExpression transitionCall(Statement statement) {
+            if (statement instanceof ExpressionStatement &&
+                    ((ExpressionStatement) statement).getExpression() instanceof MethodCallExpression) {
+                MethodCallExpression to = (MethodCallExpression) ((ExpressionStatement) statement).getExpression();
+                if ("to".equals(to.getMethodAsString()) && to.getObjectExpression() instanceof MethodCallExpression) {
+                    MethodCallExpression on = (MethodCallExpression) to.getObjectExpression();
+                    if (on.isImplicitThis() && "on".equals(on.getMethodAsString())) {
+                        return to;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static List<Expression> argumentsOf(MethodCallExpression call) {
+            if (call.getArguments() instanceof TupleExpression) {
+                return ((TupleExpression) call.getArguments()).getExpressions();
+            }
+            return null;
+        }
+
+        private static Map<String, Expression> constantMap(List<Expression> arguments) {
+            if (arguments.size() != 1 || !(arguments.get(0) instanceof MapExpression)) {
+                return null;
+            }
+            Map<String, Expression> values = new LinkedHashMap<String, Expression>();
+            for (MapEntryExpression entry : ((MapExpression) arguments.get(0)).getMapEntryExpressions()) {
+                if (!(entry.getKeyExpression() instanceof ConstantExpression) ||
+                        !(entry.getValueExpression() instanceof ConstantExpression)) {
+                    return null;
+                }
+                values.put(String.valueOf(((ConstantExpression) entry.getKeyExpression()).getValue()),
+                        entry.getValueExpression());
+            }
+            return values;
+        }
+
+        private void error(ASTNode node, String message) {
+            source.getErrorCollector().addError(new SyntaxException(message, node.getLineNumber(),
+                    node.getColumnNumber(), node.getLastLineNumber(), node.getLastColumnNumber()), source);
+        }
+    }
+}
@@ -14,6 +14,7 @@
  */
 package org.grails.webflow.context.servlet
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap
 import grails.web.mapping.UrlCreator
 import grails.web.servlet.mvc.GrailsParameterMap
 import org.grails.web.servlet.mvc.GrailsWebRequest
@@ -36,7 +37,20 @@ import org.springframework.webflow.core.collection.AttributeMap
  */
 class GrailsFlowUrlHandler extends DefaultFlowUrlHandler implements ApplicationContextAware {
 
+    private static final String EXECUTION_PARAM = 'execution'
+    private static final int MAX_URL_CREATORS = 1000
+
     ApplicationContext applicationContext
+    private UrlMappingsHolder urlMappingsHolder
+    private final Map<List<Object>, UrlCreator> urlCreators = new ConcurrentLinkedHashMap.Builder<List<Object>, UrlCreator>()
+            .maximumWeightedCapacity(MAX_URL_CREATORS)
+            .build()
+
+    void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext
+        this.urlMappingsHolder = null
+        urlCreators.clear()
+    }
 
     String getFlowId(HttpServletRequest request) {
         request.getAttribute(DefaultGrailsApplicationAttributes.CONTROLLER_NAME_ATTRIBUTE) + "/" +
@@ -44,11 +58,11 @@ class GrailsFlowUrlHandler extends DefaultFlowUrlHandler implements ApplicationC
     }
 
     String createFlowExecutionUrl(String flowId, String flowExecutionKey, HttpServletRequest request) {
-        UrlMappingsHolder holder = applicationContext.getBean(UrlMappingsHolder.BEAN_ID)
-        def controllerName = request.getAttribute(DefaultGrailsApplicationAttributes.CONTROLLER_NAME_ATTRIBUTE)
-        GrailsWebRequest webRequest= GrailsWebRequest.lookup(request)
-        Map params = webRequest.params
-        def newParams = [execution:flowExecutionKey]
+        String controllerName = request.getAttribute(DefaultGrailsApplicationAttributes.CONTROLLER_NAME_ATTRIBUTE)
+        String actionName = flowId.substring(flowId.lastIndexOf('/') + 1)
+        Map params = GrailsWebRequest.lookup(request).params
+        Map newParams = new LinkedHashMap(params.size())
+        List<Object> signature = newSignature(controllerName, actionName, params.size())
         for (entry in params) {
             def key = entry.key
             if (entry.value instanceof GrailsParameterMap) {
@@ -61,58 +75,99 @@ class GrailsFlowUrlHandler extends DefaultFlowUrlHandler implements ApplicationC
                 // with the original parameters, 'customer.id' in this case, when the flow execution URL
                 // is parsed by the flow execution engine.
                 continue
-            } else if (key instanceof String) {
-                if (key.startsWith("_event") || key == 'execution') continue
-
-                newParams[key] = entry.value
             }
-            else {
-                newParams[key] = entry.value
+            if (key instanceof String && (key.startsWith("_event") || key == EXECUTION_PARAM)) {
+                continue
             }
+            newParams.put(key, entry.value)
+            signature.add(key)
         }
-		
-		String actionName = flowId.substring(flowId.lastIndexOf('/') + 1)
-		UrlCreator creator = holder.getReverseMapping(controllerName, actionName, newParams)
 
-        String url = creator.createURL(controllerName, actionName, newParams, 'utf-8')
+        String url = getUrlCreator(signature, controllerName, actionName, newParams)
+                .createURL(controllerName, actionName, newParams, 'utf-8')
         return getValidFlowURL(request, url, flowExecutionKey)
     }
 
-    private getValidFlowURL(HttpServletRequest request, String url, String flowExecutionKey = null) {
-        if ("GET" != request.method) {
-            url = trimParams(url)
-            return flowExecutionKey ? "$url?execution=$flowExecutionKey" : url
+    /**
+     * Returns the reverse mapping for the given controller, action and parameter names. Grails selects reverse
+     * mappings by parameter names only, so the creator can be shared by every URL with the same signature. The
+     * signature lists the names rather than joining them, as parameter names may contain any character.
+     */
+    protected UrlCreator getUrlCreator(List<Object> signature, String controllerName, String actionName, Map params) {
+        UrlCreator creator = urlCreators.get(signature)
+        if (creator == null) {
+            creator = getUrlMappingsHolder().getReverseMapping(controllerName, actionName, params)
+            urlCreators.put(signature, creator)
         }
+        return creator
+    }
 
-        return url
+    private static List<Object> newSignature(String controllerName, String actionName, int paramCount) {
+        List<Object> signature = new ArrayList<Object>(paramCount + 2)
+        signature.add(controllerName)
+        signature.add(actionName)
+        return signature
     }
 
-    String trimParams(String url) {
-        if (url.contains('?')) {
-            url = url[0..url.indexOf('?') - 1]
+    protected UrlMappingsHolder getUrlMappingsHolder() {
+        UrlMappingsHolder holder = urlMappingsHolder
+        if (holder == null) {
+            Assert.notNull applicationContext, "Property [applicationContext] must be set!"
+            holder = applicationContext.getBean(UrlMappingsHolder.BEAN_ID, UrlMappingsHolder)
+            urlMappingsHolder = holder
         }
-        return url
+        return holder
     }
 
-    String createFlowDefinitionUrl(String flowId, AttributeMap input, HttpServletRequest request) {
+    private String getValidFlowURL(HttpServletRequest request, String url, String flowExecutionKey = null) {
+        int query = url.indexOf('?')
+        if ("GET" != request.method) {
+            String path = query > -1 ? url.substring(0, query) : url
+            return flowExecutionKey ? path + '?' + EXECUTION_PARAM + '=' + encode(flowExecutionKey) : path
+        }
+        if (!flowExecutionKey) {
+            return url
+        }
 
-        Assert.notNull applicationContext, "Property [applicationContext] must be set!"
+        // the execution parameter always leads the query string
+        StringBuilder builder = new StringBuilder(url.length() + flowExecutionKey.length() + 12)
+        builder.append(url, 0, query > -1 ? query : url.length())
+               .append('?').append(EXECUTION_PARAM).append('=').append(encode(flowExecutionKey))
+        if (query > -1 && query < url.length() - 1) {
+            builder.append('&').append(url, query + 1, url.length())
+        }
+        return builder.toString()
+    }
+
+    private static String encode(String value) {
+        URLEncoder.encode(value, 'UTF-8')
+    }
+
+    String trimParams(String url) {
+        int query = url.indexOf('?')
+        return query > -1 ? url.substring(0, query) : url
+    }
 
-        UrlMappingsHolder holder = applicationContext.getBean(UrlMappingsHolder.BEAN_ID)
-        def controllerName = request.getAttribute(DefaultGrailsApplicationAttributes.CONTROLLER_NAME_ATTRIBUTE)
+    String createFlowDefinitionUrl(String flowId, AttributeMap input, HttpServletRequest request) {
+        String controllerName = request.getAttribute(DefaultGrailsApplicationAttributes.CONTROLLER_NAME_ATTRIBUTE)
+        String actionName = flowId.substring(flowId.lastIndexOf('/') + 1)
         Map params = GrailsWebRequest.lookup(request).params
-        def newParams = [:]
-        newParams.putAll(params)
-        newParams.remove('execution')
-        def inputParams = input?.asMap()
+        Map inputParams = input?.asMap()
+        Map newParams = new LinkedHashMap(params.size() + (inputParams ? inputParams.size() : 0))
+        for (entry in params) {
+            if (entry.key != EXECUTION_PARAM) {
+                newParams.put(entry.key, entry.value)
+            }
+        }
         if (inputParams) {
             newParams.putAll(inputParams)
         }
 
-        String actionName = flowId.substring(flowId.lastIndexOf('/') + 1)
-        UrlCreator creator = holder.getReverseMapping(controllerName, actionName, newParams)
+        List<Object> signature = newSignature(controllerName, actionName, newParams.size())
+        signature.addAll(newParams.keySet())
 
-        String url = creator.createURL(controllerName, actionName, newParams, 'utf-8')
+        String url = getUrlCreator(signature, controllerName, actionName, newParams)
+                .createURL(controllerName, actionName, newParams, 'utf-8')
         return getValidFlowURL(request, url)
     }
 }
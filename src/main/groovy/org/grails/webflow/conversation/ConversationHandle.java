@@ -0,0 +1,181 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.conversation;
+
+import org.springframework.webflow.conversation.ConversationId;
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The small object kept in the HttpSession by the {@link OffHeapConversationManager}. It only records which
+ * conversations belong to the session together with their locks; the conversation state itself lives in the
+ * {@link OffHeapConversationStore}.
+ *
+ * @since 2.2
+ */
+class ConversationHandle implements Serializable, HttpSessionBindingListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String token = UUID.randomUUID().toString();
+    private final LinkedHashMap<ConversationId, ConversationState> conversations = new LinkedHashMap<ConversationId, ConversationState>();
+    private transient OffHeapConversationStore store;
+
+    ConversationHandle(OffHeapConversationStore store) {
+        this.store = store;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * Registers a new conversation, returning the oldest conversations removed to respect maxConversations.
+     */
+    synchronized Map<ConversationId, ConversationState> add(ConversationId id, ConversationState state, int maxConversations) {
+        conversations.put(id, state);
+        if (maxConversations <= 0 || conversations.size() <= maxConversations) {
+            return Collections.emptyMap();
+        }
+        Map<ConversationId, ConversationState> removed = new LinkedHashMap<ConversationId, ConversationState>();
+        Iterator<Map.Entry<ConversationId, ConversationState>> i = conversations.entrySet().iterator();
+        while (conversations.size() > maxConversations && i.hasNext()) {
+            Map.Entry<ConversationId, ConversationState> eldest = i.next();
+            eldest.getValue().ended = true;
+            removed.put(eldest.getKey(), eldest.getValue());
+            i.remove();
+        }
+        return removed;
+    }
+
+    synchronized ConversationState get(ConversationId id) {
+        return conversations.get(id);
+    }
+
+    synchronized void remove(ConversationId id) {
+        conversations.remove(id);
+    }
+
+    public void valueBound(HttpSessionBindingEvent event) {
+    }
+
+    /**
+     * Frees the off-heap state of all conversations when the session ends.
+     */
+    public void valueUnbound(HttpSessionBindingEvent event) {
+        Map<ConversationId, ConversationState> removed;
+        synchronized (this) {
+            removed = new LinkedHashMap<ConversationId, ConversationState>(conversations);
+            conversations.clear();
+        }
+        // store is null if the session was deserialized on another node
+        if (store != null) {
+            for (Map.Entry<ConversationId, ConversationState> entry : removed.entrySet()) {
+                entry.getValue().removeFrom(store, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Per-conversation lock, the attributes loaded while the conversation is in use and the store entries holding
+     * its flow execution snapshots.
+     */
+    static class ConversationState implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final ReentrantLock lock = new ReentrantLock();
+        transient Map<Object, Object> attributes;
+        transient boolean dirty;
+        volatile boolean ended;
+        /** the snapshots already in the store, for as long as they are loaded */
+        transient Map<FlowExecutionSnapshot, StoredSnapshot> storedSnapshots;
+        /** the snapshot entries in the store, each with the entries of the snapshots it refers to */
+        transient Map<StoredSnapshot, List<StoredSnapshot>> snapshotEntries;
+
+        Map<FlowExecutionSnapshot, StoredSnapshot> getStoredSnapshots() {
+            if (storedSnapshots == null) {
+                storedSnapshots = new WeakHashMap<FlowExecutionSnapshot, StoredSnapshot>();
+            }
+            return storedSnapshots;
+        }
+
+        Map<StoredSnapshot, List<StoredSnapshot>> getSnapshotEntries() {
+            if (snapshotEntries == null) {
+                snapshotEntries = new HashMap<StoredSnapshot, List<StoredSnapshot>>();
+            }
+            return snapshotEntries;
+        }
+
+        /**
+         * Removes the entries of the conversation and of its snapshots from the store.
+         */
+        synchronized void removeFrom(OffHeapConversationStore store, ConversationId id) {
+            store.remove(id);
+            if (snapshotEntries != null) {
+                for (StoredSnapshot snapshot : snapshotEntries.keySet()) {
+                    store.remove(snapshot);
+                }
+                snapshotEntries = null;
+            }
+            storedSnapshots = null;
+        }
+    }
+
+    /**
+     * The key of a flow execution snapshot kept in the store separately from the attributes of its conversation,
+     * written to the serialized attributes in place of the snapshot.
+     */
+    static final class StoredSnapshot implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ConversationId conversationId;
+        private final long sequence;
+
+        StoredSnapshot(ConversationId conversationId, long sequence) {
+            this.conversationId = conversationId;
+            this.sequence = sequence;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof StoredSnapshot)) {
+                return false;
+            }
+            StoredSnapshot other = (StoredSnapshot) o;
+            return sequence == other.sequence && conversationId.equals(other.conversationId);
+        }
+
+        public int hashCode() {
+            return 31 * conversationId.hashCode() + (int) (sequence ^ (sequence >>> 32));
+        }
+
+        public String toString() {
+            return "StoredSnapshot[" + conversationId + ", " + sequence + "]";
+        }
+    }
+}
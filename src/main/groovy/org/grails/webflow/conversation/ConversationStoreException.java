@@ -0,0 +1,33 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.conversation;
+
+import org.springframework.webflow.conversation.ConversationException;
+
+/**
+ * Thrown when conversation state cannot be written to or read from an {@link OffHeapConversationStore}.
+ *
+ * @since 2.2
+ */
+public class ConversationStoreException extends ConversationException {
+
+    public ConversationStoreException(String msg) {
+        super(msg);
+    }
+
+    public ConversationStoreException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
@@ -0,0 +1,116 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.conversation;
+
+import org.springframework.webflow.conversation.Conversation;
+import org.springframework.webflow.conversation.ConversationId;
+import org.springframework.webflow.conversation.impl.LockInterruptedException;
+import org.springframework.webflow.conversation.impl.LockTimeoutException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A view onto a conversation held in an {@link OffHeapConversationStore}. Attributes are loaded on first access and
+ * written back when the outermost lock is released; outside of a lock every change is written through immediately.
+ *
+ * @since 2.2
+ */
+class OffHeapConversation implements Conversation {
+
+    private final OffHeapConversationManager manager;
+    private final ConversationHandle handle;
+    private final ConversationId id;
+    private final ConversationHandle.ConversationState state;
+
+    OffHeapConversation(OffHeapConversationManager manager, ConversationHandle handle, ConversationId id,
+                        ConversationHandle.ConversationState state) {
+        this.manager = manager;
+        this.handle = handle;
+        this.id = id;
+        this.state = state;
+    }
+
+    public ConversationId getId() {
+        return id;
+    }
+
+    public void lock() {
+        int timeout = manager.getLockTimeoutSeconds();
+        try {
+            if (!state.lock.tryLock(timeout, TimeUnit.SECONDS)) {
+                throw new LockTimeoutException(timeout);
+            }
+        }
+        catch (InterruptedException e) {
+            throw new LockInterruptedException(e);
+        }
+    }
+
+    public void unlock() {
+        ReentrantLock lock = state.lock;
+        try {
+            if (lock.getHoldCount() == 1) {
+                synchronized (state) {
+                    manager.flush(id, handle, state, true);
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Object getAttribute(Object name) {
+        synchronized (state) {
+            Object value = manager.load(id, handle, state).get(name);
+            if (!state.lock.isHeldByCurrentThread() && !state.dirty) {
+                state.attributes = null;
+            }
+            return value;
+        }
+    }
+
+    public void putAttribute(Object name, Object value) {
+        synchronized (state) {
+            manager.load(id, handle, state).put(name, value);
+            changed();
+        }
+    }
+
+    public void removeAttribute(Object name) {
+        synchronized (state) {
+            manager.load(id, handle, state).remove(name);
+            changed();
+        }
+    }
+
+    private void changed() {
+        state.dirty = true;
+        if (!state.lock.isHeldByCurrentThread()) {
+            manager.flush(id, handle, state, true);
+        }
+    }
+
+    public void end() {
+        synchronized (state) {
+            manager.end(id, handle, state);
+        }
+    }
+
+    public String toString() {
+        return "OffHeapConversation[" + id + "]";
+    }
+}
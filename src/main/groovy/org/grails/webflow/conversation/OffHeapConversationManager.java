@@ -0,0 +1,390 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.conversation;
+
+import org.grails.webflow.conversation.ConversationHandle.StoredSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.util.Assert;
+import org.springframework.webflow.context.ExternalContextHolder;
+import org.springframework.webflow.conversation.Conversation;
+import org.springframework.webflow.conversation.ConversationException;
+import org.springframework.webflow.conversation.ConversationId;
+import org.springframework.webflow.conversation.ConversationManager;
+import org.springframework.webflow.conversation.ConversationParameters;
+import org.springframework.webflow.conversation.NoSuchConversationException;
+import org.springframework.webflow.conversation.impl.SimpleConversationId;
+import org.springframework.webflow.core.collection.SharedAttributeMap;
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ConversationManager} that keeps conversation state, including the flow execution snapshots, in an
+ * {@link OffHeapConversationStore} rather than on the heap inside the HttpSession. The session only holds a small
+ * {@link ConversationHandle} recording which conversations it owns.
+ *
+ * <p>Each flow execution snapshot is kept in a store entry of its own and the attributes of the conversation only
+ * refer to it, so writing back a conversation after a pause serializes the new snapshot rather than all of them.</p>
+ *
+ * <p>Conversations disappear when the session ends, when the session exceeds {@link #setMaxConversations(int)}
+ * or when the store evicts them to make room; resuming an evicted conversation fails with a
+ * {@link NoSuchConversationException} and the flow is restarted.</p>
+ *
+ * @since 2.2
+ */
+public class OffHeapConversationManager implements ConversationManager {
+
+    private static final String DEFAULT_SESSION_KEY = "webflowOffHeapConversationHandle";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final OffHeapConversationStore store;
+    private final AtomicLong conversationIdSequence = new AtomicLong();
+    private final AtomicLong snapshotSequence = new AtomicLong();
+
+    private int maxConversations = 5;
+    private int lockTimeoutSeconds = 30;
+    private String sessionKey = DEFAULT_SESSION_KEY;
+
+    public OffHeapConversationManager(OffHeapConversationStore store) {
+        Assert.notNull(store, "The conversation store is required");
+        this.store = store;
+    }
+
+    public Conversation beginConversation(ConversationParameters conversationParameters) throws ConversationException {
+        ConversationHandle handle = getConversationHandle();
+        ConversationId id = new SimpleConversationId(conversationIdSequence.incrementAndGet());
+        ConversationHandle.ConversationState state = new ConversationHandle.ConversationState();
+        state.attributes = new HashMap<Object, Object>();
+        state.dirty = true;
+        for (Map.Entry<ConversationId, ConversationHandle.ConversationState> removed :
+                handle.add(id, state, maxConversations).entrySet()) {
+            removed.getValue().removeFrom(store, removed.getKey());
+        }
+        Conversation conversation = new OffHeapConversation(this, handle, id, state);
+        conversation.putAttribute("name", conversationParameters.getName());
+        conversation.putAttribute("caption", conversationParameters.getCaption());
+        conversation.putAttribute("description", conversationParameters.getDescription());
+        return conversation;
+    }
+
+    public Conversation getConversation(ConversationId id) throws ConversationException {
+        ConversationHandle handle = getConversationHandle();
+        ConversationHandle.ConversationState state = handle.get(id);
+        if (state == null || state.ended) {
+            throw new NoSuchConversationException(id);
+        }
+        return new OffHeapConversation(this, handle, id, state);
+    }
+
+    public ConversationId parseConversationId(String encodedId) throws ConversationException {
+        return new SimpleConversationId(Long.valueOf(encodedId));
+    }
+
+    Map<Object, Object> load(ConversationId id, ConversationHandle handle, ConversationHandle.ConversationState state) {
+        if (state.attributes != null) {
+            return state.attributes;
+        }
+        byte[] data = state.ended ? null : store.get(id, handle.getToken());
+        Map<Object, Object> attributes = data == null ? null : deserialize(id, handle, state, data);
+        if (attributes == null) {
+            // evicted to make room for other conversations
+            handle.remove(id);
+            state.ended = true;
+            state.removeFrom(store, id);
+            throw new NoSuchConversationException(id);
+        }
+        state.attributes = attributes;
+        state.dirty = false;
+        return state.attributes;
+    }
+
+    void flush(ConversationId id, ConversationHandle handle, ConversationHandle.ConversationState state, boolean release) {
+        if (state.dirty && !state.ended && state.attributes != null) {
+            Set<StoredSnapshot> referenced = new HashSet<StoredSnapshot>();
+            store.put(id, handle.getToken(), serialize(id, handle, state, state.attributes, null, referenced));
+            removeUnreferencedSnapshots(state, referenced);
+            state.dirty = false;
+        }
+        if (release) {
+            state.attributes = null;
+        }
+    }
+
+    void end(ConversationId id, ConversationHandle handle, ConversationHandle.ConversationState state) {
+        state.ended = true;
+        state.attributes = null;
+        handle.remove(id);
+        state.removeFrom(store, id);
+    }
+
+    /**
+     * Stores a snapshot met while serializing the attributes of a conversation unless it is stored already.
+     */
+    private StoredSnapshot storeSnapshot(ConversationId id, ConversationHandle handle,
+                                         ConversationHandle.ConversationState state, FlowExecutionSnapshot snapshot,
+                                         Set<StoredSnapshot> referenced) {
+        StoredSnapshot stored = state.getStoredSnapshots().get(snapshot);
+        if (stored == null || !store.contains(stored, handle.getToken())) {
+            if (stored == null) {
+                stored = new StoredSnapshot(id, snapshotSequence.incrementAndGet());
+            }
+            // a delta snapshot refers to its base, which is stored separately as well
+            Set<StoredSnapshot> dependencies = new HashSet<StoredSnapshot>();
+            store.put(stored, handle.getToken(), serialize(id, handle, state, snapshot, snapshot, dependencies));
+            state.getStoredSnapshots().put(snapshot, stored);
+            state.getSnapshotEntries().put(stored, new ArrayList<StoredSnapshot>(dependencies));
+        }
+        markReferenced(state, stored, referenced);
+        return stored;
+    }
+
+    private void markReferenced(ConversationHandle.ConversationState state, StoredSnapshot stored,
+                                Set<StoredSnapshot> referenced) {
+        if (referenced.add(stored)) {
+            List<StoredSnapshot> dependencies = state.getSnapshotEntries().get(stored);
+            if (dependencies != null) {
+                for (StoredSnapshot dependency : dependencies) {
+                    markReferenced(state, dependency, referenced);
+                }
+            }
+        }
+    }
+
+    private void removeUnreferencedSnapshots(ConversationHandle.ConversationState state,
+                                             Set<StoredSnapshot> referenced) {
+        Iterator<StoredSnapshot> i = state.getSnapshotEntries().keySet().iterator();
+        while (i.hasNext()) {
+            StoredSnapshot stored = i.next();
+            if (!referenced.contains(stored)) {
+                store.remove(stored);
+                i.remove();
+            }
+        }
+    }
+
+    private byte[] serialize(ConversationId id, ConversationHandle handle, ConversationHandle.ConversationState state,
+                             Object value, FlowExecutionSnapshot root, Set<StoredSnapshot> referenced) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try {
+            ObjectOutputStream out = new SnapshotStoringOutputStream(bytes, id, handle, state, root, referenced);
+            out.writeObject(value);
+            out.close();
+        }
+        catch (IOException e) {
+            throw new ConversationStoreException("Could not serialize state of conversation [" + id +
+                    "]; make sure all objects stored in conversation and flow scope are serializable", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the attributes, or null if the entry of one of their snapshots has been evicted
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> deserialize(ConversationId id, ConversationHandle handle,
+                                            ConversationHandle.ConversationState state, byte[] data) {
+        try {
+            return (Map<Object, Object>) readValue(handle, state, data,
+                    new HashMap<StoredSnapshot, FlowExecutionSnapshot>());
+        }
+        catch (SnapshotEvictedException e) {
+            return null;
+        }
+        catch (IOException e) {
+            throw new ConversationStoreException("Could not deserialize state of conversation [" + id + "]", e);
+        }
+        catch (ClassNotFoundException e) {
+            throw new ConversationStoreException("Could not deserialize state of conversation [" + id + "]", e);
+        }
+    }
+
+    private Object readValue(ConversationHandle handle, ConversationHandle.ConversationState state, byte[] data,
+                             Map<StoredSnapshot, FlowExecutionSnapshot> resolved)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new SnapshotResolvingInputStream(new ByteArrayInputStream(data), handle, state,
+                resolved);
+        try {
+            return in.readObject();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private ConversationHandle getConversationHandle() {
+        SharedAttributeMap<Object> sessionMap = ExternalContextHolder.getExternalContext().getSessionMap();
+        synchronized (sessionMap.getMutex()) {
+            ConversationHandle handle = (ConversationHandle) sessionMap.get(sessionKey);
+            if (handle == null) {
+                handle = new ConversationHandle(store);
+                sessionMap.put(sessionKey, handle);
+                if (log.isDebugEnabled()) {
+                    log.debug("Created off-heap conversation handle; store is using " + store.getUsedBytes() +
+                            " of " + store.getCapacity() + " bytes");
+                }
+            }
+            return handle;
+        }
+    }
+
+    public int getMaxConversations() {
+        return maxConversations;
+    }
+
+    public void setMaxConversations(int maxConversations) {
+        this.maxConversations = maxConversations;
+    }
+
+    public int getLockTimeoutSeconds() {
+        return lockTimeoutSeconds;
+    }
+
+    public void setLockTimeoutSeconds(int lockTimeoutSeconds) {
+        this.lockTimeoutSeconds = lockTimeoutSeconds;
+    }
+
+    public String getSessionKey() {
+        return sessionKey;
+    }
+
+    public void setSessionKey(String sessionKey) {
+        this.sessionKey = sessionKey;
+    }
+
+    public OffHeapConversationStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the number of bytes reserved by the store outside of the heap
+     */
+    public long getCapacity() {
+        return store.getCapacity();
+    }
+
+    /**
+     * @return the number of off-heap bytes currently allocated to conversations
+     */
+    public long getUsedBytes() {
+        return store.getUsedBytes();
+    }
+
+    public int getConversationCount() {
+        return store.getEntryCount();
+    }
+
+    public long getEvictionCount() {
+        return store.getEvictionCount();
+    }
+
+    /**
+     * Writes flow execution snapshots to store entries of their own and only their keys to the stream.
+     */
+    private class SnapshotStoringOutputStream extends ObjectOutputStream {
+
+        private final ConversationId id;
+        private final ConversationHandle handle;
+        private final ConversationHandle.ConversationState state;
+        private final FlowExecutionSnapshot root;
+        private final Set<StoredSnapshot> referenced;
+
+        SnapshotStoringOutputStream(OutputStream out, ConversationId id, ConversationHandle handle,
+                                    ConversationHandle.ConversationState state, FlowExecutionSnapshot root,
+                                    Set<StoredSnapshot> referenced) throws IOException {
+            super(out);
+            this.id = id;
+            this.handle = handle;
+            this.state = state;
+            this.root = root;
+            this.referenced = referenced;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof FlowExecutionSnapshot && obj != root) {
+                return storeSnapshot(id, handle, state, (FlowExecutionSnapshot) obj, referenced);
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Reads the flow execution snapshots referred to by a stream back from their store entries.
+     */
+    private class SnapshotResolvingInputStream extends ConfigurableObjectInputStream {
+
+        private final ConversationHandle handle;
+        private final ConversationHandle.ConversationState state;
+        private final Map<StoredSnapshot, FlowExecutionSnapshot> resolved;
+
+        SnapshotResolvingInputStream(InputStream in, ConversationHandle handle,
+                                     ConversationHandle.ConversationState state,
+                                     Map<StoredSnapshot, FlowExecutionSnapshot> resolved) throws IOException {
+            super(in, Thread.currentThread().getContextClassLoader());
+            this.handle = handle;
+            this.state = state;
+            this.resolved = resolved;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (!(obj instanceof StoredSnapshot)) {
+                return obj;
+            }
+            StoredSnapshot stored = (StoredSnapshot) obj;
+            FlowExecutionSnapshot snapshot = resolved.get(stored);
+            if (snapshot == null) {
+                byte[] data = store.get(stored, handle.getToken());
+                if (data == null) {
+                    throw new SnapshotEvictedException();
+                }
+                try {
+                    snapshot = (FlowExecutionSnapshot) readValue(handle, state, data, resolved);
+                }
+                catch (ClassNotFoundException e) {
+                    throw new InvalidClassException("Could not read " + stored + ": " + e.getMessage());
+                }
+                resolved.put(stored, snapshot);
+                state.getStoredSnapshots().put(snapshot, stored);
+            }
+            return snapshot;
+        }
+    }
+
+    private static class SnapshotEvictedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
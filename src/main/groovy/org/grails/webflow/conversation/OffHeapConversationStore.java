@@ -0,0 +1,249 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.conversation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A fixed capacity store that keeps serialized conversation state outside of the Java heap, either in a direct
+ * {@link ByteBuffer} or in a memory mapped file.
+ *
+ * <p>The buffer is carved into equally sized blocks and an entry occupies as many blocks as it needs. When the
+ * store runs out of free blocks the least recently used entries are evicted.</p>
+ *
+ * @since 2.2
+ */
+public class OffHeapConversationStore {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private final ByteBuffer buffer;
+    private final int blockSize;
+    private final int blockCount;
+    private final int[] freeBlocks;
+    private int freeBlockCount;
+    private long storedBytes;
+    private long evictionCount;
+
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(256, 0.75f, true);
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+
+    /**
+     * Creates a store backed by a direct (off-heap) buffer.
+     *
+     * @param capacity  the total number of bytes to reserve
+     * @param blockSize the allocation unit
+     */
+    public OffHeapConversationStore(int capacity, int blockSize) {
+        this.blockSize = checkBlockSize(capacity, blockSize);
+        this.blockCount = capacity / blockSize;
+        this.buffer = ByteBuffer.allocateDirect(blockCount * blockSize);
+        this.file = null;
+        this.randomAccessFile = null;
+        this.freeBlocks = initFreeBlocks(blockCount);
+        this.freeBlockCount = blockCount;
+    }
+
+    /**
+     * Creates a store backed by a memory mapped file. The file is scratch space only; it is truncated on startup
+     * and deleted by {@link #close()}.
+     *
+     * @param capacity  the total number of bytes to map
+     * @param blockSize the allocation unit
+     * @param path      the file to map
+     */
+    public OffHeapConversationStore(int capacity, int blockSize, String path) throws IOException {
+        this.blockSize = checkBlockSize(capacity, blockSize);
+        this.blockCount = capacity / blockSize;
+        this.file = new File(path);
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) blockCount * blockSize);
+        this.freeBlocks = initFreeBlocks(blockCount);
+        this.freeBlockCount = blockCount;
+    }
+
+    private static int checkBlockSize(int capacity, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive, was [" + blockSize + "]");
+        }
+        if (capacity < blockSize) {
+            throw new IllegalArgumentException("Capacity [" + capacity + "] must be at least one block of [" + blockSize + "] bytes");
+        }
+        return blockSize;
+    }
+
+    private static int[] initFreeBlocks(int count) {
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            // hand out low blocks first
+            blocks[i] = count - 1 - i;
+        }
+        return blocks;
+    }
+
+    /**
+     * Stores the given bytes, replacing any previous value for the key and evicting least recently used entries
+     * if required.
+     *
+     * @param key   the entry key
+     * @param owner the owner token which must be presented to read the entry back
+     * @param data  the bytes to store
+     */
+    public synchronized void put(Object key, Object owner, byte[] data) {
+        int required = (data.length + blockSize - 1) / blockSize;
+        if (required > blockCount) {
+            throw new ConversationStoreException("Conversation state of " + data.length +
+                    " bytes exceeds the capacity of the off-heap conversation store (" + getCapacity() + " bytes)");
+        }
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            release(previous);
+        }
+        while (freeBlockCount < required) {
+            evictEldest();
+        }
+
+        int[] blocks = new int[required];
+        ByteBuffer view = buffer.duplicate();
+        int offset = 0;
+        for (int i = 0; i < required; i++) {
+            int block = freeBlocks[--freeBlockCount];
+            blocks[i] = block;
+            int length = Math.min(blockSize, data.length - offset);
+            view.clear();
+            view.position(block * blockSize);
+            view.put(data, offset, length);
+            offset += length;
+        }
+        entries.put(key, new Entry(owner, blocks, data.length));
+        storedBytes += data.length;
+    }
+
+    /**
+     * @return the stored bytes or null if there is no entry for the key or it belongs to another owner
+     */
+    public synchronized byte[] get(Object key, Object owner) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.owner.equals(owner)) {
+            return null;
+        }
+        byte[] data = new byte[entry.length];
+        ByteBuffer view = buffer.duplicate();
+        int offset = 0;
+        for (int block : entry.blocks) {
+            int length = Math.min(blockSize, entry.length - offset);
+            view.clear();
+            view.position(block * blockSize);
+            view.get(data, offset, length);
+            offset += length;
+        }
+        return data;
+    }
+
+    public synchronized boolean contains(Object key, Object owner) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.owner.equals(owner);
+    }
+
+    public synchronized void remove(Object key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    private void evictEldest() {
+        Iterator<Map.Entry<Object, Entry>> i = entries.entrySet().iterator();
+        Entry eldest = i.next().getValue();
+        i.remove();
+        release(eldest);
+        evictionCount++;
+    }
+
+    private void release(Entry entry) {
+        for (int block : entry.blocks) {
+            freeBlocks[freeBlockCount++] = block;
+        }
+        storedBytes -= entry.length;
+    }
+
+    /**
+     * @return the number of bytes reserved outside of the heap
+     */
+    public long getCapacity() {
+        return (long) blockCount * blockSize;
+    }
+
+    /**
+     * @return the number of bytes held by allocated blocks
+     */
+    public synchronized long getUsedBytes() {
+        return (long) (blockCount - freeBlockCount) * blockSize;
+    }
+
+    /**
+     * @return the number of payload bytes currently stored
+     */
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public boolean isMapped() {
+        return file != null;
+    }
+
+    /**
+     * Releases the backing file, if any.
+     */
+    public synchronized void close() throws IOException {
+        entries.clear();
+        if (randomAccessFile != null) {
+            randomAccessFile.close();
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Object owner;
+        final int[] blocks;
+        final int length;
+
+        Entry(Object owner, int[] blocks, int length) {
+            this.owner = owner;
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+}
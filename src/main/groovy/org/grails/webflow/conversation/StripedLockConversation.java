@@ -0,0 +1,140 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.conversation;
+
+import org.springframework.webflow.conversation.Conversation;
+import org.springframework.webflow.conversation.ConversationId;
+import org.springframework.webflow.conversation.impl.LockInterruptedException;
+import org.springframework.webflow.conversation.impl.LockTimeoutException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A conversation of a {@link StripedLockConversationManager}, locked with the read or the write lock of its stripe
+ * depending on the request. Only the writer also locks the decorated conversation, so that conversations written
+ * back when they are unlocked, such as those of the {@link OffHeapConversationManager}, still are.
+ *
+ * @since 2.2
+ */
+class StripedLockConversation implements Conversation {
+
+    private final StripedLockConversationManager manager;
+    private final Conversation delegate;
+    private final StripedLockConversationManager.Stripe stripe;
+
+    /** The lock taken by the first call to lock(), the instance is only used by the request that got it */
+    private Lock heldLock;
+    private int holdCount;
+
+    StripedLockConversation(StripedLockConversationManager manager, Conversation delegate,
+                            StripedLockConversationManager.Stripe stripe) {
+        this.manager = manager;
+        this.delegate = delegate;
+        this.stripe = stripe;
+    }
+
+    public ConversationId getId() {
+        return delegate.getId();
+    }
+
+    public void lock() {
+        if (holdCount > 0) {
+            holdCount++;
+            return;
+        }
+        boolean shared = manager.isReadOnlyRequest();
+        Lock lock = shared ? stripe.lock.readLock() : stripe.lock.writeLock();
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            int timeout = manager.getLockTimeoutSeconds();
+            try {
+                if (!lock.tryLock(timeout, TimeUnit.SECONDS)) {
+                    throw new LockTimeoutException(timeout);
+                }
+            }
+            catch (InterruptedException e) {
+                throw new LockInterruptedException(e);
+            }
+            finally {
+                manager.lockWaited(System.nanoTime() - start, shared);
+            }
+        }
+        if (!shared) {
+            try {
+                delegate.lock();
+            }
+            catch (RuntimeException e) {
+                lock.unlock();
+                throw e;
+            }
+        }
+        else {
+            StripedLockConversationManager.sharedLockAcquired(stripe);
+        }
+        heldLock = lock;
+        holdCount = 1;
+    }
+
+    public void unlock() {
+        if (holdCount == 0) {
+            return;
+        }
+        if (--holdCount > 0) {
+            return;
+        }
+        Lock lock = heldLock;
+        heldLock = null;
+        try {
+            if (lock == stripe.lock.writeLock()) {
+                delegate.unlock();
+            }
+            else {
+                StripedLockConversationManager.sharedLockReleased();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Object getAttribute(Object name) {
+        synchronized (stripe) {
+            return delegate.getAttribute(name);
+        }
+    }
+
+    public void putAttribute(Object name, Object value) {
+        synchronized (stripe) {
+            delegate.putAttribute(name, value);
+        }
+    }
+
+    public void removeAttribute(Object name) {
+        synchronized (stripe) {
+            delegate.removeAttribute(name);
+        }
+    }
+
+    public void end() {
+        synchronized (stripe) {
+            delegate.end();
+        }
+    }
+
+    public String toString() {
+        return "StripedLockConversation[" + delegate + "]";
+    }
+}
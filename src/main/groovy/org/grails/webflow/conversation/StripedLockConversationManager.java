@@ -0,0 +1,217 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.conversation;
+
+import org.grails.webflow.metrics.FlowMetricsExecutionListener;
+import org.springframework.util.Assert;
+import org.springframework.webflow.context.ExternalContext;
+import org.springframework.webflow.context.ExternalContextHolder;
+import org.springframework.webflow.conversation.Conversation;
+import org.springframework.webflow.conversation.ConversationException;
+import org.springframework.webflow.conversation.ConversationId;
+import org.springframework.webflow.conversation.ConversationManager;
+import org.springframework.webflow.conversation.ConversationParameters;
+import org.springframework.webflow.core.collection.ParameterMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Decorates a {@link ConversationManager} so that conversations are locked with a fixed number of striped read-write
+ * locks rather than one exclusive lock each. Requests signaling no event, which only render or refresh the current
+ * view, share the read lock and run concurrently; requests signaling an event take the write lock and run alone, as
+ * they do with the decorated manager.
+ *
+ * <p>Requests sharing the read lock still update the conversation when they write their snapshot, so the
+ * conversation attributes and the flow execution repository operations are guarded by a mutex per stripe, held only
+ * for the duration of each operation. Render-only requests must therefore not change conversation scope, which they
+ * all restore against the same map; code that has to, such as the entity compaction of the Hibernate listener, does
+ * so while holding {@link #getSharedConversationMutex()}.</p>
+ *
+ * <p>Waiting for a lock fails with a {@link org.springframework.webflow.conversation.impl.LockTimeoutException}
+ * after {@link #setLockTimeoutSeconds(int)}. Lock waits are counted and, when a
+ * {@link FlowMetricsExecutionListener} is set, published as metrics.</p>
+ *
+ * @since 2.2
+ */
+public class StripedLockConversationManager implements ConversationManager {
+
+    private static final String EVENT_ID_PARAMETER = "_eventId";
+    private static final ThreadLocal<Stripe> SHARED_STRIPE = new ThreadLocal<Stripe>();
+
+    private final ConversationManager delegate;
+    private final Stripe[] stripes;
+    private final int mask;
+    private int lockTimeoutSeconds = 30;
+    private FlowMetricsExecutionListener flowMetrics;
+
+    private final AtomicLong contendedLockCount = new AtomicLong();
+    private final AtomicLong lockWaitNanos = new AtomicLong();
+
+    public StripedLockConversationManager(ConversationManager delegate) {
+        this(delegate, 256);
+    }
+
+    /**
+     * @param stripes the number of locks, rounded up to a power of two
+     */
+    public StripedLockConversationManager(ConversationManager delegate, int stripes) {
+        Assert.notNull(delegate, "The conversation manager to decorate is required");
+        Assert.isTrue(stripes > 0 && stripes <= 1 << 16, "The number of lock stripes must be between 1 and 65536");
+        this.delegate = delegate;
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    public Conversation beginConversation(ConversationParameters conversationParameters) throws ConversationException {
+        Conversation conversation = delegate.beginConversation(conversationParameters);
+        return new StripedLockConversation(this, conversation, stripeFor(conversation.getId()));
+    }
+
+    public Conversation getConversation(ConversationId id) throws ConversationException {
+        Conversation conversation = delegate.getConversation(id);
+        return new StripedLockConversation(this, conversation, stripeFor(id));
+    }
+
+    public ConversationId parseConversationId(String encodedId) throws ConversationException {
+        return delegate.parseConversationId(encodedId);
+    }
+
+    /**
+     * @return the mutex guarding the conversation state of the given conversation of the current session
+     */
+    public Object getMutex(ConversationId id) {
+        return stripeFor(id);
+    }
+
+    /**
+     * @return the mutex of the conversation the current thread shares with other render-only requests, or null when
+     * it holds no shared conversation lock
+     */
+    public static Object getSharedConversationMutex() {
+        return SHARED_STRIPE.get();
+    }
+
+    /**
+     * Conversation ids are only unique within a session with some conversation managers, so the session id takes
+     * part in choosing the stripe when there is one. The session object itself cannot be used, as session wrappers
+     * such as Spring Session create a new one for every request.
+     */
+    Stripe stripeFor(ConversationId id) {
+        int hash = id.hashCode();
+        String sessionId = currentSessionId();
+        if (sessionId != null) {
+            hash = 31 * hash + sessionId.hashCode();
+        }
+        hash ^= hash >>> 16;
+        return stripes[hash & mask];
+    }
+
+    private static String currentSessionId() {
+        ExternalContext externalContext = ExternalContextHolder.getExternalContext();
+        if (externalContext == null || !(externalContext.getNativeRequest() instanceof HttpServletRequest)) {
+            return null;
+        }
+        HttpSession session = ((HttpServletRequest) externalContext.getNativeRequest()).getSession(false);
+        return session != null ? session.getId() : null;
+    }
+
+    static void sharedLockAcquired(Stripe stripe) {
+        SHARED_STRIPE.set(stripe);
+    }
+
+    static void sharedLockReleased() {
+        SHARED_STRIPE.remove();
+    }
+
+    /**
+     * @return whether the current request only renders, so it can share the conversation with other such requests
+     */
+    boolean isReadOnlyRequest() {
+        ExternalContext externalContext = ExternalContextHolder.getExternalContext();
+        if (externalContext == null) {
+            return false;
+        }
+        ParameterMap parameters = externalContext.getRequestParameterMap();
+        if (parameters.contains(EVENT_ID_PARAMETER)) {
+            return false;
+        }
+        for (Object name : parameters.asMap().keySet()) {
+            // a submit button named _eventId_next signals the event next
+            if (name.toString().startsWith(EVENT_ID_PARAMETER)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void lockWaited(long nanos, boolean shared) {
+        contendedLockCount.incrementAndGet();
+        lockWaitNanos.addAndGet(nanos);
+        if (flowMetrics != null) {
+            flowMetrics.conversationLockWaited(nanos, shared);
+        }
+    }
+
+    public ConversationManager getDelegate() {
+        return delegate;
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    public int getLockTimeoutSeconds() {
+        return lockTimeoutSeconds;
+    }
+
+    public void setLockTimeoutSeconds(int lockTimeoutSeconds) {
+        this.lockTimeoutSeconds = lockTimeoutSeconds;
+    }
+
+    public void setFlowMetrics(FlowMetricsExecutionListener flowMetrics) {
+        this.flowMetrics = flowMetrics;
+    }
+
+    /**
+     * @return the number of times a request had to wait for a conversation lock
+     */
+    public long getContendedLockCount() {
+        return contendedLockCount.get();
+    }
+
+    /**
+     * @return the total time requests waited for conversation locks, in nanoseconds
+     */
+    public long getLockWaitNanos() {
+        return lockWaitNanos.get();
+    }
+
+    /**
+     * One lock, shared by the conversations whose ids hash to it, and also the mutex guarding their state.
+     */
+    static final class Stripe {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    }
+}
@@ -14,7 +14,6 @@
  */
 package org.grails.webflow.engine.builder
 
-import grails.core.GrailsDomainClassProperty
 import grails.util.GrailsNameUtils
 import grails.util.Holders
 import grails.validation.ConstraintsEvaluator
@@ -22,10 +21,9 @@ import grails.web.databinding.DataBindingUtils
 import org.codehaus.groovy.grails.web.binding.UriEditor
 
 import org.grails.core.support.GrailsDomainConfigurationUtil
-import org.grails.validation.DefaultConstraintEvaluator
 import org.grails.web.beans.PropertyEditorRegistryUtils
+import org.grails.web.binding.spring.CommandObjectDataBinder
 import org.grails.web.servlet.mvc.GrailsWebRequest
-import org.grails.web.servlet.DefaultGrailsApplicationAttributes
 import grails.web.databinding.GrailsWebDataBinder
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -34,7 +32,6 @@ import org.springframework.beans.factory.config.AutowireCapableBeanFactory
 import org.springframework.beans.propertyeditors.CurrencyEditor
 import org.springframework.beans.propertyeditors.LocaleEditor
 import org.springframework.beans.propertyeditors.TimeZoneEditor
-import org.springframework.validation.Errors
 import org.springframework.validation.Validator
 import org.springframework.web.context.request.RequestContextHolder as RCH
 import org.springframework.web.multipart.support.ByteArrayMultipartFileEditor
@@ -62,6 +59,8 @@ class ClosureInvokingAction extends AbstractAction {
     def commandClasses
     def noOfParams
     boolean hasCommandObjects
+    List<CommandObjectValidationPlan> validationPlans
+    CommandObjectDataBinder commandObjectDataBinder
     def applicationContext
     def grailsApplication
 
@@ -71,30 +70,7 @@ class ClosureInvokingAction extends AbstractAction {
         this.noOfParams = commandClasses.size()
         this.hasCommandObjects = noOfParams > 1 || (noOfParams == 1 && commandClasses[0] != Object.class && commandClasses[0] != RequestContext.class)
         if (hasCommandObjects) {
-            for (co in commandClasses) {
-                co.metaClass.getErrors = {->
-                    RCH.currentRequestAttributes().getAttribute("${co.name}_${delegate.hashCode()}_errors",0)
-                }
-                co.metaClass.setErrors = { Errors errors ->
-                    RCH.currentRequestAttributes().setAttribute("${co.name}_${delegate.hashCode()}_errors",errors,0)
-                }
-                co.metaClass.hasErrors = {-> errors?.hasErrors() ? true : false }
-                def constrainedProperties = new DefaultConstraintEvaluator().evaluate(co.newInstance(), (GrailsDomainClassProperty[])null)
-                co.metaClass.getConstraints = {-> constrainedProperties }
-                co.metaClass.validate = {->
-                    errors = new org.springframework.validation.BeanPropertyBindingResult(delegate, delegate.class.name)
-                    def localErrors = errors
-
-                    checkAppContext()
-                    if (constrainedProperties) {
-                        for (prop in constrainedProperties.values()) {
-                            prop.messageSource = applicationContext.getBean("messageSource")
-                            prop.validate(delegate, delegate.getProperty(prop.getPropertyName()), localErrors)
-                        }
-                    }
-                    !localErrors.hasErrors()
-                }
-            }
+            this.validationPlans = commandClasses.collect { Class co -> CommandObjectValidationPlan.forClass(co) }
         }
     }
 
@@ -105,6 +81,16 @@ class ClosureInvokingAction extends AbstractAction {
         }
     }
 
+    /**
+     * @return the binder registered by the plugin, or null to bind with {@link DataBindingUtils}
+     */
+    CommandObjectDataBinder getCommandObjectDataBinder() {
+        if (commandObjectDataBinder == null && applicationContext?.containsBean(FlowCommandObjectDataBinder.BEAN_NAME)) {
+            commandObjectDataBinder = applicationContext.getBean(FlowCommandObjectDataBinder.BEAN_NAME)
+        }
+        commandObjectDataBinder
+    }
+
     protected Event doExecute(RequestContext context) throws Exception {
 
         def result
@@ -113,21 +99,32 @@ class ClosureInvokingAction extends AbstractAction {
             def actionDelegate = new ActionDelegate(this, context)
             cloned.delegate = actionDelegate
             cloned.resolveStrategy = Closure.DELEGATE_FIRST
+            ScopeChangeTracker.ScopeValues scopeBefore = ScopeChangeTracker.capture(context)
 
             if (hasCommandObjects) {
                 checkAppContext()
+                CommandObjectDataBinder binder = getCommandObjectDataBinder()
                 def commandInstances = []
-                for (p in commandClasses) {
-                    def instance = p.newInstance()
-
-                    applicationContext.autowireCapableBeanFactory?.autowireBeanProperties(
-                        instance, AutowireCapableBeanFactory.AUTOWIRE_BY_NAME, false)
+                for (int i = 0; i < noOfParams; i++) {
+                    CommandObjectValidationPlan plan = validationPlans[i]
+                    plan.install()
+                    def instance = plan.commandClass.newInstance()
+
+                    if (binder == null || binder.requiresAutowiring(plan.commandClass)) {
+                        applicationContext.autowireCapableBeanFactory?.autowireBeanProperties(
+                            instance, AutowireCapableBeanFactory.AUTOWIRE_BY_NAME, false)
+                    }
 
                     def params = noOfParams > 1 ? actionDelegate.params[GrailsNameUtils.getPropertyName(instance.class)] : actionDelegate.params
                     if (params) {
-                        DataBindingUtils.bindObjectToInstance(instance, params)
+                        if (binder != null) {
+                            binder.bind(instance, params)
+                        }
+                        else {
+                            DataBindingUtils.bindObjectToInstance(instance, params)
+                        }
                     }
-                    instance.validate()
+                    plan.validate(instance, applicationContext)
                     commandInstances << instance
                 }
                 result = cloned.call(*commandInstances)
@@ -138,19 +135,20 @@ class ClosureInvokingAction extends AbstractAction {
             def event
             if (result instanceof Map) {
                 context.flowScope.putAll(new LocalAttributeMap(result))
+                ScopeChangeTracker.touched((Map) result)
                 event = super.success(result)
             }
             else if (result instanceof Event) {
                 event = result
                 context.flowScope.putAll(event.attributes)
+                ScopeChangeTracker.touched(event.attributes.asMap())
             }
             else {
                 event = super.success(result)
             }
             // here we place any errors that have occured in groovy objects into flashScope so they
             // can be restored upon deserialization of the flow
-            checkForErrors(context,context.flowScope.asMap())
-            checkForErrors(context,context.conversationScope.asMap())
+            ScopeChangeTracker.propagateErrors(context, scopeBefore)
             return event
         }
         catch (Throwable e) {
@@ -159,22 +157,6 @@ class ClosureInvokingAction extends AbstractAction {
         }
     }
 
-    def checkForErrors(context, scope) {
-        for (entry in scope) {
-            try {
-                if (entry.value instanceof GroovyObject) {
-                    def errors = entry.value.errors
-                    if (errors?.hasErrors()) {
-                        context.flashScope.put("${DefaultGrailsApplicationAttributes.ERRORS}_${entry.key}", errors)
-                    }
-                }
-            }
-            catch (MissingPropertyException e) {
-                // ignore
-            }
-        }
-    }
-
     Object invokeMethod(String name, args) {
         if (metaClass instanceof ExpandoMetaClass) {
             def emc = metaClass
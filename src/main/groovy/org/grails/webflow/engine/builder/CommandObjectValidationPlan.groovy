@@ -0,0 +1,133 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.engine.builder
+
+import grails.core.GrailsDomainClassProperty
+import org.grails.validation.DefaultConstraintEvaluator
+import org.springframework.context.ApplicationContext
+import org.springframework.validation.BeanPropertyBindingResult
+import org.springframework.validation.Errors
+import org.springframework.web.context.request.RequestAttributes
+import org.springframework.web.context.request.RequestContextHolder as RCH
+
+/**
+ * Validation metadata for a command object class used by flow actions. A plan is built once per class and shared
+ * by every {@link ClosureInvokingAction} that takes that class as a parameter: the constraints are evaluated once,
+ * the {@code messageSource} is looked up once per application context and the {@code errors}, {@code validate()}
+ * and {@code constraints} methods are installed on the metaClass only when it has not been done already.
+ *
+ * <p>Errors are kept for the duration of the request in a single request attribute, keyed by command object
+ * identity.</p>
+ *
+ * @since 2.2
+ */
+class CommandObjectValidationPlan {
+
+    static final String ERRORS_ATTRIBUTE = "org.grails.webflow.COMMAND_OBJECT_ERRORS"
+
+    private static final ClassValue<CommandObjectValidationPlan> plans = new ClassValue<CommandObjectValidationPlan>() {
+        @Override
+        protected CommandObjectValidationPlan computeValue(Class<?> type) {
+            new CommandObjectValidationPlan(type)
+        }
+    }
+
+    final Class commandClass
+    final Map constrainedProperties
+
+    private final List constraints
+    private volatile MetaClass installedMetaClass
+    private volatile ApplicationContext messageSourceContext
+
+    /**
+     * @return the shared plan for the given class, with its metaClass methods installed
+     */
+    static CommandObjectValidationPlan forClass(Class commandClass) {
+        CommandObjectValidationPlan plan = plans.get(commandClass)
+        plan.install()
+        plan
+    }
+
+    private CommandObjectValidationPlan(Class commandClass) {
+        this.commandClass = commandClass
+        this.constrainedProperties = new DefaultConstraintEvaluator().evaluate(commandClass.newInstance(), (GrailsDomainClassProperty[])null)
+        this.constraints = constrainedProperties ? new ArrayList(constrainedProperties.values()) : Collections.emptyList()
+    }
+
+    /**
+     * Adds the validation methods to the metaClass, unless they are present on the current metaClass already.
+     */
+    void install() {
+        if (installedMetaClass != null && installedMetaClass.is(GroovySystem.metaClassRegistry.getMetaClass(commandClass))) {
+            return
+        }
+        synchronized (this) {
+            if (installedMetaClass != null && installedMetaClass.is(GroovySystem.metaClassRegistry.getMetaClass(commandClass))) {
+                return
+            }
+            CommandObjectValidationPlan plan = this
+            commandClass.metaClass.getErrors = {-> plan.getErrors(delegate) }
+            commandClass.metaClass.setErrors = { Errors errors -> plan.setErrors(delegate, errors) }
+            commandClass.metaClass.hasErrors = {-> plan.getErrors(delegate)?.hasErrors() ? true : false }
+            commandClass.metaClass.getConstraints = {-> plan.constrainedProperties }
+            commandClass.metaClass.validate = {-> plan.validate(delegate, null) }
+            installedMetaClass = GroovySystem.metaClassRegistry.getMetaClass(commandClass)
+        }
+    }
+
+    /**
+     * Validates the command object, storing the errors for the current request.
+     * @param applicationContext the context to take the messageSource from, or null to use the one of the current request
+     */
+    boolean validate(instance, ApplicationContext applicationContext) {
+        Errors errors = new BeanPropertyBindingResult(instance, commandClass.name)
+        setErrors(instance, errors)
+        ScopeChangeTracker.validated(instance)
+        if (constraints) {
+            applyMessageSource(applicationContext ?: RCH.currentRequestAttributes().attributes.applicationContext)
+            for (prop in constraints) {
+                prop.validate(instance, instance.getProperty(prop.getPropertyName()), errors)
+            }
+        }
+        !errors.hasErrors()
+    }
+
+    Errors getErrors(instance) {
+        Map<Object, Errors> errors = (Map<Object, Errors>) RCH.currentRequestAttributes().getAttribute(ERRORS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+        errors?.get(instance)
+    }
+
+    void setErrors(instance, Errors errors) {
+        RequestAttributes attributes = RCH.currentRequestAttributes()
+        Map<Object, Errors> allErrors = (Map<Object, Errors>) attributes.getAttribute(ERRORS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+        if (allErrors == null) {
+            allErrors = new IdentityHashMap<Object, Errors>()
+            attributes.setAttribute(ERRORS_ATTRIBUTE, allErrors, RequestAttributes.SCOPE_REQUEST)
+        }
+        allErrors.put(instance, errors)
+    }
+
+    private void applyMessageSource(ApplicationContext applicationContext) {
+        if (applicationContext != null && !applicationContext.is(messageSourceContext)) {
+            synchronized (this) {
+                def messageSource = applicationContext.getBean("messageSource")
+                for (prop in constraints) {
+                    prop.messageSource = messageSource
+                }
+                messageSourceContext = applicationContext
+            }
+        }
+    }
+}
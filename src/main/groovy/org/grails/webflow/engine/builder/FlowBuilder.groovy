@@ -20,13 +20,13 @@ import grails.web.mapping.UrlMappingsHolder
 import groovy.util.logging.Slf4j
 import org.grails.web.gsp.io.GrailsConventionGroovyPageLocator
 import org.grails.webflow.PropertyExpression
+import org.grails.webflow.persistence.FlowPersistencePolicy
 import org.springframework.binding.convert.ConversionService
 import org.springframework.binding.expression.ExpressionParser
 import org.springframework.webflow.execution.RequestContext
 
 import java.beans.PropertyDescriptor
 
-import org.grails.web.servlet.DefaultGrailsApplicationAttributes
 import org.springframework.beans.BeanUtils
 import org.springframework.binding.expression.support.StaticExpression
 import org.springframework.binding.mapping.Mapper
@@ -135,11 +135,19 @@ class FlowBuilder extends AbstractFlowBuilder implements GroovyObject, Applicati
             if(flow.attributes.get("openSessionInView") in ["true", true]) {
                 flow.attributes.put("openSessionInView", "true")
             }
+            FlowPersistencePolicy.register(flow)
             return flow
         }
 
         if (flowDefiningMode) {
             FlowArtifactFactory flowFactory = getContext().getFlowArtifactFactory()
+            if ("persistenceContext" == name && args.length == 1 && args[0] instanceof Map) {
+                // persistenceContext(readOnly: true) for flows that only display and browse entities
+                Map options = (Map) args[0]
+                flow.attributes.put("persistenceContext", "true")
+                flow.attributes.put(FlowPersistencePolicy.READ_ONLY_ATTRIBUTE, options.readOnly as boolean)
+                return null
+            }
             if (isFirstArgumentClosure(args)) {
                 if ("onStart" == name) {
                     flow.startActionList.add(new ClosureInvokingAction(args[0]))
@@ -254,7 +262,7 @@ class FlowBuilder extends AbstractFlowBuilder implements GroovyObject, Applicati
         }
     }
 
-    private String createViewPath(flowInfo, String name) {
+    protected String createViewPath(flowInfo, String name) {
         String view
         if (flowInfo.viewName) {
             def path = flowInfo.viewName
@@ -272,37 +280,12 @@ class FlowBuilder extends AbstractFlowBuilder implements GroovyObject, Applicati
         return view.replaceAll(~/\/+/,"/")
     }
 
-    private State createViewState(String stateId, String viewName, Transition[] transitions,
+    protected State createViewState(String stateId, String viewName, Transition[] transitions,
             FlowArtifactFactory flowFactory, Closure customRenderAction = null,
             Closure customEntryAction = null, Closure customExitAction=null) {
 
-        def renderAction = new ClosureInvokingAction({
-            for (entry in flash.asMap()) {
-                def key = entry.key
-                if (key.startsWith(DefaultGrailsApplicationAttributes.ERRORS)) {
-                    key = key.substring(DefaultGrailsApplicationAttributes.ERRORS.length() + 1)
-                    def formObject = flow[key]
-                    if (formObject) {
-                        try {
-                            formObject.errors = entry.value
-                        }
-                        catch (MissingPropertyException mpe) {
-                            // ignore
-                        }
-                    }
-                    else {
-                        formObject = conversation[key]
-                        if (formObject) {
-                            try {
-                                formObject.errors = entry.value
-                            }
-                            catch (MissingPropertyException mpe) {
-                                // ignore
-                            }
-                        }
-                    }
-                }
-            }
+        def renderAction = new ClosureInvokingAction({ RequestContext context ->
+            ScopeChangeTracker.restoreErrors(context)
         })
 
         ViewFactory viewFactory = createViewFactory(viewName)
@@ -345,13 +328,13 @@ class FlowBuilder extends AbstractFlowBuilder implements GroovyObject, Applicati
             }
             subflowId = "${controllerName}/$flowInfo.subflowAction"
         }
-        Flow subflow = definitionLocator.getFlowDefinition(subflowId)
-
-        return flowFactory.createSubflowState(stateId, getFlow(), null, new StaticExpression(subflow),
+        // looked up when the state is entered, see SubflowExpression
+        def subflow = new SubflowExpression(subflowId.toString(), definitionLocator)
+        return flowFactory.createSubflowState(stateId, getFlow(), null, subflow,
                 new GrailsSubflowAttributeMapper(flowInfo.subflowInput), flowInfo.transitions, null, null, null)
     }
 
-    private State createActionState(String stateId, Closure action, Transition[] transitions,
+    protected State createActionState(String stateId, Closure action, Transition[] transitions,
            FlowArtifactFactory flowFactory,Closure customEntryAction = null, Closure customExitAction=null) {
 
         return flowFactory.createActionState(stateId,
@@ -372,7 +355,7 @@ class FlowBuilder extends AbstractFlowBuilder implements GroovyObject, Applicati
             outputMapper, null, null)
     }
 
-    private Action[] getActionArrayOrNull(Closure customAction) {
+    protected Action[] getActionArrayOrNull(Closure customAction) {
         if (customAction) {
             return [new ClosureInvokingAction(customAction)] as Action[]
         }
@@ -673,8 +656,14 @@ class FlowInfoCapturer {
     }
 
     void redirect(Map args) {
-        if (args.url) redirectUrl = new UriRedirectAction(uri:args.url)
-        else if (args.uri) redirectUrl = new UriRedirectAction(uri:args.uri)
+        if (args.url) {
+            PropertyExpressionResolver.compile(args.url)
+            redirectUrl = new UriRedirectAction(uri:args.url)
+        }
+        else if (args.uri) {
+            PropertyExpressionResolver.compile(args.uri)
+            redirectUrl = new UriRedirectAction(uri:args.uri)
+        }
         else {
             if (args.controller || args.action) {
                 def urlMapper =  applicationContext?.getBean(UrlMappingsHolder.BEAN_ID)
@@ -685,6 +674,10 @@ class FlowInfoCapturer {
                     def webRequest = RequestContextHolder.currentRequestAttributes()
                     controllerName = webRequest?.controllerName
                 }
+                // compile property expressions now rather than on the first redirect
+                PropertyExpressionResolver.compile(controllerName)
+                PropertyExpressionResolver.compile(args.action)
+                PropertyExpressionResolver.compile(params)
                 redirectUrl = new RuntimeRedirectAction(controller:controllerName,
                     action:args.action,
                     params:params,
@@ -0,0 +1,197 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.engine.builder;
+
+import groovy.lang.Closure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers a checksum of the compiled classes behind each registered flow closure, so that a reloaded controller
+ * only has the flows that actually changed rebuilt. The checksum covers the closure class and the classes of the
+ * closures nested within it at any depth, as read from the class loader.
+ *
+ * @since 2.2
+ */
+public class FlowClosureFingerprints {
+
+    public static final String BEAN_NAME = "flowClosureFingerprints";
+
+    private static final Logger log = LoggerFactory.getLogger(FlowClosureFingerprints.class);
+
+    private final Map<String, Long> fingerprints = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Records the fingerprint of the given flow closure.
+     *
+     * @return true if the flow is new or its closure classes changed since it was last recorded
+     */
+    public boolean update(String flowId, Closure<?> flowClosure) {
+        Long fingerprint = fingerprint(flowClosure.getClass());
+        if (fingerprint == null) {
+            fingerprints.remove(flowId);
+            return true;
+        }
+        Long previous = fingerprints.put(flowId, fingerprint);
+        return !fingerprint.equals(previous);
+    }
+
+    public void remove(String flowId) {
+        fingerprints.remove(flowId);
+    }
+
+    /**
+     * @return the checksum of the class and its nested classes, or null if any of their bytes can not be read
+     */
+    static Long fingerprint(Class<?> closureClass) {
+        ClassLoader classLoader = closureClass.getClassLoader();
+        if (classLoader == null) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        return update(crc, classLoader, closureClass.getName().replace('.', '/'), new HashSet<String>()) ? crc.getValue() : null;
+    }
+
+    /**
+     * Groovy compiles nested closures to classes named after the enclosing closure class ({@code Outer$_closure1$_closure2})
+     * that are not declared as its member classes, so they are found through the class names the enclosing class
+     * refers to.
+     */
+    private static boolean update(CRC32 crc, ClassLoader classLoader, String internalName, Set<String> visited) {
+        if (!visited.add(internalName)) {
+            return true;
+        }
+        byte[] bytes = read(classLoader, internalName);
+        if (bytes == null) {
+            return false;
+        }
+        crc.update(bytes, 0, bytes.length);
+
+        List<String> nested = new ArrayList<String>();
+        String prefix = internalName + "$_";
+        for (String referenced : referencedClassNames(bytes)) {
+            if (referenced.startsWith(prefix)) {
+                nested.add(referenced);
+            }
+        }
+        Collections.sort(nested);
+        for (String nestedClass : nested) {
+            if (!update(crc, classLoader, nestedClass, visited)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] read(ClassLoader classLoader, String internalName) {
+        InputStream input = classLoader.getResourceAsStream(internalName + ".class");
+        if (input == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+            byte[] buffer = new byte[4096];
+            for (int read; (read = input.read(buffer)) != -1;) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            log.debug("Unable to read class [" + internalName + "] to fingerprint it: " + e.getMessage());
+            return null;
+        }
+        finally {
+            try {
+                input.close();
+            }
+            catch (IOException ignored) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * @return the internal names of the classes in the constant pool of the given class file
+     */
+    static List<String> referencedClassNames(byte[] classFile) {
+        List<String> names = new ArrayList<String>();
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+            if (in.readInt() != 0xCAFEBABE) {
+                return names;
+            }
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            int[] classNameIndexes = new int[count];
+            int classes = 0;
+            for (int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case 1:
+                        utf8[i] = in.readUTF();
+                        break;
+                    case 7:
+                        classNameIndexes[classes++] = in.readUnsignedShort();
+                        break;
+                    case 8: case 16: case 19: case 20:
+                        in.skipBytes(2);
+                        break;
+                    case 15:
+                        in.skipBytes(3);
+                        break;
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                        in.skipBytes(4);
+                        break;
+                    case 5: case 6:
+                        // longs and doubles take two entries
+                        in.skipBytes(8);
+                        i++;
+                        break;
+                    default:
+                        return names;
+                }
+            }
+            for (int i = 0; i < classes; i++) {
+                String name = utf8[classNameIndexes[i]];
+                if (name != null) {
+                    names.add(name);
+                }
+            }
+        }
+        catch (IOException e) {
+            log.debug("Unable to read the constant pool of a flow closure class: " + e.getMessage());
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            log.debug("Unable to read the constant pool of a flow closure class: " + e.getMessage());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,232 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.engine.builder
+
+import grails.web.databinding.DataBindingUtils
+import org.grails.web.binding.spring.CommandObjectDataBinder
+import org.springframework.beans.BeanUtils
+import org.springframework.beans.BeansException
+import org.springframework.context.ApplicationContext
+import org.springframework.context.ApplicationContextAware
+
+import java.beans.PropertyDescriptor
+import java.lang.reflect.AccessibleObject
+import java.lang.reflect.Field
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import java.util.regex.Pattern
+
+/**
+ * Binds request parameters to flow command objects using a binding plan built once per command class.
+ *
+ * <p>Parameters that map onto String, number and boolean properties are converted and set directly. Whenever
+ * the parameters need anything more (nested or indexed properties, checkbox markers, multiple values, locale
+ * dependent numbers, binding annotations, ...) the whole map is handed to {@link DataBindingUtils} instead, so the
+ * result is always the same as that of the regular Grails data binder.</p>
+ *
+ * @since 2.2
+ */
+class FlowCommandObjectDataBinder implements CommandObjectDataBinder, ApplicationContextAware {
+
+    static final String BEAN_NAME = "flowCommandObjectDataBinder"
+
+    private static final Object NO_CONVERSION = new Object()
+    private static final Pattern INTEGRAL = Pattern.compile(/-?\d{1,18}/)
+    private static final Set<String> EXCLUDED_PROPERTIES = ['class', 'metaClass', 'errors', 'properties', 'constraints'] as Set
+    private static final Set<String> INJECTION_ANNOTATIONS = ['org.springframework.beans.factory.annotation.Autowired',
+        'org.springframework.beans.factory.annotation.Value', 'javax.inject.Inject', 'javax.annotation.Resource'] as Set
+
+    ApplicationContext applicationContext
+    boolean trimStrings = true
+    boolean convertEmptyStringsToNull = true
+
+    private final ClassValue<BindingPlan> plans = new ClassValue<BindingPlan>() {
+        @Override
+        protected BindingPlan computeValue(Class<?> type) {
+            createPlan(type)
+        }
+    }
+
+    void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        this.applicationContext = applicationContext
+        def grailsBinder = applicationContext.containsBean("grailsWebDataBinder") ? applicationContext.getBean("grailsWebDataBinder") : null
+        if (grailsBinder?.hasProperty('trimStrings')) {
+            trimStrings = grailsBinder.trimStrings
+        }
+        if (grailsBinder?.hasProperty('convertEmptyStringsToNull')) {
+            convertEmptyStringsToNull = grailsBinder.convertEmptyStringsToNull
+        }
+    }
+
+    boolean requiresAutowiring(Class commandClass) {
+        plans.get(commandClass).requiresAutowiring
+    }
+
+    void bind(Object commandObject, Map params) {
+        BindingPlan plan = plans.get(commandObject.getClass())
+        if (!plan.fastPathSupported || !bindSimpleProperties(plan, commandObject, params)) {
+            DataBindingUtils.bindObjectToInstance(commandObject, params)
+        }
+    }
+
+    /**
+     * @return false if the parameters need the full data binder, in which case nothing has been bound
+     */
+    private boolean bindSimpleProperties(BindingPlan plan, Object target, Map params) {
+        Object[] values = null
+        for (Map.Entry entry in (Set<Map.Entry>) params.entrySet()) {
+            String key = entry.key.toString()
+            PropertyBinding binding = plan.simpleProperties.get(key)
+            if (binding == null) {
+                int dot = key.indexOf('.')
+                String root = key.startsWith('_') ? key.substring(1) : (dot > -1 ? key.substring(0, dot) : key)
+                if (plan.bindableProperties.contains(root)) {
+                    return false
+                }
+                continue
+            }
+            Object value = convert(binding.type, entry.value)
+            if (value.is(NO_CONVERSION)) {
+                return false
+            }
+            if (values == null) {
+                values = new Object[plan.propertyCount]
+                Arrays.fill(values, NO_CONVERSION)
+            }
+            values[binding.index] = value
+        }
+        if (values != null) {
+            for (PropertyBinding binding in plan.simpleProperties.values()) {
+                Object value = values[binding.index]
+                if (!value.is(NO_CONVERSION)) {
+                    binding.setter.invoke(target, value)
+                }
+            }
+        }
+        return true
+    }
+
+    private Object convert(Class type, Object value) {
+        if (!(value instanceof String)) {
+            return NO_CONVERSION
+        }
+        String text = trimStrings ? ((String) value).trim() : (String) value
+        if (type == String) {
+            return text.length() == 0 && convertEmptyStringsToNull ? null : text
+        }
+        if (type == Boolean || type == boolean) {
+            return text == 'true' ? Boolean.TRUE : (text == 'false' ? Boolean.FALSE : NO_CONVERSION)
+        }
+        if (!INTEGRAL.matcher(text).matches()) {
+            return NO_CONVERSION
+        }
+        long number = Long.parseLong(text)
+        switch (type) {
+            case Long: case long: return number
+            case Integer: case int: return number == (int) number ? Integer.valueOf((int) number) : NO_CONVERSION
+            case Short: case short: return number == (short) number ? Short.valueOf((short) number) : NO_CONVERSION
+            case Byte: case byte: return number == (byte) number ? Byte.valueOf((byte) number) : NO_CONVERSION
+            case Double: case double: return Double.valueOf(number)
+            case Float: case float: return Float.valueOf(number)
+            case BigDecimal: return BigDecimal.valueOf(number)
+            case BigInteger: return BigInteger.valueOf(number)
+        }
+        return NO_CONVERSION
+    }
+
+    protected BindingPlan createPlan(Class type) {
+        BindingPlan plan = new BindingPlan()
+        List<String> whiteList = null
+        try {
+            Field whiteListField = type.getDeclaredField('$defaultDatabindingWhiteList')
+            if (Modifier.isStatic(whiteListField.modifiers)) {
+                whiteListField.accessible = true
+                whiteList = (List<String>) whiteListField.get(null)
+            }
+        }
+        catch (NoSuchFieldException ignored) {
+        }
+
+        Set<String> notBindable = findNotBindable(type)
+        int index = 0
+        for (PropertyDescriptor pd in BeanUtils.getPropertyDescriptors(type)) {
+            Method setter = pd.writeMethod
+            if (setter == null || EXCLUDED_PROPERTIES.contains(pd.name)) {
+                continue
+            }
+            if (!BeanUtils.isSimpleProperty(pd.propertyType) && applicationContext?.containsBean(pd.name)) {
+                plan.requiresAutowiring = true
+            }
+            if ((whiteList != null && !whiteList.contains(pd.name)) || notBindable.contains(pd.name)) {
+                continue
+            }
+            plan.bindableProperties << pd.name
+            if (isSimpleType(pd.propertyType)) {
+                plan.simpleProperties.put(pd.name, new PropertyBinding(index: index++, type: pd.propertyType, setter: setter))
+            }
+        }
+        plan.propertyCount = index
+
+        for (Class c = type; c != null && c != Object; c = c.superclass) {
+            List<AccessibleObject> members = []
+            members.addAll(c.declaredFields)
+            members.addAll(c.declaredMethods)
+            for (AccessibleObject member in members) {
+                for (annotation in member.annotations) {
+                    String annotationName = annotation.annotationType().name
+                    if (annotationName.startsWith('grails.databinding.') || annotationName.startsWith('org.grails.databinding.')) {
+                        plan.fastPathSupported = false
+                    }
+                    if (INJECTION_ANNOTATIONS.contains(annotationName)) {
+                        plan.requiresAutowiring = true
+                    }
+                }
+            }
+        }
+        return plan
+    }
+
+    private static Set<String> findNotBindable(Class type) {
+        Set<String> notBindable = [] as Set
+        Map constrainedProperties = CommandObjectValidationPlan.forClass(type).constrainedProperties
+        constrainedProperties?.each { String name, prop ->
+            if (prop.respondsTo('getMetaConstraintValue') && prop.getMetaConstraintValue('bindable') == false) {
+                notBindable << name
+            }
+        }
+        notBindable
+    }
+
+    private static boolean isSimpleType(Class type) {
+        type == String || type == Boolean || type == boolean || type == Long || type == long ||
+            type == Integer || type == int || type == Short || type == short || type == Byte || type == byte ||
+            type == Double || type == double || type == Float || type == float ||
+            type == BigDecimal || type == BigInteger
+    }
+
+    protected static class BindingPlan {
+        final Map<String, PropertyBinding> simpleProperties = [:]
+        final Set<String> bindableProperties = [] as Set
+        int propertyCount
+        boolean fastPathSupported = true
+        boolean requiresAutowiring
+    }
+
+    protected static class PropertyBinding {
+        int index
+        Class type
+        Method setter
+    }
+}
@@ -0,0 +1,132 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.engine.builder
+
+import groovy.transform.CompileStatic
+
+/**
+ * The states and transitions of a flow, as written by the methods that {@link org.grails.webflow.compiler.CompiledFlows}
+ * generates at compile time. {@link StaticFlowBuilder} turns a model into a flow without running the flow DSL.
+ *
+ * @since 2.2
+ */
+@CompileStatic
+class FlowDefinitionModel {
+
+    /**
+     * Prefix of the method generated for each compiled flow, followed by the name of the flow closure property
+     */
+    public static final String MODEL_METHOD_PREFIX = 'webflow$'
+
+    final List<StateModel> states = []
+
+    StateModel state(String id) {
+        StateModel state = new StateModel(id)
+        states << state
+        state
+    }
+
+    /**
+     * @return the model generated for the given flow closure, or null if its controller was not compiled with
+     * {@link org.grails.webflow.compiler.CompiledFlows} or the flow could not be translated
+     */
+    static FlowDefinitionModel forFlow(Object controller, String closureName) {
+        if (controller == null) {
+            return null
+        }
+        for (Class type = controller.getClass(); type != null && type != Object; type = type.superclass) {
+            try {
+                def method = type.getDeclaredMethod(MODEL_METHOD_PREFIX + closureName)
+                method.accessible = true
+                return (FlowDefinitionModel) method.invoke(controller)
+            }
+            catch (NoSuchMethodException ignored) {
+                // look in the superclass
+            }
+        }
+        null
+    }
+
+    @CompileStatic
+    static class StateModel {
+        final String id
+        final List<TransitionModel> transitions = []
+        Closure action
+        Closure entryAction
+        Closure exitAction
+        Closure renderAction
+        String viewName
+        String subflowController
+        String subflowAction
+
+        StateModel(String id) {
+            this.id = id
+        }
+
+        StateModel action(Closure action) {
+            this.action = action
+            this
+        }
+
+        StateModel onEntry(Closure entryAction) {
+            this.entryAction = entryAction
+            this
+        }
+
+        StateModel onExit(Closure exitAction) {
+            this.exitAction = exitAction
+            this
+        }
+
+        StateModel onRender(Closure renderAction) {
+            this.renderAction = renderAction
+            this
+        }
+
+        StateModel render(String viewName) {
+            this.viewName = viewName
+            this
+        }
+
+        StateModel subflow(String controller, String action) {
+            this.subflowController = controller
+            this.subflowAction = action
+            this
+        }
+
+        StateModel on(String event, String to) {
+            transitions << new TransitionModel(event, null, to)
+            this
+        }
+
+        StateModel on(Class<? extends Throwable> exception, String to) {
+            transitions << new TransitionModel(null, exception, to)
+            this
+        }
+    }
+
+    @CompileStatic
+    static class TransitionModel {
+        final String on
+        final Class<? extends Throwable> exception
+        final String to
+
+        TransitionModel(String on, Class<? extends Throwable> exception, String to) {
+            this.on = on
+            this.exception = exception
+            this.to = to
+        }
+    }
+}
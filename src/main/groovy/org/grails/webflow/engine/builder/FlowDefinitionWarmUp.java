@@ -0,0 +1,142 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.engine.builder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assembles every flow in a registry ahead of its first request, using a bounded pool of daemon threads so that
+ * application startup is not held up. Flows that fail to assemble are logged and left for the first request to
+ * report.
+ *
+ * <p>Each flow holder assembles under its own lock. Subflows are only looked up when a subflow state is entered,
+ * see {@link SubflowExpression}, so no holder waits for another while it holds its own lock and flows may be
+ * assembled by any number of warm-up and request threads at once.</p>
+ *
+ * @since 2.2
+ */
+public class FlowDefinitionWarmUp {
+
+    private static final Logger log = LoggerFactory.getLogger(FlowDefinitionWarmUp.class);
+
+    private final FlowDefinitionRegistry flowDefinitionRegistry;
+    private final int threads;
+    private final Map<String, Long> assemblyTimes = new ConcurrentHashMap<String, Long>();
+    private ExecutorService executor;
+
+    public FlowDefinitionWarmUp(FlowDefinitionRegistry flowDefinitionRegistry, int threads) {
+        this.flowDefinitionRegistry = flowDefinitionRegistry;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Submits every registered flow for assembly and returns immediately.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+
+        final String[] flowIds = flowDefinitionRegistry.getFlowDefinitionIds();
+        executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, flowIds.length)), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "webflow-warm-up-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final long start = System.nanoTime();
+        final AtomicInteger remaining = new AtomicInteger(flowIds.length);
+        for (final String flowId : flowIds) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        long flowStart = System.nanoTime();
+                        flowDefinitionRegistry.getFlowDefinition(flowId);
+                        assemblyTimes.put(flowId, (System.nanoTime() - flowStart) / 1000000L);
+                    }
+                    catch (Exception e) {
+                        log.warn("Unable to assemble flow [" + flowId + "] during warm-up: " + e.getMessage(), e);
+                    }
+                    finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            report((System.nanoTime() - start) / 1000000L);
+                            executor.shutdown();
+                        }
+                    }
+                }
+            });
+        }
+        if (flowIds.length == 0) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the warm-up to finish.
+     * @return whether every flow was assembled, or attempted, before the timeout elapsed
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        ExecutorService current;
+        synchronized (this) {
+            current = executor;
+        }
+        return current == null || current.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @return the time in milliseconds each flow took to assemble, by flow id. Flows that were already assembled
+     * by a request when the warm-up reached them report the time taken to look them up.
+     */
+    public Map<String, Long> getAssemblyTimes() {
+        return Collections.unmodifiableMap(assemblyTimes);
+    }
+
+    protected void report(long totalTime) {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(assemblyTimes.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        StringBuilder builder = new StringBuilder("Warmed up ").append(entries.size()).append(" flows in ")
+                .append(totalTime).append("ms using ").append(threads).append(" threads");
+        for (Map.Entry<String, Long> entry : entries) {
+            builder.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue()).append("ms");
+        }
+        log.info(builder.toString());
+    }
+}
@@ -0,0 +1,109 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.engine.builder
+
+import org.codehaus.groovy.runtime.InvokerHelper
+import org.grails.webflow.PropertyExpression
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Evaluates the {@link PropertyExpression} instances captured by the flow builder (for example
+ * {@code redirect(action: "show", id: flow.id)}) against an {@link ExpressionDelegate}.
+ *
+ * <p>Each distinct expression is compiled to a script class once, normally while the flow is being assembled, and
+ * a new instance of that class is run for every evaluation.</p>
+ *
+ * @since 2.2
+ */
+class PropertyExpressionResolver {
+
+    private static final ConcurrentMap<String, Class<? extends Script>> scriptClasses = new ConcurrentHashMap<String, Class<? extends Script>>()
+    private static final GroovyClassLoader scriptClassLoader = new GroovyClassLoader(PropertyExpressionResolver.classLoader)
+
+    /**
+     * Compiles the given expression ahead of its first evaluation. Values other than property expressions are ignored.
+     */
+    static void compile(expression) {
+        if (expression instanceof PropertyExpression) {
+            getScriptClass((PropertyExpression) expression)
+        }
+        else if (expression instanceof Map) {
+            for (value in ((Map) expression).values()) {
+                compile(value)
+            }
+        }
+    }
+
+    /**
+     * @return the value of the expression if it is a property expression, otherwise the expression itself
+     */
+    static resolve(ExpressionDelegate delegate, expression) {
+        if (expression instanceof PropertyExpression) {
+            Script script = InvokerHelper.createScript(getScriptClass((PropertyExpression) expression),
+                    new ExpressionBinding(delegate))
+            return script.run()
+        }
+        return expression
+    }
+
+    private static Class<? extends Script> getScriptClass(PropertyExpression expression) {
+        String text = expression.getValue()
+        Class<? extends Script> scriptClass = scriptClasses.get(text)
+        if (scriptClass == null) {
+            scriptClass = scriptClassLoader.parseClass(text, "PropertyExpression${scriptClasses.size()}.groovy")
+            Class<? extends Script> existing = scriptClasses.putIfAbsent(text, scriptClass)
+            if (existing != null) {
+                scriptClass = existing
+            }
+        }
+        return scriptClass
+    }
+
+    /**
+     * Looks up variables the script did not assign itself on the {@link ExpressionDelegate}.
+     */
+    private static class ExpressionBinding extends Binding {
+        private final ExpressionDelegate delegate
+
+        ExpressionBinding(ExpressionDelegate delegate) {
+            this.delegate = delegate
+        }
+
+        @Override
+        Object getVariable(String name) {
+            Map variables = getVariables()
+            if (variables.containsKey(name)) {
+                return variables.get(name)
+            }
+            return delegate.getProperty(name)
+        }
+
+        @Override
+        boolean hasVariable(String name) {
+            if (getVariables().containsKey(name)) {
+                return true
+            }
+            try {
+                delegate.getProperty(name)
+                return true
+            }
+            catch (MissingPropertyException ignored) {
+                return false
+            }
+        }
+    }
+}
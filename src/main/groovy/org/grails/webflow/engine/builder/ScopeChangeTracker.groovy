@@ -0,0 +1,203 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.engine.builder
+
+import org.grails.web.servlet.DefaultGrailsApplicationAttributes
+import org.springframework.web.context.request.RequestAttributes
+import org.springframework.web.context.request.RequestContextHolder as RCH
+import org.springframework.webflow.core.collection.MutableAttributeMap
+import org.springframework.webflow.execution.RequestContext
+
+/**
+ * Records which flow and conversation scope entries were read, written or validated during the current request so
+ * that errors only need to be propagated to flash scope for those entries rather than for everything in scope.
+ *
+ * <p>Keys are recorded by the Groovy scope accessors ({@code flow.book}, {@code conversation['cart'] = cart}) and
+ * for models returned from actions; command objects are recorded when they are validated. Entries an action writes
+ * with {@code put} or {@code putAll}, which Java code and services do, are found by comparing the scopes with the
+ * values {@link #capture(RequestContext) captured} before the action ran. The keys of the errors placed in flash
+ * scope are indexed so that they can be restored without scanning flash scope either.</p>
+ *
+ * @since 2.2
+ */
+class ScopeChangeTracker {
+
+    static final String TOUCHED_KEYS_ATTRIBUTE = "org.grails.webflow.TOUCHED_SCOPE_KEYS"
+    static final String VALIDATED_ATTRIBUTE = "org.grails.webflow.VALIDATED_OBJECTS"
+    static final String ERRORS_INDEX = "org.grails.webflow.ERRORS_INDEX"
+
+    /**
+     * Records that the scope entry with the given key was accessed during the current request.
+     */
+    static void touched(String key) {
+        RequestAttributes attributes = RCH.getRequestAttributes()
+        if (attributes != null) {
+            Set<String> keys = (Set<String>) attributes.getAttribute(TOUCHED_KEYS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+            if (keys == null) {
+                keys = new HashSet<String>()
+                attributes.setAttribute(TOUCHED_KEYS_ATTRIBUTE, keys, RequestAttributes.SCOPE_REQUEST)
+            }
+            keys.add(key)
+        }
+    }
+
+    static void touched(Map model) {
+        for (key in model.keySet()) {
+            touched(key.toString())
+        }
+    }
+
+    /**
+     * Records that the given object was validated during the current request.
+     */
+    static void validated(Object instance) {
+        RequestAttributes attributes = RCH.getRequestAttributes()
+        if (attributes != null) {
+            Map<Object, Boolean> validated = (Map<Object, Boolean>) attributes.getAttribute(VALIDATED_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+            if (validated == null) {
+                validated = new IdentityHashMap<Object, Boolean>()
+                attributes.setAttribute(VALIDATED_ATTRIBUTE, validated, RequestAttributes.SCOPE_REQUEST)
+            }
+            validated.put(instance, Boolean.TRUE)
+        }
+    }
+
+    /**
+     * Captures the values in flow and conversation scope, to be handed to
+     * {@link #propagateErrors(RequestContext, ScopeValues)} once an action has run.
+     */
+    static ScopeValues capture(RequestContext context) {
+        new ScopeValues(new HashMap<String, Object>(context.flowScope.asMap()),
+                new HashMap<String, Object>(context.conversationScope.asMap()))
+    }
+
+    /**
+     * Like {@link #propagateErrors(RequestContext)}, also taking into account the entries added or replaced since
+     * the given values were captured, however they were written.
+     */
+    static void propagateErrors(RequestContext context, ScopeValues before) {
+        if (before != null) {
+            addWrittenKeys(before.flowScope, context.flowScope)
+            addWrittenKeys(before.conversationScope, context.conversationScope)
+        }
+        propagateErrors(context)
+    }
+
+    /**
+     * Places the errors of the objects in flow and conversation scope that were accessed or validated during the
+     * current request into flash scope, so that they can be restored once the flow execution has been deserialized.
+     */
+    static void propagateErrors(RequestContext context) {
+        RequestAttributes attributes = RCH.getRequestAttributes()
+        if (attributes == null) {
+            // nothing has been tracked, so look at every entry
+            propagateErrors(context, context.flowScope, context.flowScope.asMap().keySet())
+            propagateErrors(context, context.conversationScope, context.conversationScope.asMap().keySet())
+            return
+        }
+        Set<String> keys = (Set<String>) attributes.getAttribute(TOUCHED_KEYS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+        Map<Object, Boolean> validated = (Map<Object, Boolean>) attributes.getAttribute(VALIDATED_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+        if (validated) {
+            keys = keys != null ? new HashSet<String>(keys) : new HashSet<String>()
+            addKeysOf(validated, context.flowScope, keys)
+            addKeysOf(validated, context.conversationScope, keys)
+        }
+        if (keys) {
+            propagateErrors(context, context.flowScope, keys)
+            propagateErrors(context, context.conversationScope, keys)
+        }
+    }
+
+    /**
+     * Gives the objects in flow or conversation scope back the errors that were placed in flash scope for them.
+     */
+    static void restoreErrors(RequestContext context) {
+        List<String> index = (List<String>) context.flashScope.get(ERRORS_INDEX)
+        if (!index) {
+            return
+        }
+        for (String key in index) {
+            def errors = context.flashScope.get("${DefaultGrailsApplicationAttributes.ERRORS}_${key}".toString())
+            def formObject = context.flowScope.get(key)
+            if (formObject == null) {
+                formObject = context.conversationScope.get(key)
+            }
+            if (errors != null && formObject != null && formObject.metaClass.hasProperty(formObject, "errors")) {
+                try {
+                    formObject.errors = errors
+                }
+                catch (MissingPropertyException mpe) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static void addWrittenKeys(Map<String, Object> before, MutableAttributeMap scope) {
+        for (Map.Entry entry in scope.asMap().entrySet()) {
+            String key = entry.key.toString()
+            if (!before.containsKey(key) || !before.get(key).is(entry.value)) {
+                touched(key)
+            }
+        }
+    }
+
+    private static void addKeysOf(Map<Object, Boolean> validated, MutableAttributeMap scope, Set<String> keys) {
+        for (Map.Entry entry in scope.asMap().entrySet()) {
+            if (validated.containsKey(entry.value)) {
+                keys.add(entry.key.toString())
+            }
+        }
+    }
+
+    private static void propagateErrors(RequestContext context, MutableAttributeMap scope, Collection<String> keys) {
+        for (String key in keys) {
+            def value = scope.get(key)
+            if (!(value instanceof GroovyObject) || !value.metaClass.hasProperty(value, "errors")) {
+                continue
+            }
+            try {
+                def errors = value.errors
+                if (errors?.hasErrors()) {
+                    context.flashScope.put("${DefaultGrailsApplicationAttributes.ERRORS}_${key}".toString(), errors)
+                    List<String> index = (List<String>) context.flashScope.get(ERRORS_INDEX)
+                    if (index == null) {
+                        index = new ArrayList<String>()
+                        context.flashScope.put(ERRORS_INDEX, index)
+                    }
+                    if (!index.contains(key)) {
+                        index.add(key)
+                    }
+                }
+            }
+            catch (MissingPropertyException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * The values in flow and conversation scope at some point of the request.
+     */
+    static class ScopeValues {
+        final Map<String, Object> flowScope
+        final Map<String, Object> conversationScope
+
+        ScopeValues(Map<String, Object> flowScope, Map<String, Object> conversationScope) {
+            this.flowScope = flowScope
+            this.conversationScope = conversationScope
+        }
+    }
+}
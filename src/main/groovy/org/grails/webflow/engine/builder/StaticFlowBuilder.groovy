@@ -0,0 +1,101 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.engine.builder
+
+import groovy.transform.CompileStatic
+import org.grails.webflow.engine.builder.FlowDefinitionModel.StateModel
+import org.grails.webflow.engine.builder.FlowDefinitionModel.TransitionModel
+import org.grails.webflow.persistence.FlowPersistencePolicy
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator
+import org.springframework.webflow.engine.Flow
+import org.springframework.webflow.engine.FlowExecutionExceptionHandler
+import org.springframework.webflow.engine.State
+import org.springframework.webflow.engine.Transition
+import org.springframework.webflow.engine.builder.FlowArtifactFactory
+import org.springframework.webflow.engine.builder.FlowBuilderException
+import org.springframework.webflow.engine.builder.support.FlowBuilderServices
+
+/**
+ * Builds a flow from a {@link FlowDefinitionModel} generated at compile time, producing the same states as
+ * {@link FlowBuilder} would for the flow closure without interpreting the DSL.
+ *
+ * @since 2.2
+ */
+@CompileStatic
+class StaticFlowBuilder extends FlowBuilder {
+
+    private final FlowDefinitionModel model
+
+    StaticFlowBuilder(String flowId, FlowDefinitionModel model, FlowBuilderServices flowBuilderServices,
+                      FlowDefinitionLocator definitionLocator) {
+        super(flowId, flowBuilderServices, definitionLocator)
+        this.model = model
+        setMetaClass(GroovySystem.metaClassRegistry.getMetaClass(StaticFlowBuilder))
+    }
+
+    @Override
+    void buildStates() throws FlowBuilderException {
+        FlowArtifactFactory flowFactory = getContext().getFlowArtifactFactory()
+        Flow flow = getFlow()
+        boolean startStateSet = false
+        for (StateModel stateModel in model.states) {
+            List transitionList = []
+            List exceptionHandlers = []
+            for (TransitionModel transition in stateModel.transitions) {
+                TransitionTo transitionTo = transition.exception != null ?
+                        new TransitionTo(transition.exception, this, transitionList, exceptionHandlers) :
+                        new TransitionTo(transition.on, this, transitionList, exceptionHandlers)
+                transitionTo.to(transition.to)
+            }
+            Transition[] transitions = transitionList as Transition[]
+
+            State state
+            if (transitions.length == 0 && stateModel.subflowAction == null) {
+                state = createEndState(stateModel.id, createViewPath(stateModel, stateModel.id), flowFactory, null,
+                        stateModel.entryAction)
+                state.attributes.put("commit", true)
+            }
+            else if (stateModel.action != null) {
+                state = createActionState(stateModel.id, stateModel.action, transitions, flowFactory,
+                        stateModel.entryAction, stateModel.exitAction)
+            }
+            else if (stateModel.subflowAction != null) {
+                state = createSubflowState(stateModel, transitions, flowFactory)
+            }
+            else {
+                state = createViewState(stateModel.id, createViewPath(stateModel, stateModel.id), transitions,
+                        flowFactory, stateModel.renderAction, stateModel.entryAction, stateModel.exitAction)
+            }
+
+            for (handler in exceptionHandlers) {
+                state.getExceptionHandlerSet().add((FlowExecutionExceptionHandler) handler)
+            }
+            if (!startStateSet) {
+                flow.setStartState(state)
+                startStateSet = true
+            }
+        }
+        flow.attributes.put("persistenceContext", "true")
+        FlowPersistencePolicy.register(flow)
+    }
+
+    protected State createSubflowState(StateModel stateModel, Transition[] transitions, FlowArtifactFactory flowFactory) {
+        String controllerName = stateModel.subflowController ?: flowId.substring(0, flowId.lastIndexOf('/'))
+        String subflowId = controllerName + "/" + stateModel.subflowAction
+        return flowFactory.createSubflowState(stateModel.id, getFlow(), null,
+                new SubflowExpression(subflowId, definitionLocator),
+                new GrailsSubflowAttributeMapper([:]), transitions, null, null, null)
+    }
+}
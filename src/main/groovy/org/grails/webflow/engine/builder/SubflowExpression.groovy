@@ -0,0 +1,60 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.engine.builder
+
+import org.springframework.binding.expression.Expression
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator
+
+/**
+ * Looks up a subflow by id the first time its subflow state is entered, rather than while the calling flow is
+ * assembled. Flow holders assemble under their own lock, so an eager lookup could leave two flows that use each
+ * other as subflows each waiting for the other's lock.
+ *
+ * @since 2.2
+ */
+class SubflowExpression implements Expression {
+
+    final String subflowId
+    private final FlowDefinitionLocator definitionLocator
+    private volatile Object subflow
+
+    SubflowExpression(String subflowId, FlowDefinitionLocator definitionLocator) {
+        this.subflowId = subflowId
+        this.definitionLocator = definitionLocator
+    }
+
+    Object getValue(Object context) {
+        Object resolved = subflow
+        if (resolved == null) {
+            resolved = definitionLocator.getFlowDefinition(subflowId)
+            subflow = resolved
+        }
+        resolved
+    }
+
+    void setValue(Object context, Object value) {
+        throw new UnsupportedOperationException("Cannot set the subflow of a subflow state")
+    }
+
+    Class getValueType(Object context) { Object }
+
+    String getExpressionString() {
+        subflowId
+    }
+
+    String toString() {
+        "subflow [$subflowId]"
+    }
+}
@@ -0,0 +1,68 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.engine.builder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.engine.builder.DefaultFlowHolder;
+import org.springframework.webflow.engine.builder.FlowAssembler;
+
+/**
+ * A {@link DefaultFlowHolder} that records how long its flow took to assemble. Like its parent it assembles the
+ * flow on first access, which is either the first request to the flow or the warm-up run by
+ * {@link FlowDefinitionWarmUp}.
+ *
+ * @since 2.2
+ */
+public class TimedFlowHolder extends DefaultFlowHolder {
+
+    private static final Logger log = LoggerFactory.getLogger(TimedFlowHolder.class);
+
+    private volatile long assemblyTime = -1;
+    private boolean assembling;
+
+    public TimedFlowHolder(FlowAssembler assembler) {
+        super(assembler);
+    }
+
+    @Override
+    public synchronized FlowDefinition getFlowDefinition() {
+        if (assemblyTime > -1 || assembling) {
+            return super.getFlowDefinition();
+        }
+
+        assembling = true;
+        long start = System.nanoTime();
+        try {
+            FlowDefinition flowDefinition = super.getFlowDefinition();
+            assemblyTime = (System.nanoTime() - start) / 1000000L;
+            if (log.isDebugEnabled()) {
+                log.debug("Assembled flow [" + getFlowDefinitionId() + "] in " + assemblyTime + "ms");
+            }
+            return flowDefinition;
+        }
+        finally {
+            assembling = false;
+        }
+    }
+
+    /**
+     * @return the time in milliseconds it took to assemble the flow, or -1 if it has not been assembled yet
+     */
+    public long getAssemblyTime() {
+        return assemblyTime;
+    }
+}
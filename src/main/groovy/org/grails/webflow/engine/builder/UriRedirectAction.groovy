@@ -32,45 +32,7 @@ class UriRedirectAction extends AbstractAction {
    protected Event doExecute(RequestContext context) {
        def uri = uri
        if (uri instanceof PropertyExpression) {
-          def delegate = new ExpressionDelegate(context)
-          // :P and repeated code - see RuntimeRedirectAction
-          uri = new GroovyShell(new Binding(new HashMap() {
-              @Override
-              boolean containsKey(Object key) {
-                  if(!key instanceof String) {
-                      return false
-                  }
-                  String normalizedKey = "" + key
-                  if(super.containsKey(normalizedKey)) {
-                      return true
-                  }
-                  try {
-                      Object output = delegate.getProperty(normalizedKey);
-                      return true
-                  }
-                  catch(MissingPropertyException eMPE) {
-                      return false
-                  }
-              }
-
-              @Override
-              boolean containsValue(Object value) {
-                  return false
-              }
-
-              @Override
-              Object get(Object key) {
-                  if(containsKey(key)) {
-                      String normalizedKey = "" + key
-                      if(super.containsKey(normalizedKey)) {
-                          return super.get(normalizedKey)
-                      }
-                      Object output = delegate.getProperty(normalizedKey)
-                      return output
-                  }
-                  return null
-              }
-          })).evaluate(uri.getValue())
+           uri = PropertyExpressionResolver.resolve(new ExpressionDelegate(context), uri)
        }
 
        context.getExternalContext().requestExternalRedirect(uri)
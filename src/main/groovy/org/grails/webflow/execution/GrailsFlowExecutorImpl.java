@@ -16,12 +16,14 @@ package org.grails.webflow.execution;
 
 import org.grails.web.servlet.mvc.GrailsWebRequest;
 import org.grails.web.util.WebUtils;
+import org.grails.webflow.ajax.ExecutionParameterAccessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.webflow.context.ExternalContext;
-import org.springframework.webflow.context.ExternalContextHolder;
 import org.springframework.webflow.core.FlowException;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
 import org.springframework.webflow.definition.registry.FlowDefinitionLocator;
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry;
 import org.springframework.webflow.definition.registry.NoSuchFlowDefinitionException;
 import org.springframework.webflow.execution.FlowExecutionFactory;
 import org.springframework.webflow.execution.repository.FlowExecutionRepository;
@@ -30,6 +32,10 @@ import org.springframework.webflow.execution.repository.snapshot.SnapshotUnmarsh
 import org.springframework.webflow.executor.FlowExecutionResult;
 import org.springframework.webflow.executor.FlowExecutorImpl;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * @author Graeme Rocher
  * @since 1.1
@@ -53,21 +59,61 @@ public class GrailsFlowExecutorImpl extends FlowExecutorImpl {
 
     FlowExecutionRepository executionRepository;
 
-    @Override
-    public FlowExecutionResult resumeExecution(String flowExecutionKey, ExternalContext context) throws FlowException {
+    private final Set<String> flowDefinitionIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-        //Check if FlowExecutions Flowid matches flowId
-        try {
-            ExternalContextHolder.setExternalContext(context);
-            GrailsWebRequest webRequest = WebUtils.retrieveGrailsWebRequest();
+    /**
+     * Records a flow id registered by the plugin, so that resumes can be checked against it without consulting
+     * the flow definition locator.
+     *
+     * @since 2.2
+     */
+    public void registerFlowDefinitionId(String flowId) {
+        flowDefinitionIds.add(flowId);
+    }
 
-            if (isNotValidFlowDefinitionId(webRequest)) {
-                return launchExecution(webRequest.getControllerName() + "/" +
-                        webRequest.getActionName(), context.getRequestMap(), context);
+    /**
+     * Forgets the flow ids of the given controller, ahead of its flows being registered again.
+     *
+     * @param controllerName the logical property name of the controller
+     * @since 2.2
+     */
+    public void clearFlowDefinitionIds(String controllerName) {
+        String prefix = controllerName + "/";
+        for (String flowId : flowDefinitionIds) {
+            if (flowId.startsWith(prefix)) {
+                flowDefinitionIds.remove(flowId);
             }
         }
+    }
+
+    @Override
+    public FlowExecutionResult launchExecution(String flowId, MutableAttributeMap<?> input, ExternalContext context) throws FlowException {
+        try {
+            return super.launchExecution(flowId, input, context);
+        }
         finally {
-            ExternalContextHolder.setExternalContext(null);
+            // the key cached for an AJAX request must not outlive it on a pooled thread
+            ExecutionParameterAccessor.clearExecutionParameter();
+        }
+    }
+
+    @Override
+    public FlowExecutionResult resumeExecution(String flowExecutionKey, ExternalContext context) throws FlowException {
+        try {
+            return doResumeExecution(flowExecutionKey, context);
+        }
+        finally {
+            ExecutionParameterAccessor.clearExecutionParameter();
+        }
+    }
+
+    private FlowExecutionResult doResumeExecution(String flowExecutionKey, ExternalContext context) throws FlowException {
+
+        //Check if FlowExecutions Flowid matches flowId
+        GrailsWebRequest webRequest = WebUtils.retrieveGrailsWebRequest();
+        String requestPath = webRequest.getControllerName() + "/" + webRequest.getActionName();
+        if (isNotValidFlowDefinitionId(requestPath)) {
+            return launchExecution(requestPath, context.getRequestMap(), context);
         }
 
         try {
@@ -76,18 +122,23 @@ public class GrailsFlowExecutorImpl extends FlowExecutorImpl {
         catch (FlowExecutionRestorationFailureException e) {
             if (e.getCause() instanceof SnapshotUnmarshalException) {
                 log.info("Classes changed during reload, restarting flow...");
-                GrailsWebRequest webRequest = WebUtils.retrieveGrailsWebRequest();
-                return launchExecution(webRequest.getControllerName() + "/" + webRequest.getActionName(),
-                        context.getRequestMap(), context);
+                return launchExecution(requestPath, context.getRequestMap(), context);
             }
 
             throw e;
         }
     }
 
-    private boolean isNotValidFlowDefinitionId(GrailsWebRequest webRequest) {
+    boolean isNotValidFlowDefinitionId(String requestPath) {
+        if (flowDefinitionIds.contains(requestPath)) {
+            return false;
+        }
+
+        // flows registered outside the plugin are not indexed, so ask the registry before giving up
         final FlowDefinitionLocator locator = getDefinitionLocator();
-        final String requestPath = webRequest.getControllerName() + "/" + webRequest.getActionName();
+        if (locator instanceof FlowDefinitionRegistry) {
+            return !((FlowDefinitionRegistry) locator).containsFlowDefinition(requestPath);
+        }
 
         try {
             locator.getFlowDefinition(requestPath);
@@ -0,0 +1,247 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository;
+
+import org.springframework.webflow.definition.StateDefinition;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowSession;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes a 64 bit hash over the contents of the flow, view and flash scopes of a flow execution and the states it
+ * is in. Values are walked the same way serialization would walk them, following non-transient fields, so that
+ * changes made inside objects already in scope are noticed as well.
+ *
+ * <p>Strings and numbers contribute their full content rather than their hash codes, and the atomic JDK numbers
+ * their current value. Walks are bounded by a node budget. Objects that cannot be walked safely, such as Hibernate proxies and
+ * collections which would otherwise be initialized, make the fingerprint undeterminable.</p>
+ *
+ * @since 2.2
+ */
+final class ScopeFingerprint {
+
+    private static final RuntimeException UNDETERMINABLE = new RuntimeException("Fingerprint undeterminable") {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    };
+
+    private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<Field>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields.toArray(new Field[fields.size()]);
+        }
+    };
+
+    private final IdentityHashMap<Object, Integer> visited = new IdentityHashMap<Object, Integer>();
+    private int budget;
+    private long hash = 1125899906842597L;
+
+    private ScopeFingerprint(int maxNodes) {
+        this.budget = maxNodes;
+    }
+
+    /**
+     * @return the fingerprint, or null if it could not be determined within the given number of nodes
+     */
+    static Long of(FlowExecution execution, int maxNodes) {
+        ScopeFingerprint fingerprint = new ScopeFingerprint(maxNodes);
+        try {
+            for (FlowSession session = execution.getActiveSession(); session != null; session = session.getParent()) {
+                StateDefinition state = session.getState();
+                fingerprint.walk(session.getDefinition().getId());
+                fingerprint.walk(state != null ? state.getId() : null);
+                fingerprint.walk(session.getScope().asMap());
+                if (state != null && state.isViewState()) {
+                    fingerprint.walk(session.getViewScope().asMap());
+                }
+            }
+            fingerprint.walk(execution.getFlashScope().asMap());
+            return fingerprint.hash;
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+        catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    private void mix(long value) {
+        hash = (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Mixes in every character, as string hash codes collide easily ("Aa" and "BB").
+     */
+    private void mix(String value) {
+        int length = value.length();
+        mix(length);
+        for (int i = 0; i < length; i++) {
+            mix(value.charAt(i));
+        }
+    }
+
+    private void mixPrimitive(Object boxed) {
+        if (boxed instanceof Number) {
+            mixNumber((Number) boxed);
+        }
+        else if (boxed instanceof Character) {
+            mix((Character) boxed);
+        }
+        else {
+            mix((Boolean) boxed ? 1 : 2);
+        }
+    }
+
+    /**
+     * Mixes in the value of the JDK numbers, including the mutable atomic ones whose hash code is their identity.
+     *
+     * @return false for other numbers, which are walked field by field like any other object
+     */
+    private boolean mixNumber(Number value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ||
+                value instanceof AtomicLong || value instanceof AtomicInteger || value instanceof LongAdder ||
+                value instanceof LongAccumulator) {
+            mix(value.longValue());
+            return true;
+        }
+        if (value instanceof Double || value instanceof Float || value instanceof DoubleAdder ||
+                value instanceof DoubleAccumulator) {
+            mix(Double.doubleToLongBits(value.doubleValue()));
+            return true;
+        }
+        if (value instanceof BigInteger || value instanceof BigDecimal) {
+            mix(value.toString());
+            return true;
+        }
+        return false;
+    }
+
+    private void walk(Object value) {
+        if (--budget < 0) {
+            throw UNDETERMINABLE;
+        }
+        if (value == null) {
+            mix(0);
+            return;
+        }
+        Class<?> type = value.getClass();
+        mix(type.getName().hashCode());
+        if (value instanceof String) {
+            mix((String) value);
+            return;
+        }
+        if (value instanceof Number && mixNumber((Number) value)) {
+            return;
+        }
+        if (value instanceof Boolean) {
+            mix((Boolean) value ? 1 : 2);
+            return;
+        }
+        if (value instanceof Character) {
+            mix((Character) value);
+            return;
+        }
+        if (value instanceof Enum) {
+            mix(((Enum<?>) value).name());
+            return;
+        }
+        if (value instanceof Class) {
+            mix(((Class<?>) value).getName());
+            return;
+        }
+        Integer seen = visited.get(value);
+        if (seen != null) {
+            mix(seen);
+            return;
+        }
+        visited.put(value, visited.size());
+
+        String typeName = type.getName();
+        if (typeName.startsWith("org.hibernate.") || typeName.contains("$HibernateProxy$") ||
+                typeName.contains("_$$_javassist")) {
+            throw UNDETERMINABLE;
+        }
+        if (value instanceof java.util.Date) {
+            mix(((java.util.Date) value).getTime());
+        }
+        else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            mix(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                walk(entry.getKey());
+                walk(entry.getValue());
+            }
+        }
+        else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            mix(collection.size());
+            for (Object element : collection) {
+                walk(element);
+            }
+        }
+        else if (type.isArray()) {
+            int length = Array.getLength(value);
+            mix(length);
+            boolean primitive = type.getComponentType().isPrimitive();
+            for (int i = 0; i < length; i++) {
+                if (primitive) {
+                    mixPrimitive(Array.get(value, i));
+                }
+                else {
+                    walk(Array.get(value, i));
+                }
+            }
+        }
+        else {
+            try {
+                for (Field field : FIELDS.get(type)) {
+                    walk(field.get(value));
+                }
+            }
+            catch (IllegalAccessException e) {
+                throw UNDETERMINABLE;
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository;
+
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets the flow execution repository reuse the snapshot an execution was restored from when the execution pauses
+ * again without having changed, as happens for view refreshes, AJAX re-renders and failed validation round trips.
+ *
+ * <p>Writes through the Groovy scope accessors ({@code flow.foo = bar}, {@code flash[key] = value}) mark the
+ * current request as modified and skip the check altogether. Otherwise the scopes are fingerprinted when the
+ * execution is restored and again when it pauses, which also catches changes made inside objects in scope.</p>
+ *
+ * @since 2.2
+ */
+public class UnchangedSnapshotDetector {
+
+    private static final ThreadLocal<Boolean> scopeModified = new ThreadLocal<Boolean>();
+
+    private final Map<FlowExecution, Tracked> tracked =
+            Collections.synchronizedMap(new WeakHashMap<FlowExecution, Tracked>());
+
+    private final AtomicLong skippedSnapshotCount = new AtomicLong();
+    private final AtomicLong takenSnapshotCount = new AtomicLong();
+
+    private int maxFingerprintNodes = 10000;
+
+    /**
+     * Records that flow, conversation or flash scope was written to during the current request.
+     */
+    public static void markScopeModified() {
+        scopeModified.set(Boolean.TRUE);
+    }
+
+    /**
+     * Remembers the snapshot the execution was restored from along with the current state of its scopes.
+     */
+    public void restored(FlowExecution execution, FlowExecutionSnapshot snapshot) {
+        scopeModified.remove();
+        Long fingerprint = ScopeFingerprint.of(execution, maxFingerprintNodes);
+        if (fingerprint != null) {
+            tracked.put(execution, new Tracked(snapshot, fingerprint));
+        }
+        else {
+            tracked.remove(execution);
+        }
+    }
+
+    /**
+     * @return the snapshot the execution was restored from if nothing changed since, otherwise null
+     */
+    public FlowExecutionSnapshot getUnchangedSnapshot(FlowExecution execution) {
+        Tracked entry = tracked.get(execution);
+        if (entry == null || Boolean.TRUE.equals(scopeModified.get())) {
+            return null;
+        }
+        Long fingerprint = ScopeFingerprint.of(execution, maxFingerprintNodes);
+        if (fingerprint != null && fingerprint == entry.fingerprint) {
+            skippedSnapshotCount.incrementAndGet();
+            return entry.snapshot;
+        }
+        entry.pendingFingerprint = fingerprint;
+        return null;
+    }
+
+    /**
+     * Remembers a newly taken snapshot so that a further pause of the same execution can reuse it.
+     */
+    public void snapshotTaken(FlowExecution execution, FlowExecutionSnapshot snapshot) {
+        takenSnapshotCount.incrementAndGet();
+        Tracked entry = tracked.get(execution);
+        if (entry != null && entry.pendingFingerprint != null) {
+            tracked.put(execution, new Tracked(snapshot, entry.pendingFingerprint));
+        }
+        else {
+            tracked.remove(execution);
+        }
+        scopeModified.remove();
+    }
+
+    public int getMaxFingerprintNodes() {
+        return maxFingerprintNodes;
+    }
+
+    /**
+     * Sets the number of objects walked before giving up and treating the execution as changed. Defaults to 10000.
+     */
+    public void setMaxFingerprintNodes(int maxFingerprintNodes) {
+        this.maxFingerprintNodes = maxFingerprintNodes;
+    }
+
+    /**
+     * @return the number of pauses for which the previous snapshot was reused rather than serializing the execution
+     */
+    public long getSkippedSnapshotCount() {
+        return skippedSnapshotCount.get();
+    }
+
+    public long getTakenSnapshotCount() {
+        return takenSnapshotCount.get();
+    }
+
+    private static class Tracked {
+        final FlowExecutionSnapshot snapshot;
+        final long fingerprint;
+        Long pendingFingerprint;
+
+        Tracked(FlowExecutionSnapshot snapshot, long fingerprint) {
+            this.snapshot = snapshot;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
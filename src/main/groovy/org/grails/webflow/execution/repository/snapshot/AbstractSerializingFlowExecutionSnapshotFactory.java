@@ -0,0 +1,87 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository.snapshot;
+
+import org.springframework.util.Assert;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.definition.FlowDefinition;
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowExecutionFactory;
+import org.springframework.webflow.execution.FlowExecutionKey;
+import org.springframework.webflow.execution.FlowExecutionKeyFactory;
+import org.springframework.webflow.execution.repository.FlowExecutionRestorationFailureException;
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshotFactory;
+import org.springframework.webflow.execution.repository.snapshot.SnapshotUnmarshalException;
+
+/**
+ * Base class for snapshot factories that keep the flow execution as bytes produced by a
+ * {@link FlowExecutionSerializer}. Restore failures are reported as a {@link FlowExecutionRestorationFailureException}
+ * caused by a {@link SnapshotUnmarshalException}, which is what {@code GrailsFlowExecutorImpl} looks for to restart
+ * a flow whose classes were reloaded.
+ *
+ * @since 2.2
+ */
+public abstract class AbstractSerializingFlowExecutionSnapshotFactory implements FlowExecutionSnapshotFactory {
+
+    protected final FlowExecutionFactory flowExecutionFactory;
+    protected final FlowDefinitionLocator flowDefinitionLocator;
+
+    private FlowExecutionSerializer serializer = new JdkFlowExecutionSerializer();
+
+    protected AbstractSerializingFlowExecutionSnapshotFactory(FlowExecutionFactory flowExecutionFactory,
+                                                              FlowDefinitionLocator flowDefinitionLocator) {
+        this.flowExecutionFactory = flowExecutionFactory;
+        this.flowDefinitionLocator = flowDefinitionLocator;
+    }
+
+    public FlowExecution restoreExecution(FlowExecutionSnapshot snapshot, String flowId, FlowExecutionKey key,
+                                          MutableAttributeMap<Object> conversationScope,
+                                          FlowExecutionKeyFactory keyFactory)
+            throws FlowExecutionRestorationFailureException {
+        FlowDefinition def = flowDefinitionLocator.getFlowDefinition(flowId);
+        FlowExecution execution;
+        try {
+            execution = serializer.deserialize(getSerializedData(snapshot), def.getClassLoader());
+        }
+        catch (SnapshotUnmarshalException e) {
+            throw new FlowExecutionRestorationFailureException(key, e);
+        }
+        flowExecutionFactory.restoreFlowExecution(execution, def, key, conversationScope, flowDefinitionLocator);
+        restored(execution, snapshot);
+        return execution;
+    }
+
+    /**
+     * @return the bytes written by the serializer when the given snapshot was created
+     */
+    protected abstract byte[] getSerializedData(FlowExecutionSnapshot snapshot) throws SnapshotUnmarshalException;
+
+    /**
+     * Called once an execution has been restored from a snapshot. Does nothing by default.
+     */
+    protected void restored(FlowExecution execution, FlowExecutionSnapshot snapshot) {
+    }
+
+    public FlowExecutionSerializer getSerializer() {
+        return serializer;
+    }
+
+    public void setSerializer(FlowExecutionSerializer serializer) {
+        Assert.notNull(serializer, "The flow execution serializer is required");
+        this.serializer = serializer;
+    }
+}
@@ -0,0 +1,45 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository.snapshot;
+
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+
+/**
+ * A flow execution snapshot holding the output of a {@link RegisteredClassFlowExecutionSerializer}.
+ *
+ * @since 2.2
+ */
+public class CompactFlowExecutionSnapshot extends FlowExecutionSnapshot {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] data;
+
+    public CompactFlowExecutionSnapshot(byte[] data) {
+        this.data = data;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getSize() {
+        return data.length;
+    }
+
+    public String toString() {
+        return "CompactFlowExecutionSnapshot[size=" + data.length + "]";
+    }
+}
@@ -0,0 +1,59 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository.snapshot;
+
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowExecutionFactory;
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+import org.springframework.webflow.execution.repository.snapshot.SnapshotCreationException;
+
+import java.util.Collection;
+
+/**
+ * Creates snapshots with a {@link RegisteredClassFlowExecutionSerializer}, a smaller JDK serialization stream with
+ * the class descriptors of registered classes shrunk to ids, not a faster one. Application classes kept in flow scope
+ * can be registered through {@code flowExecutionSnapshotFactoryClazzAttrs}:
+ *
+ * <pre>
+ * grails.plugin.springwebflow.flowExecutionSnapshotMode = 'classIds'
+ * grails.plugin.springwebflow.flowExecutionSnapshotFactoryClazzAttrs = [registeredClasses: [Order, OrderItem]]
+ * </pre>
+ *
+ * @since 2.2
+ */
+public class CompactFlowExecutionSnapshotFactory extends AbstractSerializingFlowExecutionSnapshotFactory {
+
+    private final RegisteredClassFlowExecutionSerializer registeredClassSerializer = new RegisteredClassFlowExecutionSerializer();
+
+    public CompactFlowExecutionSnapshotFactory(FlowExecutionFactory flowExecutionFactory,
+                                               FlowDefinitionLocator flowDefinitionLocator) {
+        super(flowExecutionFactory, flowDefinitionLocator);
+        setSerializer(registeredClassSerializer);
+    }
+
+    public FlowExecutionSnapshot createSnapshot(FlowExecution flowExecution) throws SnapshotCreationException {
+        return new CompactFlowExecutionSnapshot(getSerializer().serialize(flowExecution));
+    }
+
+    @Override
+    protected byte[] getSerializedData(FlowExecutionSnapshot snapshot) {
+        return ((CompactFlowExecutionSnapshot) snapshot).getData();
+    }
+
+    public void setRegisteredClasses(Collection<?> classes) {
+        registeredClassSerializer.setRegisteredClasses(classes);
+    }
+}
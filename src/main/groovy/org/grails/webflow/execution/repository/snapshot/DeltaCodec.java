@@ -0,0 +1,179 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository.snapshot;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes a byte array as a list of copy and insert instructions against a base array.
+ *
+ * <p>Serialized flow executions taken at consecutive pauses are mostly identical, so copy instructions cover
+ * nearly all of the target and only the changed regions are carried as literals. Matches are found by indexing
+ * the base in fixed-size blocks and scanning the target with a rolling hash.</p>
+ *
+ * @since 2.2
+ */
+public final class DeltaCodec {
+
+    private static final int BLOCK = 16;
+    private static final int PRIME = 31;
+    private static final int OP_INSERT = 0;
+    private static final int OP_COPY = 1;
+
+    private static final int PRIME_POW;
+    static {
+        int p = 1;
+        for (int i = 0; i < BLOCK - 1; i++) {
+            p *= PRIME;
+        }
+        PRIME_POW = p;
+    }
+
+    private DeltaCodec() {
+    }
+
+    /**
+     * @return a delta which {@link #apply(byte[], byte[])} turns back into target when given the same base
+     */
+    public static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, target.length / 8));
+        writeVarInt(out, target.length);
+        if (base.length < BLOCK || target.length < BLOCK) {
+            writeInsert(out, target, 0, target.length);
+            return out.toByteArray();
+        }
+
+        int tableSize = Integer.highestOneBit(Math.max(16, (base.length / BLOCK) * 2) - 1) << 1;
+        int mask = tableSize - 1;
+        int[] table = new int[tableSize];
+        for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+            table[hash(base, offset) & mask] = offset + 1;
+        }
+
+        int i = 0;
+        int literalStart = 0;
+        int h = hash(target, 0);
+        while (i + BLOCK <= target.length) {
+            int candidate = table[h & mask] - 1;
+            if (candidate >= 0 && regionMatches(base, candidate, target, i)) {
+                int s = candidate;
+                int t = i;
+                while (t > literalStart && s > 0 && base[s - 1] == target[t - 1]) {
+                    s--;
+                    t--;
+                }
+                int end = i + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                    end++;
+                    baseEnd++;
+                }
+                writeInsert(out, target, literalStart, t - literalStart);
+                out.write(OP_COPY);
+                writeVarInt(out, s);
+                writeVarInt(out, end - t);
+                i = end;
+                literalStart = end;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                h = (h - (target[i] & 0xff) * PRIME_POW) * PRIME + (target[i + BLOCK] & 0xff);
+            }
+            i++;
+        }
+        writeInsert(out, target, literalStart, target.length - literalStart);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuilds the target array from the base it was encoded against and the delta.
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] position = new int[1];
+        int length = readVarInt(delta, position);
+        byte[] target = new byte[length];
+        int written = 0;
+        while (position[0] < delta.length) {
+            int op = delta[position[0]++];
+            if (op == OP_COPY) {
+                int offset = readVarInt(delta, position);
+                int count = readVarInt(delta, position);
+                System.arraycopy(base, offset, target, written, count);
+                written += count;
+            }
+            else if (op == OP_INSERT) {
+                int count = readVarInt(delta, position);
+                System.arraycopy(delta, position[0], target, written, count);
+                position[0] += count;
+                written += count;
+            }
+            else {
+                throw new IllegalArgumentException("Corrupt delta: unknown instruction [" + op + "]");
+            }
+        }
+        if (written != length) {
+            throw new IllegalArgumentException("Corrupt delta: expected " + length + " bytes but rebuilt " + written);
+        }
+        return target;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK; i++) {
+            h = h * PRIME + (data[i] & 0xff);
+        }
+        return h;
+    }
+
+    private static boolean regionMatches(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        for (int i = 0; i < BLOCK; i++) {
+            if (base[baseOffset + i] != target[targetOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int offset, int length) {
+        if (length > 0) {
+            out.write(OP_INSERT);
+            writeVarInt(out, length);
+            out.write(data, offset, length);
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
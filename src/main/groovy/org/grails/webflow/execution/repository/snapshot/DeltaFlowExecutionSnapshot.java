@@ -0,0 +1,86 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository.snapshot;
+
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+
+/**
+ * A flow execution snapshot that is either a full serialized copy of the execution (a base) or a delta against a
+ * base. Deltas always refer to the base directly rather than to the previous step, so any snapshot in the group can
+ * be restored with a single {@link DeltaCodec#apply(byte[], byte[])} no matter which one the back button lands on.
+ *
+ * @since 2.2
+ */
+public class DeltaFlowExecutionSnapshot extends FlowExecutionSnapshot {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DeltaFlowExecutionSnapshot base;
+    private final byte[] data;
+    private final int depth;
+
+    /**
+     * Creates a base snapshot holding the full serialized execution.
+     */
+    public DeltaFlowExecutionSnapshot(byte[] data) {
+        this.base = null;
+        this.data = data;
+        this.depth = 0;
+    }
+
+    /**
+     * Creates a snapshot holding a delta against the given base.
+     * @param depth the number of pauses taken since the base was created
+     */
+    public DeltaFlowExecutionSnapshot(DeltaFlowExecutionSnapshot base, byte[] delta, int depth) {
+        this.base = base.getBase();
+        this.data = delta;
+        this.depth = depth;
+    }
+
+    /**
+     * @return the base snapshot, or this snapshot if it is a base itself
+     */
+    public DeltaFlowExecutionSnapshot getBase() {
+        return base == null ? this : base;
+    }
+
+    public boolean isDelta() {
+        return base != null;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of bytes held by this snapshot alone, not counting the base it refers to
+     */
+    public int getSize() {
+        return data.length;
+    }
+
+    /**
+     * @return the full serialized flow execution, rebuilt from the base if necessary
+     */
+    public byte[] getFullData() {
+        return base == null ? data : DeltaCodec.apply(base.data, data);
+    }
+
+    public String toString() {
+        return "DeltaFlowExecutionSnapshot[" + (isDelta() ? "delta" : "base") + ", depth=" + depth + ", size=" +
+                data.length + "]";
+    }
+}
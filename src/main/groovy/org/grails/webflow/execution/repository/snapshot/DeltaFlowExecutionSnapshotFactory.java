@@ -0,0 +1,119 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository.snapshot;
+
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.FlowExecutionFactory;
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+import org.springframework.webflow.execution.repository.snapshot.SnapshotCreationException;
+import org.springframework.webflow.execution.repository.snapshot.SnapshotUnmarshalException;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A snapshot factory that stores one full serialized copy of a flow execution and then only the bytes that
+ * changed for each following pause.
+ *
+ * <p>The factory remembers which snapshot an execution was restored from; when that execution pauses again its
+ * new state is encoded as a delta against the same base. A new base is taken every {@link #setRebaseInterval(int)}
+ * pauses, or as soon as a delta grows beyond {@link #setMaxDeltaRatio(float)} of the full size.</p>
+ *
+ * @since 2.2
+ */
+public class DeltaFlowExecutionSnapshotFactory extends AbstractSerializingFlowExecutionSnapshotFactory {
+
+    private final Map<FlowExecution, DeltaFlowExecutionSnapshot> restoredFrom =
+            Collections.synchronizedMap(new WeakHashMap<FlowExecution, DeltaFlowExecutionSnapshot>());
+
+    private final AtomicLong baseSnapshotCount = new AtomicLong();
+    private final AtomicLong deltaSnapshotCount = new AtomicLong();
+
+    private int rebaseInterval = 10;
+    private float maxDeltaRatio = 0.5f;
+
+    public DeltaFlowExecutionSnapshotFactory(FlowExecutionFactory flowExecutionFactory,
+                                             FlowDefinitionLocator flowDefinitionLocator) {
+        super(flowExecutionFactory, flowDefinitionLocator);
+    }
+
+    public FlowExecutionSnapshot createSnapshot(FlowExecution flowExecution) throws SnapshotCreationException {
+        byte[] data = getSerializer().serialize(flowExecution);
+        DeltaFlowExecutionSnapshot snapshot = null;
+        DeltaFlowExecutionSnapshot previous = restoredFrom.get(flowExecution);
+        if (previous != null && previous.getDepth() < rebaseInterval) {
+            DeltaFlowExecutionSnapshot base = previous.getBase();
+            byte[] delta = DeltaCodec.encode(base.getFullData(), data);
+            if (delta.length <= data.length * maxDeltaRatio) {
+                snapshot = new DeltaFlowExecutionSnapshot(base, delta, previous.getDepth() + 1);
+                deltaSnapshotCount.incrementAndGet();
+            }
+        }
+        if (snapshot == null) {
+            snapshot = new DeltaFlowExecutionSnapshot(data);
+            baseSnapshotCount.incrementAndGet();
+        }
+        restoredFrom.put(flowExecution, snapshot);
+        return snapshot;
+    }
+
+    @Override
+    protected byte[] getSerializedData(FlowExecutionSnapshot snapshot) throws SnapshotUnmarshalException {
+        try {
+            return ((DeltaFlowExecutionSnapshot) snapshot).getFullData();
+        }
+        catch (RuntimeException e) {
+            throw new SnapshotUnmarshalException("Could not rebuild the flow execution from " + snapshot, e);
+        }
+    }
+
+    @Override
+    protected void restored(FlowExecution execution, FlowExecutionSnapshot snapshot) {
+        restoredFrom.put(execution, (DeltaFlowExecutionSnapshot) snapshot);
+    }
+
+    public int getRebaseInterval() {
+        return rebaseInterval;
+    }
+
+    /**
+     * Sets the number of pauses after which a new full snapshot is taken. Defaults to 10.
+     */
+    public void setRebaseInterval(int rebaseInterval) {
+        this.rebaseInterval = rebaseInterval;
+    }
+
+    public float getMaxDeltaRatio() {
+        return maxDeltaRatio;
+    }
+
+    /**
+     * Sets the largest delta, as a fraction of the full serialized size, that is kept before rebasing. Defaults to 0.5.
+     */
+    public void setMaxDeltaRatio(float maxDeltaRatio) {
+        this.maxDeltaRatio = maxDeltaRatio;
+    }
+
+    public long getBaseSnapshotCount() {
+        return baseSnapshotCount.get();
+    }
+
+    public long getDeltaSnapshotCount() {
+        return deltaSnapshotCount.get();
+    }
+}
@@ -0,0 +1,34 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository.snapshot;
+
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.repository.snapshot.SnapshotCreationException;
+import org.springframework.webflow.execution.repository.snapshot.SnapshotUnmarshalException;
+
+/**
+ * Turns a flow execution into bytes and back for the snapshot factories in this package.
+ *
+ * @since 2.2
+ */
+public interface FlowExecutionSerializer {
+
+    byte[] serialize(FlowExecution flowExecution) throws SnapshotCreationException;
+
+    /**
+     * @param classLoader the class loader of the flow definition the execution belongs to
+     */
+    FlowExecution deserialize(byte[] data, ClassLoader classLoader) throws SnapshotUnmarshalException;
+}
@@ -0,0 +1,81 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository.snapshot;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.webflow.execution.FlowExecution;
+import org.springframework.webflow.execution.repository.snapshot.SnapshotCreationException;
+import org.springframework.webflow.execution.repository.snapshot.SnapshotUnmarshalException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Plain Java serialization, as used by Spring Web Flow's own snapshots. Subclasses may change the streams used.
+ *
+ * @since 2.2
+ */
+public class JdkFlowExecutionSerializer implements FlowExecutionSerializer {
+
+    public byte[] serialize(FlowExecution flowExecution) throws SnapshotCreationException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try {
+            ObjectOutputStream out = createObjectOutputStream(bytes);
+            out.writeObject(flowExecution);
+            out.close();
+        }
+        catch (IOException e) {
+            throw new SnapshotCreationException(flowExecution, "Could not serialize flow execution; " +
+                    "make sure all objects stored in flow or flash scope are serializable", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public FlowExecution deserialize(byte[] data, ClassLoader classLoader) throws SnapshotUnmarshalException {
+        try {
+            ObjectInputStream in = createObjectInputStream(new ByteArrayInputStream(data), classLoader);
+            try {
+                return (FlowExecution) in.readObject();
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            throw new SnapshotUnmarshalException("IOException thrown deserializing the flow execution stored in " +
+                    "this snapshot -- this should not happen!", e);
+        }
+        catch (ClassNotFoundException e) {
+            throw new SnapshotUnmarshalException("ClassNotFoundException thrown deserializing the flow execution " +
+                    "stored in this snapshot -- This should not happen! Make sure there are no classloader issues.", e);
+        }
+        catch (RuntimeException e) {
+            throw new SnapshotUnmarshalException("Could not deserialize the flow execution stored in this snapshot", e);
+        }
+    }
+
+    protected ObjectOutputStream createObjectOutputStream(OutputStream out) throws IOException {
+        return new ObjectOutputStream(out);
+    }
+
+    protected ObjectInputStream createObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+        return new ConfigurableObjectInputStream(in, classLoader);
+    }
+}
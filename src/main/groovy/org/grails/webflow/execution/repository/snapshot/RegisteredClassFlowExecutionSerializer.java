@@ -0,0 +1,251 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.execution.repository.snapshot;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.util.ClassUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link FlowExecutionSerializer} that writes a small numeric id in place of the class descriptor of each
+ * registered class. Java serialization otherwise writes the name and the full field list of every class it meets,
+ * which for a typical flow execution is the larger part of the snapshot. The output is still a JDK serialization
+ * stream, only with the descriptors shrunk to ids: it is smaller, but not faster to write or read, since the field
+ * values go through the same reflective JDK serialization.
+ *
+ * <p>Classes that are not registered fall back to the normal JDK descriptor, so anything serializable can still be
+ * stored in flow scope. Alongside each id the serialVersionUID and a hash of the serializable field names and types
+ * are recorded, since the registered class is read back against the local descriptor rather than the written one.
+ * If either differs, restoring fails with a {@code SnapshotUnmarshalException}, even for classes that keep a fixed
+ * serialVersionUID across field changes. Snapshots written with a different registration list are rejected the
+ * same way.</p>
+ *
+ * @since 2.2
+ */
+public class RegisteredClassFlowExecutionSerializer extends JdkFlowExecutionSerializer {
+
+    private static final List<String> DEFAULT_CLASS_NAMES = Arrays.asList(
+            "org.springframework.webflow.engine.impl.FlowExecutionImpl",
+            "org.springframework.webflow.engine.impl.FlowSessionImpl",
+            "org.springframework.webflow.execution.FlowExecutionStatus",
+            "org.springframework.webflow.core.collection.LocalAttributeMap",
+            "org.springframework.binding.message.Message",
+            "org.springframework.binding.message.Severity",
+            "java.lang.Enum",
+            "java.lang.Number",
+            "java.lang.String",
+            "java.lang.Boolean",
+            "java.lang.Character",
+            "java.lang.Byte",
+            "java.lang.Short",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.lang.Float",
+            "java.lang.Double",
+            "java.math.BigInteger",
+            "java.math.BigDecimal",
+            "java.util.Date",
+            "java.sql.Date",
+            "java.sql.Timestamp",
+            "java.util.Locale",
+            "java.util.ArrayList",
+            "java.util.LinkedList",
+            "java.util.HashMap",
+            "java.util.LinkedHashMap",
+            "java.util.TreeMap",
+            "java.util.HashSet",
+            "java.util.LinkedHashSet",
+            "java.util.TreeSet");
+
+    private volatile Registry registry = new Registry(DEFAULT_CLASS_NAMES);
+
+    /**
+     * Sets the application classes to register in addition to the defaults, typically the domain and command
+     * classes kept in flow and conversation scope. Entries may be classes or fully qualified class names.
+     * Every node must register the same classes in the same order.
+     */
+    public void setRegisteredClasses(Collection<?> classes) {
+        List<String> names = new ArrayList<String>(DEFAULT_CLASS_NAMES);
+        for (Object entry : classes) {
+            String name;
+            if (entry instanceof Class) {
+                Class<?> clazz = (Class<?>) entry;
+                if (!Serializable.class.isAssignableFrom(clazz)) {
+                    throw new IllegalArgumentException("Cannot register class [" + clazz.getName() +
+                            "] for flow execution snapshots because it is not serializable");
+                }
+                name = clazz.getName();
+            }
+            else {
+                name = String.valueOf(entry);
+            }
+            if (!names.contains(name)) {
+                names.add(name);
+            }
+        }
+        this.registry = new Registry(names);
+    }
+
+    /**
+     * @return the names of all registered classes, defaults included, in id order
+     */
+    public List<String> getRegisteredClassNames() {
+        return registry.names;
+    }
+
+    @Override
+    protected ObjectOutputStream createObjectOutputStream(OutputStream out) throws IOException {
+        Registry registry = this.registry;
+        ObjectOutputStream objectOut = new RegisteredClassOutputStream(out, registry);
+        objectOut.writeInt(registry.fingerprint);
+        return objectOut;
+    }
+
+    @Override
+    protected ObjectInputStream createObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+        Registry registry = this.registry;
+        ObjectInputStream objectIn = new RegisteredClassInputStream(in, classLoader, registry);
+        if (objectIn.readInt() != registry.fingerprint) {
+            throw new InvalidClassException("Snapshot was written with a different list of registered classes");
+        }
+        return objectIn;
+    }
+
+    /**
+     * Hashes the names and types of the serializable fields of the given descriptor, in the stable order
+     * {@link ObjectStreamClass#getFields()} returns them.
+     */
+    static long fieldLayoutHash(ObjectStreamClass desc) {
+        long hash = 1125899906842597L;
+        for (ObjectStreamField field : desc.getFields()) {
+            hash = mix(hash, field.getName());
+            hash = 31 * hash + field.getTypeCode();
+            if (!field.isPrimitive()) {
+                hash = mix(hash, field.getTypeString());
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, String value) {
+        hash = 31 * hash + value.length();
+        for (int i = 0; i < value.length(); i++) {
+            hash = 31 * hash + value.charAt(i);
+        }
+        return hash;
+    }
+
+    private static class Registry {
+        private final List<String> names;
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private final int fingerprint;
+
+        Registry(List<String> names) {
+            this.names = Collections.unmodifiableList(new ArrayList<String>(names));
+            for (int i = 0; i < names.size(); i++) {
+                ids.put(names.get(i), i);
+            }
+            this.fingerprint = this.names.hashCode();
+        }
+    }
+
+    private static class RegisteredClassOutputStream extends ObjectOutputStream {
+        private final Registry registry;
+
+        RegisteredClassOutputStream(OutputStream out, Registry registry) throws IOException {
+            super(out);
+            this.registry = registry;
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            Integer id = registry.ids.get(desc.getName());
+            if (id == null) {
+                write(0);
+                super.writeClassDescriptor(desc);
+                return;
+            }
+            int value = id + 1;
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+            writeLong(desc.getSerialVersionUID());
+            writeLong(fieldLayoutHash(desc));
+        }
+    }
+
+    private static class RegisteredClassInputStream extends ConfigurableObjectInputStream {
+        private final ClassLoader classLoader;
+        private final Registry registry;
+
+        RegisteredClassInputStream(InputStream in, ClassLoader classLoader, Registry registry) throws IOException {
+            super(in, classLoader);
+            this.classLoader = classLoader;
+            this.registry = registry;
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (value == 0) {
+                return super.readClassDescriptor();
+            }
+            if (value > registry.names.size()) {
+                throw new InvalidClassException("Unknown registered class id [" + (value - 1) + "]");
+            }
+            String name = registry.names.get(value - 1);
+            long serialVersionUID = readLong();
+            long fieldLayout = readLong();
+            ObjectStreamClass desc = ObjectStreamClass.lookup(ClassUtils.forName(name, classLoader));
+            if (desc == null) {
+                throw new InvalidClassException(name, "registered class is no longer serializable");
+            }
+            if (desc.getSerialVersionUID() != serialVersionUID) {
+                throw new InvalidClassException(name, "local class incompatible: stream classdesc serialVersionUID = " +
+                        serialVersionUID + ", local class serialVersionUID = " + desc.getSerialVersionUID());
+            }
+            if (fieldLayout != fieldLayoutHash(desc)) {
+                throw new InvalidClassException(name,
+                        "local class incompatible: serializable fields changed since the snapshot was written");
+            }
+            return desc;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.metrics;
+
+import org.grails.webflow.execution.repository.snapshot.CompactFlowExecutionSnapshot;
+import org.grails.webflow.execution.repository.snapshot.DeltaFlowExecutionSnapshot;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.webflow.definition.StateDefinition;
+import org.springframework.webflow.definition.TransitionDefinition;
+import org.springframework.webflow.engine.ActionState;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.FlowExecutionException;
+import org.springframework.webflow.execution.FlowExecutionListenerAdapter;
+import org.springframework.webflow.execution.RequestContext;
+import org.springframework.webflow.execution.View;
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot;
+import org.springframework.webflow.execution.repository.snapshot.SerializedFlowExecutionSnapshot;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Publishes flow execution metrics through the Spring Boot actuator {@link CounterService} and {@link GaugeService}.
+ * Timers and distributions are submitted as {@code timer.*} and {@code histogram.*} gauges, which the actuator turns
+ * into proper timers and histograms when Dropwizard metrics is on the classpath.
+ *
+ * <p>Metric names are made of the flow id, the state id and a transition id, so their number is bounded by the flow
+ * definitions. Events are counted under the transition they match, and those that match no transition of the
+ * current state are counted together as {@code unmatched}. Names are built once per state and cached, and nothing
+ * is recorded or allocated when the listener is disabled.</p>
+ *
+ * @since 2.2
+ */
+public class FlowMetricsExecutionListener extends FlowExecutionListenerAdapter {
+
+    public static final String BEAN_NAME = "flowMetricsExecutionListener";
+
+    private static final String PREFIX = "webflow.";
+    private static final String SNAPSHOT_SIZE = "histogram." + PREFIX + "snapshot.size";
+    private static final String SNAPSHOT_TIME = "timer." + PREFIX + "snapshot.serialize";
+    private static final String LOCK_CONTENDED = PREFIX + "conversation.lock.contended";
+    private static final String LOCK_WAIT = "timer." + PREFIX + "conversation.lock.wait";
+    private static final String SHARED_LOCK_WAIT = "timer." + PREFIX + "conversation.lock.wait.shared";
+
+    private final boolean enabled;
+    private final CounterService counterService;
+    private final GaugeService gaugeService;
+    private final ConcurrentMap<String, FlowMetrics> flowMetrics = new ConcurrentHashMap<String, FlowMetrics>();
+    private final ThreadLocal<Timing> timing = new ThreadLocal<Timing>() {
+        @Override
+        protected Timing initialValue() {
+            return new Timing();
+        }
+    };
+
+    public FlowMetricsExecutionListener(boolean enabled, CounterService counterService, GaugeService gaugeService) {
+        this.enabled = enabled && counterService != null && gaugeService != null;
+        this.counterService = counterService;
+        this.gaugeService = gaugeService;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void requestSubmitted(RequestContext context) {
+        if (!enabled) {
+            return;
+        }
+        Timing current = timing.get();
+        current.requestStart = System.nanoTime();
+        current.actionState = null;
+    }
+
+    @Override
+    public void requestProcessed(RequestContext context) {
+        if (!enabled) {
+            return;
+        }
+        Timing current = timing.get();
+        finishAction(current);
+        if (current.requestStart != 0L) {
+            submitTime(flowMetrics(context.getFlowExecutionContext().getDefinition().getId()).requestTimer,
+                    current.requestStart);
+            current.requestStart = 0L;
+        }
+    }
+
+    @Override
+    public void stateEntered(RequestContext context, StateDefinition previousState, StateDefinition state) {
+        if (!enabled) {
+            return;
+        }
+        Timing current = timing.get();
+        finishAction(current);
+        // stateEntered fires before entry actions and the state's own actions run
+        if (state instanceof ActionState) {
+            current.actionState = stateMetrics(state);
+            current.actionStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void transitionExecuting(RequestContext context, TransitionDefinition transition) {
+        if (!enabled) {
+            return;
+        }
+        finishAction(timing.get());
+        StateDefinition state = context.getCurrentState();
+        if (state != null && transition.getId() != null) {
+            counterService.increment(stateMetrics(state).transitionCounter(transition.getId()));
+        }
+    }
+
+    @Override
+    public void eventSignaled(RequestContext context, Event event) {
+        if (!enabled) {
+            return;
+        }
+        StateDefinition state = context.getCurrentState();
+        if (state != null) {
+            StateMetrics metrics = stateMetrics(state);
+            // named after the matching transition rather than the event, as wildcard transitions match any event id
+            TransitionDefinition transition = context.getMatchingTransition(event.getId());
+            counterService.increment(transition != null && transition.getId() != null ?
+                    metrics.eventCounter(transition.getId()) : metrics.unmatchedEventCounter);
+        }
+    }
+
+    @Override
+    public void viewRendering(RequestContext context, View view, StateDefinition viewState) {
+        if (!enabled) {
+            return;
+        }
+        timing.get().renderStart = System.nanoTime();
+    }
+
+    @Override
+    public void viewRendered(RequestContext context, View view, StateDefinition viewState) {
+        if (!enabled) {
+            return;
+        }
+        Timing current = timing.get();
+        if (current.renderStart != 0L) {
+            submitTime(stateMetrics(viewState).renderTimer, current.renderStart);
+            current.renderStart = 0L;
+        }
+    }
+
+    @Override
+    public void paused(RequestContext context) {
+        if (!enabled) {
+            return;
+        }
+        counterService.increment(flowMetrics(context.getFlowExecutionContext().getDefinition().getId()).pausedCounter);
+    }
+
+    @Override
+    public void resuming(RequestContext context) {
+        if (!enabled) {
+            return;
+        }
+        counterService.increment(flowMetrics(context.getFlowExecutionContext().getDefinition().getId()).resumedCounter);
+    }
+
+    @Override
+    public void exceptionThrown(RequestContext context, FlowExecutionException exception) {
+        if (!enabled) {
+            return;
+        }
+        finishAction(timing.get());
+    }
+
+    /**
+     * Records the size of a snapshot taken by the flow execution repository and the time taken to serialize it.
+     */
+    public void snapshotTaken(FlowExecutionSnapshot snapshot, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        gaugeService.submit(SNAPSHOT_TIME, nanos / 1000000d);
+        int size = sizeOf(snapshot);
+        if (size > -1) {
+            gaugeService.submit(SNAPSHOT_SIZE, size);
+        }
+    }
+
+    /**
+     * Records the commit of a {@code commitAndClearOnPause} flow when it pauses: the time taken and the JDBC
+     * statements and batches the flush executed.
+     */
+    public void flushCompleted(String flowId, long nanos, int statements, int batches) {
+        if (!enabled) {
+            return;
+        }
+        FlowMetrics metrics = flowMetrics(flowId);
+        gaugeService.submit(metrics.flushTimer, nanos / 1000000d);
+        gaugeService.submit(metrics.flushStatements, statements);
+        gaugeService.submit(metrics.flushBatches, batches);
+    }
+
+    /**
+     * Records a request that had to wait for the lock of its conversation.
+     *
+     * @param shared whether the request waited for the lock shared by render-only requests
+     */
+    public void conversationLockWaited(long nanos, boolean shared) {
+        if (!enabled) {
+            return;
+        }
+        counterService.increment(LOCK_CONTENDED);
+        gaugeService.submit(shared ? SHARED_LOCK_WAIT : LOCK_WAIT, nanos / 1000000d);
+    }
+
+    private static int sizeOf(FlowExecutionSnapshot snapshot) {
+        if (snapshot instanceof DeltaFlowExecutionSnapshot) {
+            return ((DeltaFlowExecutionSnapshot) snapshot).getSize();
+        }
+        if (snapshot instanceof CompactFlowExecutionSnapshot) {
+            return ((CompactFlowExecutionSnapshot) snapshot).getSize();
+        }
+        if (snapshot instanceof SerializedFlowExecutionSnapshot) {
+            return ((SerializedFlowExecutionSnapshot) snapshot).getData().length;
+        }
+        return -1;
+    }
+
+    private void finishAction(Timing current) {
+        if (current.actionState != null) {
+            submitTime(current.actionState.actionTimer, current.actionStart);
+            current.actionState = null;
+        }
+    }
+
+    private void submitTime(String name, long start) {
+        gaugeService.submit(name, (System.nanoTime() - start) / 1000000d);
+    }
+
+    private FlowMetrics flowMetrics(String flowId) {
+        FlowMetrics metrics = flowMetrics.get(flowId);
+        if (metrics == null) {
+            metrics = new FlowMetrics(flowId);
+            FlowMetrics existing = flowMetrics.putIfAbsent(flowId, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    private StateMetrics stateMetrics(StateDefinition state) {
+        return flowMetrics(state.getOwner().getId()).stateMetrics(state.getId());
+    }
+
+    /**
+     * The time at which the pieces of work in progress on the current thread started.
+     */
+    private static class Timing {
+        long requestStart;
+        long renderStart;
+        long actionStart;
+        StateMetrics actionState;
+    }
+
+    private static class FlowMetrics {
+        final String name;
+        final String requestTimer;
+        final String pausedCounter;
+        final String resumedCounter;
+        final String flushTimer;
+        final String flushStatements;
+        final String flushBatches;
+        final ConcurrentMap<String, StateMetrics> states = new ConcurrentHashMap<String, StateMetrics>();
+
+        FlowMetrics(String flowId) {
+            this.name = PREFIX + flowId.replace('/', '.');
+            this.requestTimer = "timer." + name + ".request";
+            this.pausedCounter = name + ".paused";
+            this.resumedCounter = name + ".resumed";
+            this.flushTimer = "timer." + name + ".flush";
+            this.flushStatements = "histogram." + name + ".flush.statements";
+            this.flushBatches = "histogram." + name + ".flush.batches";
+        }
+
+        StateMetrics stateMetrics(String stateId) {
+            StateMetrics metrics = states.get(stateId);
+            if (metrics == null) {
+                metrics = new StateMetrics(name + "." + stateId);
+                StateMetrics existing = states.putIfAbsent(stateId, metrics);
+                if (existing != null) {
+                    metrics = existing;
+                }
+            }
+            return metrics;
+        }
+    }
+
+    private static class StateMetrics {
+        final String name;
+        final String actionTimer;
+        final String renderTimer;
+        final String unmatchedEventCounter;
+        final ConcurrentMap<String, String> transitionCounters = new ConcurrentHashMap<String, String>();
+        final ConcurrentMap<String, String> eventCounters = new ConcurrentHashMap<String, String>();
+
+        StateMetrics(String name) {
+            this.name = name;
+            this.actionTimer = "timer." + name + ".action";
+            this.renderTimer = "timer." + name + ".render";
+            this.unmatchedEventCounter = name + ".event.unmatched";
+        }
+
+        String transitionCounter(String transitionId) {
+            return counterName(transitionCounters, ".transition.", transitionId);
+        }
+
+        String eventCounter(String transitionId) {
+            return counterName(eventCounters, ".event.", transitionId);
+        }
+
+        private String counterName(ConcurrentMap<String, String> names, String kind, String id) {
+            String counter = names.get(id);
+            if (counter == null) {
+                counter = name + kind + id;
+                names.putIfAbsent(id, counter);
+            }
+            return counter;
+        }
+    }
+}
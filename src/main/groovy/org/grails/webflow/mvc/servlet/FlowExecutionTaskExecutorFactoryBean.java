@@ -0,0 +1,109 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.mvc.servlet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor {@link GrailsFlowHandlerAdapter} runs flow executions on in async mode: a bounded thread pool,
+ * or one virtual thread per flow request when asked for and the JVM supports them (Java 21 and later).
+ *
+ * @since 2.2
+ */
+public class FlowExecutionTaskExecutorFactoryBean implements FactoryBean<AsyncTaskExecutor>, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowExecutionTaskExecutorFactoryBean.class);
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR =
+            ReflectionUtils.findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+    private int poolSize = 50;
+    private int queueCapacity = 100;
+    private boolean virtualThreads;
+
+    private ExecutorService virtualThreadExecutor;
+    private ThreadPoolTaskExecutor threadPoolExecutor;
+    private AsyncTaskExecutor executor;
+
+    public AsyncTaskExecutor getObject() {
+        if (executor == null) {
+            executor = createExecutor();
+        }
+        return executor;
+    }
+
+    private AsyncTaskExecutor createExecutor() {
+        if (virtualThreads) {
+            if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+                virtualThreadExecutor = (ExecutorService) ReflectionUtils.invokeMethod(NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR, null);
+                return new ConcurrentTaskExecutor(virtualThreadExecutor);
+            }
+            LOG.warn("Virtual threads are not supported by this JVM, flow executions run on a pool of " + poolSize + " threads");
+        }
+        threadPoolExecutor = new ThreadPoolTaskExecutor();
+        threadPoolExecutor.setCorePoolSize(poolSize);
+        threadPoolExecutor.setMaxPoolSize(poolSize);
+        threadPoolExecutor.setQueueCapacity(queueCapacity);
+        threadPoolExecutor.setThreadNamePrefix("webflow-");
+        threadPoolExecutor.initialize();
+        return threadPoolExecutor;
+    }
+
+    public Class<?> getObjectType() {
+        return AsyncTaskExecutor.class;
+    }
+
+    public boolean isSingleton() {
+        return true;
+    }
+
+    public void destroy() {
+        if (threadPoolExecutor != null) {
+            threadPoolExecutor.shutdown();
+        }
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+        }
+    }
+
+    /**
+     * @param poolSize the number of threads running flow executions, unless virtual threads are used
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * @param queueCapacity the number of flow requests waiting for a thread before new ones are rejected
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+}
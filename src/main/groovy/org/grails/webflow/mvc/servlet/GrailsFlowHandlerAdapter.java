@@ -14,6 +14,12 @@
  */
 package org.grails.webflow.mvc.servlet;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -23,19 +29,37 @@ import grails.core.GrailsControllerClass;
 import grails.core.support.GrailsApplicationAware;
 import org.grails.web.servlet.DefaultGrailsApplicationAttributes;
 import org.grails.web.servlet.mvc.GrailsWebRequest;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.util.NestedServletException;
 import org.springframework.webflow.mvc.servlet.FlowHandlerAdapter;
 
 /**
  * Extends the default FlowHandlerAdapter in order to populate a valid Grails request.
  *
+ * <p>When an {@link #setAsyncExecutor(AsyncTaskExecutor) async executor} is set, flow requests are processed on it
+ * through Servlet async processing, releasing the container thread while action states run. A Grails web request of
+ * its own, the locale and the resources bound to the container thread, such as the Hibernate session opened in view,
+ * are bound to the worker thread for the duration of the flow request; the flow execution binds its own external context and flow
+ * session there. The result is handled when the request is dispatched back to the container.</p>
+ *
  * @author Graeme Rocher
  * @since 1.1.1
  */
 public class GrailsFlowHandlerAdapter extends FlowHandlerAdapter implements GrailsApplicationAware {
 
     private GrailsApplication grailsApplication;
+    private AsyncTaskExecutor asyncExecutor;
+    private Long asyncTimeout;
 
     @Override
     public ModelAndView handle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
@@ -50,10 +74,105 @@ public class GrailsFlowHandlerAdapter extends FlowHandlerAdapter implements Grai
             request.setAttribute(DefaultGrailsApplicationAttributes.CONTROLLER, controllerInstance);
         }
 
+        if (asyncExecutor != null) {
+            WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+            if (asyncManager.hasConcurrentResult()) {
+                return handleConcurrentResult(asyncManager);
+            }
+            if (request.isAsyncSupported()) {
+                startAsync(asyncManager, request, response, handler, webRequest);
+                return null;
+            }
+        }
+        return handleFlowRequest(request, response, handler);
+    }
+
+    private void startAsync(WebAsyncManager asyncManager, final HttpServletRequest request, final HttpServletResponse response,
+                            final Object handler, GrailsWebRequest webRequest) throws Exception {
+        // the Grails request filter completes the container's web request once the initial dispatch unwinds, so the
+        // worker gets its own, with the parameters the URL mappings added
+        final GrailsWebRequest workerRequest = new GrailsWebRequest(request, response, request.getServletContext(), getApplicationContext());
+        workerRequest.getParams().putAll(webRequest.getParams());
+        final LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+        // copied, as the container thread may unbind its resources once async processing has started
+        final Map<Object, Object> resources = new HashMap<Object, Object>(TransactionSynchronizationManager.getResourceMap());
+        Callable<ModelAndView> flowRequest = new Callable<ModelAndView>() {
+            public ModelAndView call() throws Exception {
+                return handleOnWorkerThread(request, response, handler, workerRequest, localeContext, resources);
+            }
+        };
+        asyncManager.startCallableProcessing(new WebAsyncTask<ModelAndView>(asyncTimeout, asyncExecutor, flowRequest));
+    }
+
+    private ModelAndView handleOnWorkerThread(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                              GrailsWebRequest webRequest, LocaleContext localeContext,
+                                              Map<Object, Object> resources) throws Exception {
+        RequestAttributes previousAttributes = RequestContextHolder.getRequestAttributes();
+        LocaleContext previousLocaleContext = LocaleContextHolder.getLocaleContext();
+        Object previousWebRequest = request.getAttribute(DefaultGrailsApplicationAttributes.WEB_REQUEST);
+        RequestContextHolder.setRequestAttributes(webRequest);
+        request.setAttribute(DefaultGrailsApplicationAttributes.WEB_REQUEST, webRequest);
+        LocaleContextHolder.setLocaleContext(localeContext);
+        // resources the async interceptors have already bound, such as the session opened in view, are left alone
+        List<Object> boundResources = new ArrayList<Object>(resources.size());
+        for (Map.Entry<Object, Object> resource : resources.entrySet()) {
+            if (!TransactionSynchronizationManager.hasResource(resource.getKey())) {
+                TransactionSynchronizationManager.bindResource(resource.getKey(), resource.getValue());
+                boundResources.add(resource.getKey());
+            }
+        }
+        try {
+            return handleFlowRequest(request, response, handler);
+        }
+        finally {
+            for (Object key : boundResources) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(key);
+            }
+            webRequest.requestCompleted();
+            request.setAttribute(DefaultGrailsApplicationAttributes.WEB_REQUEST, previousWebRequest);
+            LocaleContextHolder.setLocaleContext(previousLocaleContext);
+            RequestContextHolder.setRequestAttributes(previousAttributes);
+        }
+    }
+
+    /**
+     * Launches or resumes the flow execution, on the container thread or on the async executor.
+     */
+    protected ModelAndView handleFlowRequest(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
         return super.handle(request, response, handler);
     }
 
+    private ModelAndView handleConcurrentResult(WebAsyncManager asyncManager) throws Exception {
+        Object result = asyncManager.getConcurrentResult();
+        asyncManager.clearConcurrentResult();
+        if (result instanceof Exception) {
+            throw (Exception) result;
+        }
+        if (result instanceof Throwable) {
+            throw new NestedServletException("Flow request processing failed", (Throwable) result);
+        }
+        // null when the flow execution has already written the response
+        return (ModelAndView) result;
+    }
+
     public void setGrailsApplication(GrailsApplication grailsApplication) {
         this.grailsApplication = grailsApplication;
     }
+
+    /**
+     * @param asyncExecutor runs flow requests off the container threads, or null to run them on the container thread
+     * @since 2.2
+     */
+    public void setAsyncExecutor(AsyncTaskExecutor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * @param asyncTimeout the time in milliseconds a flow request may take in async mode, or null for the container
+     *                     default
+     * @since 2.2
+     */
+    public void setAsyncTimeout(Long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
 }
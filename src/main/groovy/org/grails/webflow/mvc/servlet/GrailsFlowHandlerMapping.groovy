@@ -14,6 +14,7 @@
  */
 package org.grails.webflow.mvc.servlet
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap
 import grails.core.GrailsApplication
 import grails.web.mapping.UrlMapping
 import grails.web.mapping.UrlMappingInfo
@@ -30,6 +31,7 @@ import org.springframework.web.servlet.HandlerExecutionChain;
 import org.springframework.webflow.mvc.servlet.AbstractFlowHandler
 
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * A HandlerMapping implementation that maps Grails controller classes onto flows.
@@ -43,6 +45,13 @@ public class GrailsFlowHandlerMapping extends UrlMappingsHandlerMapping implemen
     private static final String FLOW_SUFFIX = "Flow";
     private Map<String,Set<String>> flowNamesByController = new ConcurrentHashMap<>();
     private Map<String,GrailsControllerClass> controllerClassMap = new ConcurrentHashMap<>();
+    private Map<String,AbstractFlowHandler> flowHandlers = new ConcurrentHashMap<>();
+
+    private static final Resolution NOT_A_FLOW = new Resolution(null, null, null)
+    private int resolutionCacheSize = 10000
+    private Map<String,Resolution> resolutionCache = createResolutionCache(resolutionCacheSize)
+    private final AtomicLong cacheHitCount = new AtomicLong()
+    private final AtomicLong cacheMissCount = new AtomicLong()
 
     GrailsFlowHandlerMapping(UrlMappingsHolder urlMappingsHolder) {
         super(urlMappingsHolder)
@@ -59,12 +68,8 @@ public class GrailsFlowHandlerMapping extends UrlMappingsHandlerMapping implemen
         if (controllerClass != null && actionName != null) {
             if (isFlowAction(controllerClass, actionName)) {
                 final String flowid = controllerClass.getLogicalPropertyName() + "/" + actionName;
-                return new AbstractFlowHandler() {
-                    @Override
-                    public String getFlowId() {
-                        return flowid;
-                    }
-                };
+                AbstractFlowHandler handler = flowHandlers.get(flowid)
+                return handler != null ? handler : new FlowIdHandler(flowid);
             }
         }
         return null;
@@ -78,7 +83,38 @@ public class GrailsFlowHandlerMapping extends UrlMappingsHandlerMapping implemen
     @Override
     protected Object getHandlerInternal(HttpServletRequest request) throws Exception {
         String uri = urlHelper.getPathWithinApplication(request)
-        UrlMappingInfo[] urlMappingInfos = urlMappingsHolder.matchAll(uri, request.getMethod(), UrlMapping.ANY_VERSION)
+        String cacheKey = request.getMethod() + " " + uri
+        Resolution resolution = resolutionCache.get(cacheKey)
+        if (resolution == null) {
+            cacheMissCount.incrementAndGet()
+            resolution = resolve(uri, request.getMethod())
+            resolutionCache.put(cacheKey, resolution)
+        }
+        else {
+            cacheHitCount.incrementAndGet()
+        }
+
+        if (resolution.appliedAction != null) {
+            UrlMappingInfo info = resolution.info
+            request.setAttribute(MATCHED_REQUEST, info)
+            request.setAttribute(DefaultGrailsApplicationAttributes.GRAILS_CONTROLLER_CLASS, resolution.controllerClass)
+            request.setAttribute(DefaultGrailsApplicationAttributes.CONTROLLER_NAME_ATTRIBUTE, info.controllerName)
+            request.setAttribute(DefaultGrailsApplicationAttributes.ACTION_NAME_ATTRIBUTE, resolution.appliedAction)
+
+            GrailsWebRequest grailsWebRequest = GrailsWebRequest.lookup(request);
+            if (grailsWebRequest != null) {
+                grailsWebRequest.resetParams()
+                info.configure(grailsWebRequest)
+            }
+        }
+        return getHandlerForControllerClass(resolution.controllerClass, request)
+    }
+
+    /**
+     * Works out which flow, if any, the given URI and method map onto.
+     */
+    protected Resolution resolve(String uri, String method) {
+        UrlMappingInfo[] urlMappingInfos = urlMappingsHolder.matchAll(uri, method, UrlMapping.ANY_VERSION)
         GrailsControllerClass matchedController
         for(UrlMappingInfo info in urlMappingInfos) {
 
@@ -101,23 +137,12 @@ public class GrailsFlowHandlerMapping extends UrlMappingsHandlerMapping implemen
                     }
 
                     if(appliedAction != null) {
-                        request.setAttribute(MATCHED_REQUEST, info)
-                        request.setAttribute(DefaultGrailsApplicationAttributes.GRAILS_CONTROLLER_CLASS, matchedController)
-                        request.setAttribute(DefaultGrailsApplicationAttributes.CONTROLLER_NAME_ATTRIBUTE, info.controllerName)
-                        request.setAttribute(DefaultGrailsApplicationAttributes.ACTION_NAME_ATTRIBUTE, appliedAction)
-
-                        GrailsWebRequest grailsWebRequest = GrailsWebRequest.lookup(request);
-                        if (grailsWebRequest != null) {
-                            grailsWebRequest.resetParams()
-                            info.configure(grailsWebRequest)
-                        }
-                        break;
+                        return new Resolution(info, matchedController, appliedAction)
                     }
                 }
             }
         }
-        return getHandlerForControllerClass(matchedController, request)
-
+        return matchedController != null ? new Resolution(null, matchedController, null) : NOT_A_FLOW
     }
 
     @Override
@@ -144,16 +169,52 @@ public class GrailsFlowHandlerMapping extends UrlMappingsHandlerMapping implemen
                 flowNamesByController.put(controllerClass.logicalPropertyName, flowNames)
             }
             flowNames.add(flowName)
+            String flowId = controllerClass.logicalPropertyName + "/" + flowName
+            flowHandlers.put(flowId, new FlowIdHandler(flowId))
+            resolutionCache.clear()
         }
     }
 
     void clearFlows(GrailsControllerClass controllerClass) {
         synchronized (this) {
-            controllerClassMap.remove(controllerClass)
-            flowNamesByController.remove(controllerClass.logicalPropertyName)
+            controllerClassMap.remove(controllerClass.logicalPropertyName)
+            Set<String> flowNames = flowNamesByController.remove(controllerClass.logicalPropertyName)
+            for (String flowName in flowNames) {
+                flowHandlers.remove(controllerClass.logicalPropertyName + "/" + flowName)
+            }
+            resolutionCache.clear()
         }
     }
 
+    /**
+     * @return the number of requests whose URI and method were found in the resolution cache
+     */
+    long getCacheHitCount() {
+        return cacheHitCount.get()
+    }
+
+    long getCacheMissCount() {
+        return cacheMissCount.get()
+    }
+
+    int getResolutionCacheSize() {
+        return resolutionCacheSize
+    }
+
+    /**
+     * Sets the maximum number of URI and method combinations to remember, flow or not. Defaults to 10000.
+     */
+    void setResolutionCacheSize(int resolutionCacheSize) {
+        this.resolutionCacheSize = resolutionCacheSize
+        this.resolutionCache = createResolutionCache(resolutionCacheSize)
+    }
+
+    private static Map<String,Resolution> createResolutionCache(int size) {
+        return new ConcurrentLinkedHashMap.Builder<String,Resolution>()
+                .maximumWeightedCapacity(size)
+                .build()
+    }
+
     public void afterPropertiesSet() {
     }
 
@@ -165,4 +226,35 @@ public class GrailsFlowHandlerMapping extends UrlMappingsHandlerMapping implemen
         this.grailsApplication = grailsApplication
     }
 
+    /**
+     * The outcome of matching a URI and method: the mapping and flow it resolved to, if any.
+     */
+    protected static class Resolution {
+        final UrlMappingInfo info
+        final GrailsControllerClass controllerClass
+        final String appliedAction
+
+        Resolution(UrlMappingInfo info, GrailsControllerClass controllerClass, String appliedAction) {
+            this.info = info
+            this.controllerClass = controllerClass
+            this.appliedAction = appliedAction
+        }
+    }
+
+    /**
+     * Immutable handler for a single flow id, shared by all requests to that flow.
+     */
+    protected static class FlowIdHandler extends AbstractFlowHandler {
+        private final String flowId
+
+        FlowIdHandler(String flowId) {
+            this.flowId = flowId
+        }
+
+        @Override
+        String getFlowId() {
+            return flowId
+        }
+    }
+
 }
@@ -0,0 +1,66 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.persistence;
+
+import org.hibernate.Session;
+
+import java.io.Serializable;
+
+/**
+ * Stands in for a persistent entity in flow or conversation scope while the flow is paused, so that snapshots hold
+ * the entity name, identifier and version rather than the entity graph.
+ *
+ * @since 2.2
+ */
+public class EntityReference implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String entityName;
+    private final Serializable id;
+    private final Object version;
+
+    public EntityReference(String entityName, Serializable id, Object version) {
+        this.entityName = entityName;
+        this.id = id;
+        this.version = version;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    public Serializable getId() {
+        return id;
+    }
+
+    /**
+     * @return the version the entity had when the flow paused, or null when it is not versioned or was never loaded
+     */
+    public Object getVersion() {
+        return version;
+    }
+
+    /**
+     * @return a proxy that loads the entity from the given session when it is first accessed
+     */
+    public Object load(Session session) {
+        return session.load(entityName, id);
+    }
+
+    public String toString() {
+        return "EntityReference[" + entityName + "#" + id + (version != null ? ", version=" + version : "") + "]";
+    }
+}
@@ -0,0 +1,60 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.persistence;
+
+import org.hibernate.Session;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Stands in for a list or set of persistent entities in flow or conversation scope while the flow is paused.
+ *
+ * @since 2.2
+ */
+public class EntityReferenceCollection implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<EntityReference> references;
+    private final boolean set;
+
+    public EntityReferenceCollection(List<EntityReference> references, boolean set) {
+        this.references = references;
+        this.set = set;
+    }
+
+    public List<EntityReference> getReferences() {
+        return references;
+    }
+
+    /**
+     * @return a list, or a set when a set was compacted, of proxies loading each entity when it is first accessed
+     */
+    public Collection<Object> load(Session session) {
+        Collection<Object> entities = set ? new LinkedHashSet<Object>(references.size()) : new ArrayList<Object>(references.size());
+        for (EntityReference reference : references) {
+            entities.add(reference.load(session));
+        }
+        return entities;
+    }
+
+    public String toString() {
+        return "EntityReferenceCollection" + references;
+    }
+}
@@ -0,0 +1,225 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.persistence;
+
+import org.grails.webflow.conversation.StripedLockConversationManager;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.execution.FlowSession;
+import org.springframework.webflow.execution.RequestContext;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces the persistent entities held in flow and conversation scope by {@link EntityReference}s when a flow
+ * pauses, and the references by proxies of the flow's Hibernate session when it resumes. Entities that are new,
+ * detached or possibly modified are left in scope as they are, so unsaved changes are never lost.
+ *
+ * <p>Render-only requests sharing a conversation under {@link StripedLockConversationManager} all see the same
+ * conversation scope. For them it is restored while holding the shared conversation mutex, and only compacted again
+ * by the next request that locks the conversation exclusively.</p>
+ *
+ * @since 2.2
+ */
+public class EntityReferenceCompactor {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final SessionFactory sessionFactory;
+
+    public EntityReferenceCompactor(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * @return the number of scope entries replaced
+     */
+    public int compact(RequestContext context, Session session) {
+        Compaction compaction = new Compaction(session);
+        for (FlowSession flowSession = context.getFlowExecutionContext().getActiveSession(); flowSession != null;
+             flowSession = flowSession.getParent()) {
+            compaction.compact(flowSession.getScope());
+        }
+        if (StripedLockConversationManager.getSharedConversationMutex() == null) {
+            // other render-only requests may still be using the entities of a shared conversation scope
+            compaction.compact(context.getConversationScope());
+        }
+        if (compaction.replaced > 0 && log.isDebugEnabled()) {
+            log.debug("Replaced " + compaction.replaced + " entities in scope by references");
+        }
+        return compaction.replaced;
+    }
+
+    /**
+     * @return the number of scope entries restored
+     */
+    public int restore(RequestContext context, Session session) {
+        int restored = 0;
+        for (FlowSession flowSession = context.getFlowExecutionContext().getActiveSession(); flowSession != null;
+             flowSession = flowSession.getParent()) {
+            restored += restore(flowSession.getScope(), session);
+        }
+        Object mutex = StripedLockConversationManager.getSharedConversationMutex();
+        if (mutex == null) {
+            restored += restore(context.getConversationScope(), session);
+        }
+        else {
+            synchronized (mutex) {
+                restored += restore(context.getConversationScope(), session);
+            }
+        }
+        return restored;
+    }
+
+    private int restore(MutableAttributeMap<Object> scope, Session session) {
+        Map<String, Object> restored = null;
+        for (Map.Entry<String, Object> entry : scope.asMap().entrySet()) {
+            Object value = entry.getValue();
+            Object entity;
+            if (value instanceof EntityReference) {
+                entity = ((EntityReference) value).load(session);
+            }
+            else if (value instanceof EntityReferenceCollection) {
+                entity = ((EntityReferenceCollection) value).load(session);
+            }
+            else {
+                continue;
+            }
+            if (restored == null) {
+                restored = new LinkedHashMap<String, Object>();
+            }
+            restored.put(entry.getKey(), entity);
+        }
+        if (restored == null) {
+            return 0;
+        }
+        for (Map.Entry<String, Object> entry : restored.entrySet()) {
+            scope.put(entry.getKey(), entry.getValue());
+        }
+        return restored.size();
+    }
+
+    /**
+     * The state of compacting the scopes of one paused flow execution.
+     */
+    private class Compaction {
+        final Session session;
+        Boolean dirty;
+        int replaced;
+
+        Compaction(Session session) {
+            this.session = session;
+        }
+
+        void compact(MutableAttributeMap<Object> scope) {
+            Map<String, Object> references = null;
+            for (Map.Entry<String, Object> entry : scope.asMap().entrySet()) {
+                Object reference = toReferences(entry.getValue());
+                if (reference != null) {
+                    if (references == null) {
+                        references = new LinkedHashMap<String, Object>();
+                    }
+                    references.put(entry.getKey(), reference);
+                }
+            }
+            if (references != null) {
+                for (Map.Entry<String, Object> entry : references.entrySet()) {
+                    scope.put(entry.getKey(), entry.getValue());
+                }
+                replaced += references.size();
+            }
+        }
+
+        private Object toReferences(Object value) {
+            if (value instanceof Collection && !(value instanceof PersistentCollection)) {
+                Collection<?> collection = (Collection<?>) value;
+                if (collection.isEmpty()) {
+                    return null;
+                }
+                List<EntityReference> references = new ArrayList<EntityReference>(collection.size());
+                for (Object element : collection) {
+                    EntityReference reference = toReference(element);
+                    if (reference == null) {
+                        return null;
+                    }
+                    references.add(reference);
+                }
+                return new EntityReferenceCollection(references, value instanceof Set);
+            }
+            return toReference(value);
+        }
+
+        private EntityReference toReference(Object value) {
+            if (value == null || isSimpleValue(value)) {
+                return null;
+            }
+            if (value instanceof HibernateProxy) {
+                LazyInitializer initializer = ((HibernateProxy) value).getHibernateLazyInitializer();
+                if (initializer.isUninitialized()) {
+                    return new EntityReference(initializer.getEntityName(), initializer.getIdentifier(), null);
+                }
+                if (!isUnmodified(value)) {
+                    return null;
+                }
+                value = initializer.getImplementation();
+            }
+            ClassMetadata metadata = sessionFactory.getClassMetadata(value.getClass());
+            if (metadata == null || !isUnmodified(value)) {
+                return null;
+            }
+            Serializable id = metadata.getIdentifier(value, (SessionImplementor) session);
+            if (id == null) {
+                return null;
+            }
+            return new EntityReference(metadata.getEntityName(), id, metadata.isVersioned() ? metadata.getVersion(value) : null);
+        }
+
+        /**
+         * Read-only entities cannot have changed; for others the session is dirty checked once per pause.
+         */
+        private boolean isUnmodified(Object entity) {
+            if (!session.contains(entity)) {
+                return false;
+            }
+            if (session.isReadOnly(entity)) {
+                return true;
+            }
+            if (dirty == null) {
+                dirty = session.isDirty();
+            }
+            return !dirty;
+        }
+    }
+
+    private static boolean isSimpleValue(Object value) {
+        return value instanceof CharSequence || value instanceof Number || value instanceof Boolean ||
+                value instanceof Date || value instanceof Enum || value instanceof Map;
+    }
+}
@@ -0,0 +1,134 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.persistence;
+
+import org.springframework.webflow.core.collection.AttributeMap;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.definition.FlowDefinition;
+
+/**
+ * How {@link SessionAwareHibernateFlowExecutionListener} manages the Hibernate session of a flow, read from the
+ * flow definition attributes once when the flow is built and kept with the definition.
+ *
+ * @since 2.2
+ */
+public final class FlowPersistencePolicy {
+
+    /** The flow definition attribute holding the policy */
+    public static final String ATTRIBUTE = "grails.webflow.persistencePolicy";
+
+    /** The flow definition attribute set by {@code persistenceContext(readOnly: true)} */
+    public static final String READ_ONLY_ATTRIBUTE = "persistenceContextReadOnly";
+
+    /** The flow definition attribute setting the JDBC batch size of the flow's Hibernate session */
+    public static final String JDBC_BATCH_SIZE_ATTRIBUTE = "jdbcBatchSize";
+
+    private static final FlowPersistencePolicy NONE = new FlowPersistencePolicy(false, false, false, 0);
+
+    private final boolean persistenceContext;
+    private final boolean commitAndClearOnPause;
+    private final boolean readOnly;
+    private final int jdbcBatchSize;
+
+    private FlowPersistencePolicy(boolean persistenceContext, boolean commitAndClearOnPause, boolean readOnly, int jdbcBatchSize) {
+        this.persistenceContext = persistenceContext;
+        this.commitAndClearOnPause = commitAndClearOnPause;
+        this.readOnly = readOnly;
+        this.jdbcBatchSize = jdbcBatchSize;
+    }
+
+    /**
+     * @return whether the flow keeps a Hibernate session for its whole duration
+     */
+    public boolean isPersistenceContext() {
+        return persistenceContext;
+    }
+
+    /**
+     * @return whether the session is committed and closed each time the flow pauses; applies to the subflows of a
+     * root flow as well
+     */
+    public boolean isCommitAndClearOnPause() {
+        return commitAndClearOnPause;
+    }
+
+    /**
+     * @return whether the flow only reads entities, so its session loads them read-only and is never flushed
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * @return the JDBC batch size of the flow's Hibernate session, or 0 to use the session factory setting; applies to
+     * the subflows of a root flow as well
+     */
+    public int getJdbcBatchSize() {
+        return jdbcBatchSize;
+    }
+
+    /**
+     * Computes the policy of a flow and stores it with the flow attributes. Called once the flow has been built.
+     */
+    @SuppressWarnings("unchecked")
+    public static FlowPersistencePolicy register(FlowDefinition flow) {
+        FlowPersistencePolicy policy = create(flow.getAttributes());
+        if (flow.getAttributes() instanceof MutableAttributeMap) {
+            ((MutableAttributeMap<Object>) flow.getAttributes()).put(ATTRIBUTE, policy);
+        }
+        return policy;
+    }
+
+    /**
+     * @return the policy stored when the flow was built, or one computed from its attributes for flows that were
+     * not built by the plugin
+     */
+    public static FlowPersistencePolicy forFlow(FlowDefinition flow) {
+        Object policy = flow.getAttributes().get(ATTRIBUTE);
+        if (policy instanceof FlowPersistencePolicy) {
+            return (FlowPersistencePolicy) policy;
+        }
+        return register(flow);
+    }
+
+    private static FlowPersistencePolicy create(AttributeMap<?> attributes) {
+        boolean persistenceContext = attributes.contains("persistenceContext");
+        boolean commitAndClearOnPause = attributes.contains("commitAndClearOnPause");
+        Object readOnlyValue = attributes.get(READ_ONLY_ATTRIBUTE);
+        boolean readOnly = persistenceContext && (Boolean.TRUE.equals(readOnlyValue) || "true".equals(readOnlyValue));
+        if (!persistenceContext && !commitAndClearOnPause) {
+            return NONE;
+        }
+        return new FlowPersistencePolicy(persistenceContext, commitAndClearOnPause, readOnly,
+                toBatchSize(attributes.get(JDBC_BATCH_SIZE_ATTRIBUTE)));
+    }
+
+    private static int toBatchSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        int batchSize = value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim());
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("Flow attribute [" + JDBC_BATCH_SIZE_ATTRIBUTE + "] must not be negative, was " + value);
+        }
+        return batchSize;
+    }
+
+    public String toString() {
+        return "FlowPersistencePolicy[persistenceContext=" + persistenceContext +
+                ", commitAndClearOnPause=" + commitAndClearOnPause + ", readOnly=" + readOnly +
+                ", jdbcBatchSize=" + jdbcBatchSize + "]";
+    }
+}
@@ -0,0 +1,97 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.persistence;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Counts the flushes and JDBC statements of the Hibernate session a {@code commitAndClearOnPause} flow uses for one
+ * request, so that the commit made when the flow pauses can be logged and published as metrics.
+ *
+ * @since 2.2
+ */
+public class FlushStatistics extends BaseSessionEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private int flushes;
+    private int statements;
+    private int batches;
+    private int entities;
+    private int collections;
+    private long flushStart;
+    private long flushNanos;
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        statements++;
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        batches++;
+    }
+
+    @Override
+    public void flushStart() {
+        flushStart = System.nanoTime();
+    }
+
+    @Override
+    public void flushEnd(int numberOfEntities, int numberOfCollections) {
+        flushes++;
+        entities += numberOfEntities;
+        collections += numberOfCollections;
+        if (flushStart != 0L) {
+            flushNanos += System.nanoTime() - flushStart;
+            flushStart = 0L;
+        }
+    }
+
+    public int getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * @return the statements executed on their own, queries included
+     */
+    public int getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return the JDBC batches executed, each holding up to the JDBC batch size of inserts, updates or deletes
+     */
+    public int getBatches() {
+        return batches;
+    }
+
+    public int getEntities() {
+        return entities;
+    }
+
+    public int getCollections() {
+        return collections;
+    }
+
+    public long getFlushNanos() {
+        return flushNanos;
+    }
+
+    public String toString() {
+        return flushes + " flushes of " + entities + " entities and " + collections + " collections in " +
+                (flushNanos / 1000000d) + "ms, " + statements + " statements and " + batches + " batches";
+    }
+}
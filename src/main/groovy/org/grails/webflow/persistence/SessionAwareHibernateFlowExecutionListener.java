@@ -14,30 +14,24 @@
  */
 package org.grails.webflow.persistence;
 
+import org.grails.webflow.metrics.FlowMetricsExecutionListener;
 import org.hibernate.FlushMode;
 import org.hibernate.Interceptor;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.engine.spi.SessionImplementor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.orm.hibernate4.SessionHolder;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
-import org.springframework.util.ReflectionUtils;
 import org.springframework.webflow.core.collection.AttributeMap;
 import org.springframework.webflow.core.collection.MutableAttributeMap;
 import org.springframework.webflow.definition.FlowDefinition;
 import org.springframework.webflow.execution.FlowSession;
 import org.springframework.webflow.execution.RequestContext;
 import org.springframework.webflow.persistence.HibernateFlowExecutionListener;
-import org.springframework.util.ClassUtils;
-
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 
 /**
  * Extends the HibernateFlowExecutionListener and doesn't bind a session if one is already present.
@@ -47,18 +41,17 @@ import java.lang.reflect.Method;
  */
 public class SessionAwareHibernateFlowExecutionListener extends HibernateFlowExecutionListener {
 
-    private static final boolean hibernate3Present = ClassUtils.isPresent("org.hibernate.connection.ConnectionProvider", HibernateFlowExecutionListener.class.getClassLoader());
-    private static final boolean hibernate5Present = ClassUtils.isPresent("org.hibernate.boot.model.naming.PhysicalNamingStrategy", HibernateFlowExecutionListener.class.getClassLoader());
-    private static final Method openSessionMethod =  ReflectionUtils.findMethod(SessionFactory.class, "openSession");
-    private static final Method openSessionWithInterceptorMethod = ReflectionUtils.findMethod(SessionFactory.class, "openSession", Interceptor.class);
-    private static final Method currentSessionMethod = ClassUtils.getMethod(SessionFactory.class, "getCurrentSession");
-    private static final Method closeSessionMethod = ReflectionUtils.findMethod(Session.class, "close");
-
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    private final SessionHolderAccessor sessionHolderAccessor = SessionHolderAccessor.get();
     private SessionFactory localSessionFactory;
 	private TransactionTemplate transactionTemplate;
+    private TransactionTemplate readOnlyTransactionTemplate;
     private Interceptor entityInterceptor;
+    private EntityReferenceCompactor entityReferenceCompactor;
+    private FlowMetricsExecutionListener flowMetrics;
+    private volatile boolean jdbcBatchSizeWarned;
+    private final ThreadLocal<FlushStatistics> flushStatistics = new ThreadLocal<FlushStatistics>();
 
     /**
      * Create a new Hibernate Flow Execution Listener using giving Hibernate session factory and transaction manager.
@@ -70,6 +63,8 @@ public class SessionAwareHibernateFlowExecutionListener extends HibernateFlowExe
         super(sessionFactory, transactionManager);
         this.localSessionFactory = sessionFactory;
         this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
     }
 
     @Override
@@ -82,6 +77,13 @@ public class SessionAwareHibernateFlowExecutionListener extends HibernateFlowExe
             else {
                 log.debug("sessionStarting: Binding Hibernate session to flow");
                 super.sessionStarting(context, session, input);
+                FlowPersistencePolicy policy = FlowPersistencePolicy.forFlow(session.getDefinition());
+                if (policy.isReadOnly()) {
+                    setReadOnly(getBoundHibernateSession(session));
+                }
+                else {
+                    applyJdbcBatchSize(getBoundHibernateSession(session), policy);
+                }
             }
         }
         else {
@@ -93,15 +95,22 @@ public class SessionAwareHibernateFlowExecutionListener extends HibernateFlowExe
     @Override
     public void sessionEnding(RequestContext context, FlowSession session, String outcome, MutableAttributeMap output) {
         final Session hibernateSession = getBoundHibernateSession(session);
-        if (hibernateSession!= null && (session.isRoot() || isCommitAndClearOnPause(context))) {
-            if(isCommitAndClearOnPause(context)) {
-                log.debug("sessionEnding: CommitAndClearPost");
-                doCommitAndClearPost(context);
-            }
-            else {
-                log.debug("sessionEnding: Commit transaction and unbinding Hibernate session");
-                super.sessionEnding(context, session, outcome, output);
-            }
+        if (hibernateSession == null) {
+            return;
+        }
+        if(isCommitAndClearOnPause(context)) {
+            log.debug("sessionEnding: CommitAndClearPost");
+            doCommitAndClearPost(context);
+        }
+        else if (session.isRoot() && FlowPersistencePolicy.forFlow(session.getDefinition()).isReadOnly()) {
+            // nothing to commit
+            log.debug("sessionEnding: Unbinding read-only Hibernate session");
+            sessionHolderAccessor.unbind(localSessionFactory);
+            sessionHolderAccessor.closeSession(hibernateSession);
+        }
+        else if (session.isRoot()) {
+            log.debug("sessionEnding: Commit transaction and unbinding Hibernate session");
+            super.sessionEnding(context, session, outcome, output);
         }
     }
 
@@ -123,6 +132,12 @@ public class SessionAwareHibernateFlowExecutionListener extends HibernateFlowExe
         else {
             obtainCurrentSession(context);
         }
+        if (entityReferenceCompactor != null) {
+            Session hibernateSession = findHibernateSession(context);
+            if (hibernateSession != null) {
+                entityReferenceCompactor.restore(context, hibernateSession);
+            }
+        }
     }
 
     private boolean isSessionAlreadyBound() {
@@ -131,7 +146,7 @@ public class SessionAwareHibernateFlowExecutionListener extends HibernateFlowExe
 
     @Override
     public void sessionEnded(RequestContext context, FlowSession session, String outcome, AttributeMap output) {
-        if (isPersistenceContext(session.getDefinition()) && (!isSessionAlreadyBound() || isCommitAndClearOnPause(context))) {
+        if (isPersistenceContext(session.getDefinition()) && (isCommitAndClearOnPause(context) || !isSessionAlreadyBound())) {
             super.sessionEnded(context, session, outcome, output);
         }
     }
@@ -139,6 +154,12 @@ public class SessionAwareHibernateFlowExecutionListener extends HibernateFlowExe
     @Override
     public void paused(RequestContext context) {
         if (log.isDebugEnabled()) log.debug("paused: Disconnecting Hibernate session");
+        if (entityReferenceCompactor != null) {
+            Session hibernateSession = findHibernateSession(context);
+            if (hibernateSession != null && hibernateSession.isOpen()) {
+                entityReferenceCompactor.compact(context, hibernateSession);
+            }
+        }
         if(isPersistenceContext(context.getActiveFlow())
            && isCommitAndClearOnPause(context)) {
             log.debug("paused: CommitAndClearPost");
@@ -150,52 +171,114 @@ public class SessionAwareHibernateFlowExecutionListener extends HibernateFlowExe
     }
 
     private void doCommitAndClearPre(RequestContext context) {
+        // left over when the previous request on this thread failed before pausing
+        flushStatistics.remove();
         // Create a new session
-        Session hibernateSession = createSession(context);
+        Session hibernateSession = sessionHolderAccessor.openSession(localSessionFactory, entityInterceptor);
+        hibernateSession.setFlushMode(FlushMode.MANUAL);
+        FlowPersistencePolicy policy = getRootPolicy(context);
+        if (policy.isReadOnly()) {
+            setReadOnly(hibernateSession);
+        }
+        else {
+            applyJdbcBatchSize(hibernateSession, policy);
+            if (log.isDebugEnabled() || (flowMetrics != null && flowMetrics.isEnabled())) {
+                FlushStatistics statistics = new FlushStatistics();
+                if (sessionHolderAccessor.addFlushStatistics(hibernateSession, statistics)) {
+                    flushStatistics.set(statistics);
+                }
+            }
+        }
         // Set it up
         setHibernateSession(context.getFlowExecutionContext().getActiveSession(), new SessionTransientWrapper(hibernateSession));
         // Bind it
-        bind(hibernateSession);
+        sessionHolderAccessor.bind(localSessionFactory, hibernateSession);
     }
 
     private void doCommitAndClearPost(RequestContext context) {
-        // Ok, this is OSIV - so we need to commit any changes which were made...
-        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        // Ok, this is OSIV - so we need to commit any changes which were made, a read-only transaction does not flush
+        TransactionTemplate template = getRootPolicy(context).isReadOnly() ? readOnlyTransactionTemplate : transactionTemplate;
+        FlushStatistics statistics = flushStatistics.get();
+        flushStatistics.remove();
+        long start = System.nanoTime();
+        template.execute(new TransactionCallbackWithoutResult() {
             protected void doInTransactionWithoutResult(TransactionStatus status) {
-                if (hibernate3Present) {
-                    ReflectionUtils.invokeMethod(currentSessionMethod, localSessionFactory);
-                }
-                else {
-                    localSessionFactory.getCurrentSession();
-                }
+                sessionHolderAccessor.getCurrentSession(localSessionFactory);
                 // nothing to do; a flush will happen on commit automatically as this is a read-write
                 // transaction
             }
         });
+        if (statistics != null) {
+            flushCompleted(context, statistics, System.nanoTime() - start);
+        }
         // Unbind the session, disconnect and then close
         Session session = getBoundHibernateSession(context.getFlowExecutionContext().getActiveSession());
-        unbind(session);
+        sessionHolderAccessor.unbind(localSessionFactory);
         // Remove it from the flow
         context.getFlowScope().remove(PERSISTENCE_CONTEXT_ATTRIBUTE);
         // Close it
-        ReflectionUtils.invokeMethod(closeSessionMethod, session);
+        sessionHolderAccessor.closeSession(session);
     }
 
     private Session getBoundHibernateSession(FlowSession session) {
         return (Session) session.getScope().get(PERSISTENCE_CONTEXT_ATTRIBUTE);
     }
 
+    private void flushCompleted(RequestContext context, FlushStatistics statistics, long nanos) {
+        String flowId = context.getFlowExecutionContext().getDefinition().getId();
+        if (log.isDebugEnabled()) {
+            log.debug("paused: Committed flow [" + flowId + "] in " + (nanos / 1000000d) + "ms: " + statistics);
+        }
+        if (flowMetrics != null) {
+            flowMetrics.flushCompleted(flowId, nanos, statistics.getStatements(), statistics.getBatches());
+        }
+    }
+
+    private void applyJdbcBatchSize(Session session, FlowPersistencePolicy policy) {
+        if (session == null || policy.getJdbcBatchSize() == 0) {
+            return;
+        }
+        if (!sessionHolderAccessor.setJdbcBatchSize(session, policy.getJdbcBatchSize()) && !jdbcBatchSizeWarned) {
+            jdbcBatchSizeWarned = true;
+            log.warn("The jdbcBatchSize flow attribute needs Hibernate 5.2 or later, the hibernate.jdbc.batch_size " +
+                    "setting of the session factory applies instead");
+        }
+    }
+
+    /**
+     * @return the Hibernate session of the active flow or of the nearest parent flow holding one
+     */
+    private Session findHibernateSession(RequestContext context) {
+        for (FlowSession session = context.getFlowExecutionContext().getActiveSession(); session != null; session = session.getParent()) {
+            Session hibernateSession = getBoundHibernateSession(session);
+            if (hibernateSession != null) {
+                return hibernateSession;
+            }
+        }
+        return null;
+    }
+
     private boolean isPersistenceContext(FlowDefinition flow) {
-        return flow.getAttributes().contains(PERSISTENCE_CONTEXT_ATTRIBUTE);
+        return FlowPersistencePolicy.forFlow(flow).isPersistenceContext();
     }
 
     private boolean isCommitAndClearOnPause(RequestContext context) {
-        // Find the root flow session and check if commit and clear on pause is set - if so, all children inherit that...
-        FlowSession flowSession = context.getFlowExecutionContext().getActiveSession();
-        while(flowSession != null && !flowSession.isRoot()) {
-            flowSession = flowSession.getParent();
+        // commit and clear on pause is set on the root flow, all children inherit it
+        return getRootPolicy(context).isCommitAndClearOnPause();
+    }
+
+    private FlowPersistencePolicy getRootPolicy(RequestContext context) {
+        return FlowPersistencePolicy.forFlow(context.getFlowExecutionContext().getDefinition());
+    }
+
+    /**
+     * Entities loaded by a read-only session keep no snapshot for dirty checking, and the session is never flushed.
+     */
+    private void setReadOnly(Session session) {
+        if (session != null) {
+            session.setFlushMode(FlushMode.MANUAL);
+            session.setDefaultReadOnly(true);
         }
-        return flowSession != null && flowSession.getDefinition().getAttributes().contains("commitAndClearOnPause");
     }
 
     private void obtainCurrentSession(RequestContext context) {
@@ -203,20 +286,7 @@ public class SessionAwareHibernateFlowExecutionListener extends HibernateFlowExe
         if (flowScope.get(PERSISTENCE_CONTEXT_ATTRIBUTE) != null) {
             return;
         }
-
-        Session session = null;
-        if(hibernate5Present) {
-            org.springframework.orm.hibernate5.SessionHolder sessionHolder = (org.springframework.orm.hibernate5.SessionHolder) TransactionSynchronizationManager.getResource(localSessionFactory);
-            if (sessionHolder != null) session = sessionHolder.getSession();
-        }
-        else if (hibernate3Present) {
-            org.springframework.orm.hibernate3.SessionHolder sessionHolder = (org.springframework.orm.hibernate3.SessionHolder) TransactionSynchronizationManager.getResource(localSessionFactory);
-            if (sessionHolder != null) session = sessionHolder.getSession();
-        } else {
-            SessionHolder sessionHolder = (SessionHolder) TransactionSynchronizationManager.getResource(localSessionFactory);  
-            if (sessionHolder != null) session = sessionHolder.getSession();
-       }
-        flowScope.put(PERSISTENCE_CONTEXT_ATTRIBUTE, session);
+        flowScope.put(PERSISTENCE_CONTEXT_ATTRIBUTE, sessionHolderAccessor.getBoundSession(localSessionFactory));
     }
 
     @Override
@@ -225,60 +295,27 @@ public class SessionAwareHibernateFlowExecutionListener extends HibernateFlowExe
         this.entityInterceptor = entityInterceptor;
     }
 
-    private Session createSession(RequestContext context) {
-        Session session;
-        if (entityInterceptor != null) {
-            if (hibernate3Present) {
-                try {
-                    session = (Session) openSessionWithInterceptorMethod.invoke(localSessionFactory, entityInterceptor);
-                } catch (IllegalAccessException ex) {
-                    throw new IllegalStateException("Unable to open Hibernate 3 session", ex);
-                } catch (InvocationTargetException ex) {
-                    throw new IllegalStateException("Unable to open Hibernate 3 session", ex);
-                }
-            } else {
-                session = localSessionFactory.withOptions().interceptor(entityInterceptor).openSession();
-            }
-        } else {
-            if (hibernate3Present) {
-                try {
-                    session = (Session) openSessionMethod.invoke(localSessionFactory);
-                } catch (IllegalAccessException ex) {
-                    throw new IllegalStateException("Unable to open Hibernate 3 session", ex);
-                } catch (InvocationTargetException ex) {
-                    throw new IllegalStateException("Unable to open Hibernate 3 session", ex);
-                }
-            }
-            else {
-                session = localSessionFactory.openSession();
-            }
-        }
-        session.setFlushMode(FlushMode.MANUAL);
-        return session;
-    }
-
-    private void setHibernateSession(FlowSession session, Session hibernateSession) {
-        session.getScope().put(PERSISTENCE_CONTEXT_ATTRIBUTE, hibernateSession);
+    /**
+     * Replaces unmodified persistent entities in flow and conversation scope by references while the flow is paused,
+     * so snapshots do not hold the entity graph.
+     *
+     * @see EntityReferenceCompactor
+     * @since 2.2
+     */
+    public void setCompactEntities(boolean compactEntities) {
+        this.entityReferenceCompactor = compactEntities ? new EntityReferenceCompactor(localSessionFactory) : null;
     }
 
-    private void bind(Session session) {
-        Object sessionHolder;
-        if (hibernate3Present) {
-            sessionHolder = new org.springframework.orm.hibernate3.SessionHolder(session);
-        }
-        else if (hibernate5Present) {
-            sessionHolder = new org.springframework.orm.hibernate5.SessionHolder(session);
-        }
-        else {
-            sessionHolder = new SessionHolder(session);
-        }
-        TransactionSynchronizationManager.bindResource(localSessionFactory, sessionHolder);
+    /**
+     * @param flowMetrics publishes the time and JDBC statements of the commit made when a commitAndClearOnPause flow
+     *                    pauses
+     * @since 2.2
+     */
+    public void setFlowMetrics(FlowMetricsExecutionListener flowMetrics) {
+        this.flowMetrics = flowMetrics;
     }
 
-    private void unbind(Session session) {
-        if (TransactionSynchronizationManager.hasResource(localSessionFactory)) {
-            TransactionSynchronizationManager.unbindResource(localSessionFactory);
-        }
+    private void setHibernateSession(FlowSession session, Session hibernateSession) {
+        session.getScope().put(PERSISTENCE_CONTEXT_ATTRIBUTE, hibernateSession);
     }
-
 }
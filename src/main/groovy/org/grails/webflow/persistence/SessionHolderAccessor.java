@@ -0,0 +1,260 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.persistence;
+
+import org.hibernate.Interceptor;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.resource.jdbc.spi.JdbcSessionOwner;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+
+/**
+ * Opens, binds and closes Hibernate sessions with the Spring ORM support matching the Hibernate version on the
+ * classpath, which is detected once rather than on every flow execution callback.
+ *
+ * @since 2.2
+ */
+public abstract class SessionHolderAccessor {
+
+    private static final MethodHandle CLOSE_SESSION = methodHandle(Session.class, "close");
+
+    /** Session.setJdbcBatchSize(Integer) exists since Hibernate 5.2, before the batch size is a session factory setting */
+    private static final MethodHandle SET_JDBC_BATCH_SIZE = optionalMethodHandle(Session.class, "setJdbcBatchSize", Integer.class);
+
+    private static final boolean SESSION_EVENT_LISTENERS =
+            ClassUtils.isPresent("org.hibernate.SessionEventListener", SessionHolderAccessor.class.getClassLoader());
+
+    private static final SessionHolderAccessor INSTANCE = create(SessionHolderAccessor.class.getClassLoader());
+
+    /**
+     * @return the accessor for the Hibernate version on the classpath
+     */
+    public static SessionHolderAccessor get() {
+        return INSTANCE;
+    }
+
+    static SessionHolderAccessor create(ClassLoader classLoader) {
+        if (ClassUtils.isPresent("org.hibernate.connection.ConnectionProvider", classLoader)) {
+            return new Hibernate3SessionHolderAccessor();
+        }
+        if (ClassUtils.isPresent("org.hibernate.boot.model.naming.PhysicalNamingStrategy", classLoader)) {
+            return new Hibernate5SessionHolderAccessor();
+        }
+        return new Hibernate4SessionHolderAccessor();
+    }
+
+    /**
+     * @return the session bound to the current thread for the given session factory, or null
+     */
+    public abstract Session getBoundSession(SessionFactory sessionFactory);
+
+    public abstract void bind(SessionFactory sessionFactory, Session session);
+
+    public void unbind(SessionFactory sessionFactory) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(sessionFactory);
+    }
+
+    /**
+     * @param interceptor the entity interceptor, or null
+     */
+    public abstract Session openSession(SessionFactory sessionFactory, Interceptor interceptor);
+
+    /**
+     * Joins the current session to the transaction in progress.
+     */
+    public abstract void getCurrentSession(SessionFactory sessionFactory);
+
+    /**
+     * Session.close() returns a Connection before Hibernate 5.2 and nothing since, so it is called through a handle
+     * that works with either.
+     */
+    public void closeSession(Session session) {
+        try {
+            CLOSE_SESSION.invoke(session);
+        }
+        catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Sets the JDBC batch size of a session or stateless session, when the Hibernate version on the classpath
+     * supports it.
+     *
+     * @return whether the batch size was set
+     */
+    public boolean setJdbcBatchSize(Object session, int jdbcBatchSize) {
+        if (SET_JDBC_BATCH_SIZE == null) {
+            return false;
+        }
+        invoke(SET_JDBC_BATCH_SIZE, session, jdbcBatchSize);
+        return true;
+    }
+
+    /**
+     * Executes the JDBC batch of inserts, updates or deletes a session or stateless session still holds. A stateless
+     * session opened on a connection it does not own releases the batch unexecuted when it is closed.
+     */
+    public void executeBatch(Object session) {
+        // Hibernate 4: SessionImplementor.getTransactionCoordinator().getJdbcCoordinator()
+        Object transactionCoordinator = invokeMethod(session, "getTransactionCoordinator");
+        invokeMethod(invokeMethod(transactionCoordinator, "getJdbcCoordinator"), "executeBatch");
+    }
+
+    /**
+     * Registers a listener of the flushes and JDBC statements of a session, which is only possible since Hibernate 4.3.
+     *
+     * @return whether the listener was registered
+     */
+    public boolean addFlushStatistics(Session session, FlushStatistics statistics) {
+        if (!SESSION_EVENT_LISTENERS) {
+            return false;
+        }
+        session.addEventListeners(statistics);
+        return true;
+    }
+
+    static MethodHandle optionalMethodHandle(Class<?> type, String name, Class<?>... parameterTypes) {
+        return ReflectionUtils.findMethod(type, name, parameterTypes) != null ? methodHandle(type, name, parameterTypes) : null;
+    }
+
+    static MethodHandle methodHandle(Class<?> type, String name, Class<?>... parameterTypes) {
+        Method method = ReflectionUtils.findMethod(type, name, parameterTypes);
+        try {
+            return MethodHandles.publicLookup().unreflect(method);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to access method [" + name + "] of " + type, e);
+        }
+    }
+
+    static Object invoke(MethodHandle handle, Object... args) {
+        try {
+            return handle.invokeWithArguments(args);
+        }
+        catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object invokeMethod(Object target, String methodName) {
+        Method method = ReflectionUtils.findMethod(target.getClass(), methodName);
+        if (method == null) {
+            throw new IllegalStateException("No method [" + methodName + "] on " + target.getClass());
+        }
+        ReflectionUtils.makeAccessible(method);
+        return ReflectionUtils.invokeMethod(method, target);
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+
+    static class Hibernate5SessionHolderAccessor extends SessionHolderAccessor {
+
+        public Session getBoundSession(SessionFactory sessionFactory) {
+            org.springframework.orm.hibernate5.SessionHolder sessionHolder =
+                    (org.springframework.orm.hibernate5.SessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+            return sessionHolder != null ? sessionHolder.getSession() : null;
+        }
+
+        public void bind(SessionFactory sessionFactory, Session session) {
+            TransactionSynchronizationManager.bindResource(sessionFactory, new org.springframework.orm.hibernate5.SessionHolder(session));
+        }
+
+        public Session openSession(SessionFactory sessionFactory, Interceptor interceptor) {
+            return interceptor != null ? sessionFactory.withOptions().interceptor(interceptor).openSession() : sessionFactory.openSession();
+        }
+
+        public void getCurrentSession(SessionFactory sessionFactory) {
+            sessionFactory.getCurrentSession();
+        }
+
+        @Override
+        public void executeBatch(Object session) {
+            ((JdbcSessionOwner) session).getJdbcCoordinator().executeBatch();
+        }
+    }
+
+    static class Hibernate4SessionHolderAccessor extends SessionHolderAccessor {
+
+        public Session getBoundSession(SessionFactory sessionFactory) {
+            org.springframework.orm.hibernate4.SessionHolder sessionHolder =
+                    (org.springframework.orm.hibernate4.SessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+            return sessionHolder != null ? sessionHolder.getSession() : null;
+        }
+
+        public void bind(SessionFactory sessionFactory, Session session) {
+            TransactionSynchronizationManager.bindResource(sessionFactory, new org.springframework.orm.hibernate4.SessionHolder(session));
+        }
+
+        public Session openSession(SessionFactory sessionFactory, Interceptor interceptor) {
+            return interceptor != null ? sessionFactory.withOptions().interceptor(interceptor).openSession() : sessionFactory.openSession();
+        }
+
+        public void getCurrentSession(SessionFactory sessionFactory) {
+            sessionFactory.getCurrentSession();
+        }
+    }
+
+    /**
+     * Hibernate 3 is not binary compatible with the API the plugin is compiled against, so its methods are called
+     * through handles looked up once.
+     */
+    static class Hibernate3SessionHolderAccessor extends SessionHolderAccessor {
+
+        private final MethodHandle openSession = methodHandle(SessionFactory.class, "openSession");
+        private final MethodHandle openSessionWithInterceptor = methodHandle(SessionFactory.class, "openSession", Interceptor.class);
+        private final MethodHandle currentSession = methodHandle(SessionFactory.class, "getCurrentSession");
+
+        public Session getBoundSession(SessionFactory sessionFactory) {
+            org.springframework.orm.hibernate3.SessionHolder sessionHolder =
+                    (org.springframework.orm.hibernate3.SessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+            return sessionHolder != null ? sessionHolder.getSession() : null;
+        }
+
+        public void bind(SessionFactory sessionFactory, Session session) {
+            TransactionSynchronizationManager.bindResource(sessionFactory, new org.springframework.orm.hibernate3.SessionHolder(session));
+        }
+
+        public Session openSession(SessionFactory sessionFactory, Interceptor interceptor) {
+            if (interceptor != null) {
+                return (Session) invoke(openSessionWithInterceptor, sessionFactory, interceptor);
+            }
+            return (Session) invoke(openSession, sessionFactory);
+        }
+
+        public void getCurrentSession(SessionFactory sessionFactory) {
+            invoke(currentSession, sessionFactory);
+        }
+
+        @Override
+        public void executeBatch(Object session) {
+            invokeMethod(invokeMethod(session, "getBatcher"), "executeBatch");
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.persistence;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.jdbc.ReturningWork;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Runs bulk inserts, updates and deletes from flow actions through a Hibernate {@link StatelessSession}, which keeps
+ * no persistence context and writes each entity straight away, batched by the JDBC batch size. The stateless session
+ * shares the connection and transaction of the current Hibernate session, so in a flow with a persistence context the
+ * bulk writes commit in the same transaction. Pending changes of the flow's session are not flushed first, the
+ * entities written are not attached to it and the entities it already holds are not refreshed.
+ *
+ * <pre>
+ * webFlowBulkOperations.execute({ StatelessSession session ->
+ *     rows.each { session.insert(new Line(it)) }
+ * } as StatelessSessionCallback)
+ * </pre>
+ *
+ * @since 2.2
+ */
+public class StatelessBulkOperations {
+
+    public static final String BEAN_NAME = "webFlowBulkOperations";
+
+    private final SessionFactory sessionFactory;
+    private final TransactionTemplate transactionTemplate;
+    private final SessionHolderAccessor sessionHolderAccessor = SessionHolderAccessor.get();
+    private int jdbcBatchSize;
+
+    public StatelessBulkOperations(SessionFactory sessionFactory, PlatformTransactionManager transactionManager) {
+        this.sessionFactory = sessionFactory;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * @param jdbcBatchSize the JDBC batch size of the stateless sessions, applied with Hibernate 5.2 or later;
+     *                      0 uses the session factory setting
+     */
+    public void setJdbcBatchSize(int jdbcBatchSize) {
+        this.jdbcBatchSize = jdbcBatchSize;
+    }
+
+    /**
+     * Runs the callback in the transaction in progress, or in a new one.
+     */
+    public <T> T execute(final StatelessSessionCallback<T> callback) {
+        return transactionTemplate.execute(new TransactionCallback<T>() {
+            public T doInTransaction(TransactionStatus status) {
+                Session session = sessionFactory.getCurrentSession();
+                return session.doReturningWork(new ReturningWork<T>() {
+                    public T execute(Connection connection) throws SQLException {
+                        StatelessSession statelessSession = sessionFactory.openStatelessSession(connection);
+                        try {
+                            if (jdbcBatchSize > 0) {
+                                sessionHolderAccessor.setJdbcBatchSize(statelessSession, jdbcBatchSize);
+                            }
+                            T result = callback.doInStatelessSession(statelessSession);
+                            // closing the session would release the last batch rather than execute it
+                            sessionHolderAccessor.executeBatch(statelessSession);
+                            return result;
+                        }
+                        finally {
+                            statelessSession.close();
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,27 @@
+/* Copyright 2004-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.grails.webflow.persistence;
+
+import org.hibernate.StatelessSession;
+
+/**
+ * Work done with a Hibernate {@link StatelessSession} by {@link StatelessBulkOperations}.
+ *
+ * @since 2.2
+ */
+public interface StatelessSessionCallback<T> {
+
+    T doInStatelessSession(StatelessSession session);
+}
@@ -2,14 +2,32 @@ package webflow
 
 import grails.core.GrailsControllerClass
 import grails.plugins.*
+import grails.util.Environment
 import grails.web.UrlConverter
 import grails.web.mapping.UrlMappingsHolder
 import org.grails.core.util.ClassPropertyFetcher
 import org.grails.webflow.FlowAwareDefaultRequestStateLookupStrategy
+import org.grails.webflow.ajax.AjaxFlowExecutionKeyCaching
 import org.grails.webflow.ajax.AjaxWebFlowFixBeanPostProcessor
+import org.grails.webflow.ajax.ExecutionParameterAccessor
 import org.grails.webflow.context.servlet.GrailsFlowUrlHandler
+import org.grails.webflow.conversation.OffHeapConversationManager
+import org.grails.webflow.conversation.OffHeapConversationStore
+import org.grails.webflow.conversation.StripedLockConversationManager
 import org.grails.webflow.engine.builder.FlowBuilder
+import org.grails.webflow.engine.builder.FlowClosureFingerprints
+import org.grails.webflow.engine.builder.FlowCommandObjectDataBinder
+import org.grails.webflow.engine.builder.FlowDefinitionModel
+import org.grails.webflow.engine.builder.FlowDefinitionWarmUp
+import org.grails.webflow.engine.builder.ScopeChangeTracker
+import org.grails.webflow.engine.builder.StaticFlowBuilder
+import org.grails.webflow.engine.builder.TimedFlowHolder
 import org.grails.webflow.execution.GrailsFlowExecutorImpl
+import org.grails.webflow.execution.repository.UnchangedSnapshotDetector
+import org.grails.webflow.execution.repository.snapshot.CompactFlowExecutionSnapshotFactory
+import org.grails.webflow.execution.repository.snapshot.DeltaFlowExecutionSnapshotFactory
+import org.grails.webflow.metrics.FlowMetricsExecutionListener
+import org.grails.webflow.mvc.servlet.FlowExecutionTaskExecutorFactoryBean
 import org.grails.webflow.mvc.servlet.GrailsFlowHandlerAdapter
 import org.grails.webflow.mvc.servlet.GrailsFlowHandlerMapping
 import org.grails.webflow.scope.ScopeRegistrar
@@ -17,6 +35,7 @@ import org.springframework.beans.factory.FactoryBean
 import org.springframework.binding.convert.service.DefaultConversionService
 import org.springframework.context.ApplicationContext
 import org.springframework.expression.spel.standard.SpelExpressionParser
+import org.springframework.webflow.conversation.Conversation
 import org.springframework.webflow.conversation.ConversationManager
 import org.springframework.webflow.conversation.impl.SessionBindingConversationManager
 import org.springframework.webflow.core.collection.LocalAttributeMap
@@ -25,15 +44,17 @@ import org.springframework.webflow.definition.registry.FlowDefinitionLocator
 import org.springframework.webflow.definition.registry.FlowDefinitionRegistry
 import org.springframework.webflow.definition.registry.FlowDefinitionRegistryImpl
 import org.springframework.webflow.engine.RequestControlContext
-import org.springframework.webflow.engine.builder.DefaultFlowHolder
 import org.springframework.webflow.engine.builder.FlowAssembler
 import org.springframework.webflow.engine.builder.support.FlowBuilderServices
 import org.springframework.webflow.engine.impl.FlowExecutionImplFactory
+import org.springframework.webflow.execution.FlowExecution
 import org.springframework.webflow.execution.FlowExecutionFactory
 import org.springframework.webflow.execution.FlowExecutionKey
 import org.springframework.webflow.execution.repository.BadlyFormattedFlowExecutionKeyException
 import org.springframework.webflow.execution.repository.FlowExecutionRepositoryException
 import org.springframework.webflow.execution.repository.impl.DefaultFlowExecutionRepository
+import org.springframework.webflow.execution.repository.support.CompositeFlowExecutionKey
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot
 import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshotFactory
 import org.springframework.webflow.execution.repository.snapshot.SerializedFlowExecutionSnapshotFactory
 import org.springframework.webflow.expression.spel.WebFlowSpringELExpressionParser
@@ -42,6 +63,11 @@ import org.springframework.webflow.mvc.builder.MvcViewFactoryCreator
 import java.beans.PropertyDescriptor
 import java.lang.reflect.Method
 import java.lang.reflect.Modifier
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
 class WebflowGrailsPlugin extends Plugin {
 
@@ -64,6 +90,8 @@ Brief summary/description of the plugin.
 '''
     def profiles = ['web']
 
+    private FlowDefinitionWarmUp flowDefinitionWarmUp
+
     // URL to the plugin's documentation
     def documentation = "http://grails-plugins.github.io/grails-webflow-plugin/"
 
@@ -117,6 +145,10 @@ Brief summary/description of the plugin.
             flowHandlerMapping(GrailsFlowHandlerMapping, ref("grailsUrlMappingsHolder")) {
                 // Run slightly higher precedence than the default UrlHandlerMapping - is this correct?
                 order = -6
+                def resolutionCacheSizeValue = config?.grails?.plugin?.springwebflow?.flowResolutionCacheSize
+                if (resolutionCacheSizeValue) {
+                    resolutionCacheSize = resolutionCacheSizeValue as int
+                }
             }
             //conversationService(WebflowDefaultConversionService)
             sep(SpelExpressionParser)
@@ -131,14 +163,32 @@ Brief summary/description of the plugin.
             flowRegistry(FlowDefinitionRegistryImpl)
 
             flowScopeRegistrar(ScopeRegistrar)
+            flowCommandObjectDataBinder(FlowCommandObjectDataBinder)
+            flowClosureFingerprints(FlowClosureFingerprints)
+
+            // Flow metrics through the actuator counter and gauge services
+            boolean metricsEnabled = config?.grails?.plugin?.springwebflow?.metrics?.enabled ?: false
+            if (metricsEnabled) {
+                flowMetricsExecutionListener(FlowMetricsExecutionListener, true, ref("counterService"), ref("gaugeService"))
+            }
+            else {
+                flowMetricsExecutionListener(FlowMetricsExecutionListener, false, null, null)
+            }
 
             // TODO: Was springConfig.containsBean("sessionFactory") but this seems to cause issues under 3.2.x, so
             //       temporarily changed - need to check this actually works as currently untested with databases
             boolean configureHibernateListener = true
             if (configureHibernateListener) {
                 try {
-                    webFlowHibernateConversationListener(org.grails.webflow.persistence.SessionAwareHibernateFlowExecutionListener, ref("sessionFactory"), ref("transactionManager"))
-                    webFlowExecutionListenerLoader(AjaxWebFlowFixBeanPostProcessor.StaticFlowExecutionListenerLoader, ref("ajaxFixFlowExecutionListener"), ref("webFlowHibernateConversationListener"))
+                    webFlowHibernateConversationListener(org.grails.webflow.persistence.SessionAwareHibernateFlowExecutionListener, ref("sessionFactory"), ref("transactionManager")) {
+                        compactEntities = config?.grails?.plugin?.springwebflow?.compactEntities ?: false
+                        flowMetrics = ref("flowMetricsExecutionListener")
+                    }
+                    webFlowBulkOperations(org.grails.webflow.persistence.StatelessBulkOperations, ref("sessionFactory"), ref("transactionManager")) {
+                        jdbcBatchSize = (config?.grails?.plugin?.springwebflow?.bulkJdbcBatchSize ?: 0) as int
+                    }
+                    webFlowExecutionListenerLoader(AjaxWebFlowFixBeanPostProcessor.StaticFlowExecutionListenerLoader,
+                            [ref("ajaxFixFlowExecutionListener"), ref("flowMetricsExecutionListener"), ref("webFlowHibernateConversationListener")])
                 }
                 catch (MissingPropertyException mpe) {
                     // no session factory, this is ok
@@ -154,14 +204,68 @@ Brief summary/description of the plugin.
                 }
             }
 
-            conversationManager(SessionBindingConversationManager)
+            // Allow conversation state to be kept outside of the HttpSession, either in direct buffers
+            // ('offHeap') or in a memory mapped file ('mapped').
+            def conversationStoreType = config?.grails?.plugin?.springwebflow?.conversationStore ?: 'session'
+            boolean stripedConversationLocks = config?.grails?.plugin?.springwebflow?.conversationLocking == 'striped'
+            String conversationManagerName = stripedConversationLocks ? 'conversationManagerTarget' : 'conversationManager'
+            if (conversationStoreType in ['offHeap', 'mapped']) {
+                int storeCapacity = (config?.grails?.plugin?.springwebflow?.conversationStoreCapacity ?: 64 * 1024 * 1024) as int
+                int storeBlockSize = (config?.grails?.plugin?.springwebflow?.conversationStoreBlockSize ?: OffHeapConversationStore.DEFAULT_BLOCK_SIZE) as int
+                if (conversationStoreType == 'mapped') {
+                    String storeFile = config?.grails?.plugin?.springwebflow?.conversationStoreFile
+                    if (!storeFile) {
+                        // closing the store deletes the file; this covers a JVM that exits without closing it
+                        File tempFile = File.createTempFile("webflow-conversations", ".dat")
+                        tempFile.deleteOnExit()
+                        storeFile = tempFile.absolutePath
+                    }
+                    conversationStore(OffHeapConversationStore, storeCapacity, storeBlockSize, storeFile) { bean ->
+                        bean.destroyMethod = 'close'
+                    }
+                }
+                else {
+                    conversationStore(OffHeapConversationStore, storeCapacity, storeBlockSize) { bean ->
+                        bean.destroyMethod = 'close'
+                    }
+                }
+                def maxConversationsValue = config?.grails?.plugin?.springwebflow?.maxConversations ?: 5
+                "$conversationManagerName"(OffHeapConversationManager, ref("conversationStore")) {
+                    maxConversations = maxConversationsValue
+                    lockTimeoutSeconds = (config?.grails?.plugin?.springwebflow?.conversationLockTimeout ?: 30) as int
+                }
+            }
+            else {
+                "$conversationManagerName"(SessionBindingConversationManager)
+            }
+            // Let render-only requests into the same conversation run concurrently
+            if (stripedConversationLocks) {
+                conversationManager(StripedLockConversationManager, ref("conversationManagerTarget"),
+                        (config?.grails?.plugin?.springwebflow?.conversationLockStripes ?: 256) as int) {
+                    lockTimeoutSeconds = (config?.grails?.plugin?.springwebflow?.conversationLockTimeout ?: 30) as int
+                    flowMetrics = ref("flowMetricsExecutionListener")
+                }
+            }
 
             // Allow the snapshot factory class to be changed according to configuration.
             def snapshotFactoryClazz = config?.grails?.plugin?.springwebflow?.flowExecutionSnapshotFactoryClazz
             def snapshotFactoryClazzAttrs = config?.grails?.plugin?.springwebflow?.flowExecutionSnapshotFactoryClazzAttrs ?: [:]
             def maxSnapshotsValue = config?.grails?.plugin?.springwebflow?.maxSnapshots ?: 30
             if (!(snapshotFactoryClazz instanceof Class)) {
-                snapshotFactoryClazz = SerializedFlowExecutionSnapshotFactory
+                // 'delta' keeps one full snapshot per flow execution plus the changes made at each later pause,
+                // 'classIds' writes registered classes by id rather than with full JDK class descriptors, which
+                // makes the snapshots smaller but not faster to write or read
+                def snapshotMode = config?.grails?.plugin?.springwebflow?.flowExecutionSnapshotMode ?: 'serialized'
+                switch (snapshotMode) {
+                    case 'delta':
+                        snapshotFactoryClazz = DeltaFlowExecutionSnapshotFactory
+                        break
+                    case 'classIds':
+                        snapshotFactoryClazz = CompactFlowExecutionSnapshotFactory
+                        break
+                    default:
+                        snapshotFactoryClazz = SerializedFlowExecutionSnapshotFactory
+                }
             }
             //
             flowExecutionSnapshotFactory(FlowExecutionSnapshotFactoryFactory) {
@@ -170,14 +274,41 @@ Brief summary/description of the plugin.
                 flowDefinitionLocator = ref("flowRegistry")
                 otherAttrs = snapshotFactoryClazzAttrs
             }
+            // Reuse the previous snapshot when a pause finds the flow, view and flash scopes unchanged
+            boolean skipUnchangedSnapshots = config?.grails?.plugin?.springwebflow?.skipUnchangedSnapshots ?: false
+            if (skipUnchangedSnapshots) {
+                unchangedSnapshotDetector(UnchangedSnapshotDetector)
+            }
             flowExecutionRepository(CustomFlowExecutionRepository, conversationManager, flowExecutionSnapshotFactory) {
                 maxSnapshots = maxSnapshotsValue
+                if (skipUnchangedSnapshots) {
+                    unchangedSnapshotDetector = ref("unchangedSnapshotDetector")
+                }
+                if (metricsEnabled) {
+                    flowMetricsListener = ref("flowMetricsExecutionListener")
+                }
             }
             flowExecutor(GrailsFlowExecutorImpl, flowRegistry, flowExecutionFactory, flowExecutionRepository)
 
+            // Run flow requests off the container threads through Servlet async processing
+            def asyncConfig = config?.grails?.plugin?.springwebflow?.async
+            boolean asyncEnabled = asyncConfig?.enabled ?: false
+            if (asyncEnabled && !asyncConfig?.executor) {
+                flowExecutionTaskExecutor(FlowExecutionTaskExecutorFactoryBean) {
+                    poolSize = (asyncConfig?.poolSize ?: 50) as int
+                    queueCapacity = (asyncConfig?.queueCapacity ?: 100) as int
+                    virtualThreads = asyncConfig?.virtualThreads ?: false
+                }
+            }
             mainFlowController(GrailsFlowHandlerAdapter) {
                 flowExecutor = flowExecutor
                 flowUrlHandler = { GrailsFlowUrlHandler uh -> }
+                if (asyncEnabled) {
+                    asyncExecutor = ref(asyncConfig?.executor ?: "flowExecutionTaskExecutor")
+                    if (asyncConfig?.timeout) {
+                        asyncTimeout = asyncConfig.timeout as Long
+                    }
+                }
             }
         }
     }
@@ -190,6 +321,21 @@ Brief summary/description of the plugin.
         def appCtx = getApplicationContext()
         FlowExecutionFactory flowExecutionFactory = appCtx.getBean("flowExecutionFactory")
         flowExecutionFactory.executionKeyFactory = appCtx.getBean("flowExecutionRepository")
+
+        // Assemble flows ahead of their first request, in the background
+        boolean warmUpFlows = config?.grails?.plugin?.springwebflow?.warmUpFlows ?: false
+        if (warmUpFlows) {
+            int warmUpThreads = (config?.grails?.plugin?.springwebflow?.warmUpThreads ?: 2) as int
+            flowDefinitionWarmUp = new FlowDefinitionWarmUp(appCtx.getBean("flowRegistry", FlowDefinitionRegistry), warmUpThreads)
+            flowDefinitionWarmUp.start()
+        }
+    }
+
+    /**
+     * @return the warm-up started when grails.plugin.springwebflow.warmUpFlows is set, which reports per-flow build times
+     */
+    FlowDefinitionWarmUp getFlowDefinitionWarmUp() {
+        flowDefinitionWarmUp
     }
 
     /**
@@ -209,8 +355,18 @@ Brief summary/description of the plugin.
         UrlConverter urlConverter = appCtx.getBean(UrlConverter)
 
         // Find instances of ...Flow closures in the controller
-        for (GrailsControllerClass c in application.controllerClasses) {
-            registerFlowsForController(appCtx, c, grailsUrlMappingsHolder)
+        boolean parallelFlowDiscovery = config?.grails?.plugin?.springwebflow?.parallelFlowDiscovery ?: false
+        if (parallelFlowDiscovery) {
+            Map<GrailsControllerClass, Map<String, Closure>> discovered = discoverFlowsInParallel(appCtx, application.controllerClasses as List)
+            // registration is left on this thread as the flow registry is not thread safe
+            for (entry in discovered) {
+                registerFlows(appCtx, entry.key, entry.value)
+            }
+        }
+        else {
+            for (GrailsControllerClass c in application.controllerClasses) {
+                registerFlowsForController(appCtx, c, grailsUrlMappingsHolder)
+            }
         }
 
         RequestControlContext.metaClass.getFlow = { -> delegate.flowScope }
@@ -224,20 +380,33 @@ Brief summary/description of the plugin.
             def result = null
             if (mp) result = mp.getProperty(delegate)
             else {
+                ScopeChangeTracker.touched(name)
                 result = delegate.get(name)
             }
             result
         }
         MutableAttributeMap.metaClass.setProperty = { String name, value ->
+            UnchangedSnapshotDetector.markScopeModified()
             def mp = delegate.class.metaClass.getMetaProperty(name)
             if (mp) mp.setProperty(delegate, value)
             else {
+                ScopeChangeTracker.touched(name)
                 delegate.put(name, value)
             }
         }
-        MutableAttributeMap.metaClass.clear = {-> delegate.asMap().clear() }
-        MutableAttributeMap.metaClass.getAt = { String key -> delegate.get(key) }
-        MutableAttributeMap.metaClass.putAt = { String key, value -> delegate.put(key,value) }
+        MutableAttributeMap.metaClass.clear = {->
+            UnchangedSnapshotDetector.markScopeModified()
+            delegate.asMap().clear()
+        }
+        MutableAttributeMap.metaClass.getAt = { String key ->
+            ScopeChangeTracker.touched(key)
+            delegate.get(key)
+        }
+        MutableAttributeMap.metaClass.putAt = { String key, value ->
+            UnchangedSnapshotDetector.markScopeModified()
+            ScopeChangeTracker.touched(key)
+            delegate.put(key,value)
+        }
     }
 
     /**
@@ -254,6 +423,22 @@ Brief summary/description of the plugin.
             return
         }
 
+        // only the flows whose closure classes changed are rebuilt, the others keep their definitions and executions
+        Map<String, Closure> flows = discoverFlows(appCtx, controller)
+        FlowClosureFingerprints fingerprints = appCtx.getBean(FlowClosureFingerprints.BEAN_NAME, FlowClosureFingerprints)
+        Set<String> changedFlows = new HashSet<>()
+        for (flow in flows) {
+            if (fingerprints.update(flowIdFor(controller, flow.key), flow.value)) {
+                changedFlows << flow.key
+            }
+        }
+        if (!changedFlows) {
+            log.debug "No flows of controller [${controller.name}] changed"
+            registerFlows(appCtx, controller, flows, changedFlows)
+            return
+        }
+        log.debug "Rebuilding flows ${changedFlows} of controller [${controller.name}]"
+
         def controllerClass = controller.clazz
         def registry = GroovySystem.metaClassRegistry
         def currentMetaClass = registry.getMetaClass(controllerClass)
@@ -263,7 +448,7 @@ Brief summary/description of the plugin.
             // in order to configure itself correctly
             registry.removeMetaClass controllerClass
             controller.getReference().getWrappedInstance().metaClass = registry.getMetaClass(controllerClass)
-            registerFlowsForController(appCtx, controllerClass)
+            registerFlows(appCtx, controller, flows, changedFlows)
         }
         finally {
             registry.setMetaClass controllerClass, currentMetaClass
@@ -282,12 +467,35 @@ Brief summary/description of the plugin.
 
 
     private static void registerFlowsForController(appCtx, GrailsControllerClass c, UrlMappingsHolder grailsUrlMappingsHolder) {
-        GrailsFlowHandlerMapping grailsFlowHandlerMapping = appCtx.getBean(GrailsFlowHandlerMapping)
-        UrlConverter urlConverter = appCtx.getBean(UrlConverter)
+        registerFlows(appCtx, c, discoverFlows(appCtx, c))
+    }
 
-        // Clear any old mappings...
-        grailsFlowHandlerMapping.clearFlows(c)
+    private static Map<GrailsControllerClass, Map<String, Closure>> discoverFlowsInParallel(appCtx, List<GrailsControllerClass> controllerClasses) {
+        int threads = Math.min(Runtime.runtime.availableProcessors(), Math.max(1, controllerClasses.size()))
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+        try {
+            Map<GrailsControllerClass, Future<Map<String, Closure>>> futures = new LinkedHashMap<>()
+            for (GrailsControllerClass c in controllerClasses) {
+                GrailsControllerClass controllerClass = c
+                futures.put(c, executor.submit({ -> discoverFlows(appCtx, controllerClass) } as Callable<Map<String, Closure>>))
+            }
+            Map<GrailsControllerClass, Map<String, Closure>> discovered = new LinkedHashMap<>()
+            for (entry in futures) {
+                try {
+                    discovered.put(entry.key, entry.value.get())
+                }
+                catch (ExecutionException e) {
+                    throw e.cause
+                }
+            }
+            return discovered
+        }
+        finally {
+            executor.shutdown()
+        }
+    }
 
+    private static Map<String, Closure> discoverFlows(appCtx, GrailsControllerClass c) {
         Map<String, Closure> flows = [:]
         final String FLOW_SUFFIX = "Flow"
         ClassPropertyFetcher classPropertyFetcher = ClassPropertyFetcher.forClass(c.clazz)
@@ -304,16 +512,56 @@ Brief summary/description of the plugin.
                 }
             }
         }
-        // Register the flows...
+        flows
+    }
+
+    private static String flowIdFor(GrailsControllerClass c, String closureName) {
+        c.logicalPropertyName + "/" + closureName.substring(0, closureName.length() - "Flow".length())
+    }
+
+    /**
+     * Registers the given flows of a controller, replacing those registered before.
+     *
+     * @param rebuild the names of the flow closures to build again, or null to build all of them. Flows outside
+     * this set keep their existing definition unless the registry does not have one
+     */
+    private static void registerFlows(appCtx, GrailsControllerClass c, Map<String, Closure> flows, Set<String> rebuild = null) {
+        GrailsFlowHandlerMapping grailsFlowHandlerMapping = appCtx.getBean(GrailsFlowHandlerMapping)
+        GrailsFlowExecutorImpl flowExecutor = appCtx.getBean("flowExecutor", GrailsFlowExecutorImpl)
+        FlowClosureFingerprints fingerprints = appCtx.getBean(FlowClosureFingerprints.BEAN_NAME, FlowClosureFingerprints)
+        FlowDefinitionRegistry flowRegistry = appCtx.flowRegistry
+        boolean reloadEnabled = Environment.current.reloadEnabled
+
+        // Clear any old mappings...
+        grailsFlowHandlerMapping.clearFlows(c)
+        flowExecutor.clearFlowDefinitionIds(c.logicalPropertyName)
+
+        final String FLOW_SUFFIX = "Flow"
+        // Register the flows, each is assembled on first use
         for (flow in flows) {
             String flowName = flow.key.substring(0, flow.key.length() - FLOW_SUFFIX.length());
-            def flowId = ("${c.logicalPropertyName}/" + flowName).toString()
-            def builder = new FlowBuilder(flowId, flow.value, appCtx.flowBuilderServices, appCtx.flowRegistry)
+            def flowId = flowIdFor(c, flow.key)
+            if (rebuild != null && !rebuild.contains(flow.key) && flowRegistry.containsFlowDefinition(flowId)) {
+                grailsFlowHandlerMapping.registerFlow(c, flowName)
+                flowExecutor.registerFlowDefinitionId(flowId)
+                continue
+            }
+            if (rebuild == null && reloadEnabled) {
+                fingerprints.update(flowId, flow.value)
+            }
+
+            // flows of controllers compiled with @CompiledFlows skip the dynamic DSL
+            FlowDefinitionModel model = FlowDefinitionModel.forFlow(flow.value.thisObject, flow.key)
+            def builder = model != null ?
+                    new StaticFlowBuilder(flowId, model, appCtx.flowBuilderServices, appCtx.flowRegistry) :
+                    new FlowBuilder(flowId, flow.value, appCtx.flowBuilderServices, appCtx.flowRegistry)
             builder.viewPath = "/"
             builder.applicationContext = appCtx
             def assembler = new FlowAssembler(builder, builder.getFlowBuilderContext())
-            appCtx.flowRegistry.registerFlowDefinition new DefaultFlowHolder(assembler)
+            // replaces any previous definition in a single step, so requests never see the flow missing
+            flowRegistry.registerFlowDefinition new TimedFlowHolder(assembler)
             grailsFlowHandlerMapping.registerFlow(c, flowName)
+            flowExecutor.registerFlowDefinitionId(flowId)
         }
     }
 
@@ -379,13 +627,123 @@ class FlowExecutionSnapshotFactoryFactory implements FactoryBean {
     }
 }
 
-class CustomFlowExecutionRepository extends DefaultFlowExecutionRepository {
+class CustomFlowExecutionRepository extends DefaultFlowExecutionRepository implements AjaxFlowExecutionKeyCaching {
+    UnchangedSnapshotDetector unchangedSnapshotDetector
+    FlowMetricsExecutionListener flowMetricsListener
+    /** Reuse the key generated first during an AJAX request, switched on by the AJAX fix */
+    boolean ajaxKeyCaching
+
+    /** Set when render-only requests share conversations, so repository operations must not overlap */
+    private final StripedLockConversationManager stripedLockConversationManager
+
     CustomFlowExecutionRepository(ConversationManager conversationManager, FlowExecutionSnapshotFactory snapshotFactory) {
         super(conversationManager, snapshotFactory)
+        stripedLockConversationManager = conversationManager instanceof StripedLockConversationManager ? conversationManager : null
+    }
+
+    @Override
+    FlowExecution getFlowExecution(FlowExecutionKey key) throws FlowExecutionRepositoryException {
+        if (stripedLockConversationManager == null) {
+            return super.getFlowExecution(key)
+        }
+        synchronized (conversationMutex(key)) {
+            return super.getFlowExecution(key)
+        }
+    }
+
+    @Override
+    void putFlowExecution(FlowExecution flowExecution) throws FlowExecutionRepositoryException {
+        if (stripedLockConversationManager == null) {
+            super.putFlowExecution(flowExecution)
+            return
+        }
+        synchronized (conversationMutex(flowExecution.key)) {
+            super.putFlowExecution(flowExecution)
+        }
+    }
+
+    @Override
+    void removeFlowExecution(FlowExecution flowExecution) throws FlowExecutionRepositoryException {
+        if (stripedLockConversationManager == null) {
+            super.removeFlowExecution(flowExecution)
+            return
+        }
+        synchronized (conversationMutex(flowExecution.key)) {
+            super.removeFlowExecution(flowExecution)
+        }
+    }
+
+    private Object conversationMutex(FlowExecutionKey key) {
+        stripedLockConversationManager.getMutex(((CompositeFlowExecutionKey) key).conversationId)
+    }
+
+    /**
+     * @return the number of pauses that reused the previous snapshot instead of serializing the flow execution
+     */
+    long getSkippedSnapshotCount() {
+        unchangedSnapshotDetector ? unchangedSnapshotDetector.skippedSnapshotCount : 0L
+    }
+
+    @Override
+    protected FlowExecutionSnapshot snapshot(FlowExecution flowExecution) {
+        if (unchangedSnapshotDetector == null) {
+            return takeSnapshot(flowExecution)
+        }
+        FlowExecutionSnapshot snapshot = unchangedSnapshotDetector.getUnchangedSnapshot(flowExecution)
+        if (snapshot == null) {
+            snapshot = takeSnapshot(flowExecution)
+            unchangedSnapshotDetector.snapshotTaken(flowExecution, snapshot)
+        }
+        return snapshot
+    }
+
+    private FlowExecutionSnapshot takeSnapshot(FlowExecution flowExecution) {
+        if (flowMetricsListener == null || !flowMetricsListener.enabled) {
+            return super.snapshot(flowExecution)
+        }
+        long start = System.nanoTime()
+        FlowExecutionSnapshot snapshot = super.snapshot(flowExecution)
+        flowMetricsListener.snapshotTaken(snapshot, System.nanoTime() - start)
+        return snapshot
+    }
+
+    @Override
+    protected FlowExecution restoreFlowExecution(FlowExecutionSnapshot snapshot, FlowExecutionKey key, Conversation conversation) {
+        FlowExecution flowExecution = super.restoreFlowExecution(snapshot, key, conversation)
+        unchangedSnapshotDetector?.restored(flowExecution, snapshot)
+        return flowExecution
+    }
+
+    @Override
+    FlowExecutionKey getKey(FlowExecution execution) {
+        if (!ajaxKeyCaching || !AjaxWebFlowFixBeanPostProcessor.isAjaxRequest()) {
+            return nextKey(execution)
+        }
+        // cached per thread, so concurrent AJAX requests into one conversation each keep their own key
+        FlowExecutionKey key = ExecutionParameterAccessor.flowExecutionKey
+        if (key == null) {
+            key = nextKey(execution)
+            ExecutionParameterAccessor.setExecutionParameter(key)
+        }
+        return key
+    }
+
+    private FlowExecutionKey nextKey(FlowExecution execution) {
+        // the next snapshot id comes from the conversation, which render-only requests may be sharing
+        if (stripedLockConversationManager == null || execution.key == null) {
+            return super.getKey(execution)
+        }
+        synchronized (conversationMutex(execution.key)) {
+            return super.getKey(execution)
+        }
     }
 
     @Override
     FlowExecutionKey parseFlowExecutionKey(String encodedKey) throws FlowExecutionRepositoryException {
+        if (ajaxKeyCaching) {
+            // a new request, so any key cached by the previous one on this thread is stale
+            ExecutionParameterAccessor.clearExecutionParameter()
+        }
         try {
             return super.parseFlowExecutionKey(encodedKey)
         }
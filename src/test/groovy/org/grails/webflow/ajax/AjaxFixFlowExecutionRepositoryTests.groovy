@@ -0,0 +1,50 @@
+package org.grails.webflow.ajax
+
+import org.springframework.webflow.context.ExternalContextHolder
+import org.springframework.webflow.execution.FlowExecution
+import org.springframework.webflow.execution.FlowExecutionKey
+import org.springframework.webflow.execution.FlowExecutionKeyFactory
+import org.springframework.webflow.execution.repository.FlowExecutionRepository
+import org.springframework.webflow.test.MockExternalContext
+import org.springframework.webflow.test.MockFlowExecutionKey
+
+class AjaxFixFlowExecutionRepositoryTests extends GroovyTestCase {
+
+    int keysGenerated
+    AjaxFixFlowExecutionRepository repository
+
+    protected void setUp() {
+        def target = [
+            getKey: { FlowExecution execution -> new MockFlowExecutionKey("e1s${++keysGenerated}") },
+            parseFlowExecutionKey: { String key -> new MockFlowExecutionKey(key) }
+        ]
+        repository = new AjaxFixFlowExecutionRepository(target as FlowExecutionRepository, target as FlowExecutionKeyFactory)
+        ExecutionParameterAccessor.clearExecutionParameter()
+    }
+
+    protected void tearDown() {
+        ExternalContextHolder.setExternalContext(null)
+        ExecutionParameterAccessor.clearExecutionParameter()
+    }
+
+    void testAjaxRequestReusesFirstKey() {
+        MockExternalContext context = new MockExternalContext()
+        context.ajaxRequest = true
+        ExternalContextHolder.setExternalContext(context)
+
+        FlowExecutionKey first = repository.getKey(null)
+        assertSame first, repository.getKey(null)
+        assertEquals 1, keysGenerated
+
+        repository.parseFlowExecutionKey("e1s1")
+        assertEquals "e1s2", repository.getKey(null).toString()
+    }
+
+    void testOtherRequestsGenerateNewKeys() {
+        ExternalContextHolder.setExternalContext(new MockExternalContext())
+
+        assertEquals "e1s1", repository.getKey(null).toString()
+        assertEquals "e1s2", repository.getKey(null).toString()
+        assertNull ExecutionParameterAccessor.flowExecutionKey
+    }
+}
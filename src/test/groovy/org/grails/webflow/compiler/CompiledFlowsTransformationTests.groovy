@@ -0,0 +1,130 @@
+package org.grails.webflow.compiler
+
+import org.codehaus.groovy.control.MultipleCompilationErrorsException
+import org.grails.webflow.engine.builder.FlowDefinitionModel
+
+class CompiledFlowsTransformationTests extends GroovyTestCase {
+
+    void testFlowIsTranslatedIntoModel() {
+        def controller = compile('''
+            @org.grails.webflow.compiler.CompiledFlows
+            class ShopController {
+                def searchService = [find: { q -> [q] }]
+
+                def shopFlow = {
+                    search {
+                        on("submit").to "find"
+                    }
+                    find {
+                        action {
+                            [results: searchService.find('dune')]
+                        }
+                        on("success").to "results"
+                        on(IllegalStateException).to "search"
+                    }
+                    results {
+                        render(view: "/shop/results")
+                        on("checkout").to "checkout"
+                    }
+                    checkout {
+                        subflow(controller: "payment", action: "pay")
+                        on("paid").to "done"
+                    }
+                    done()
+                }
+            }
+        ''')
+
+        FlowDefinitionModel model = FlowDefinitionModel.forFlow(controller, "shopFlow")
+
+        assert ["search", "find", "results", "checkout", "done"] == model.states*.id
+        assert ["submit"] == model.states[0].transitions*.on
+        assert "find" == model.states[0].transitions[0].to
+        assert [IllegalStateException] == model.states[1].transitions*.exception.findAll()
+        assert [results: ['dune']] == model.states[1].action.call()
+        assert "/shop/results" == model.states[2].viewName
+        assert "payment" == model.states[3].subflowController
+        assert "pay" == model.states[3].subflowAction
+        assert model.states[4].transitions.empty
+    }
+
+    void testUnsupportedFlowIsLeftToDynamicBuilder() {
+        def controller = compile('''
+            @org.grails.webflow.compiler.CompiledFlows
+            class CartController {
+                def cartFlow = {
+                    globalTransitions {
+                        on("cancel").to "done"
+                    }
+                    start {
+                        on("next").to { "done" }
+                    }
+                    done()
+                }
+            }
+        ''')
+
+        assert FlowDefinitionModel.forFlow(controller, "cartFlow") == null
+        assert controller.cartFlow instanceof Closure
+    }
+
+    void testFlowWithGlobalTransitionsIsLeftToDynamicBuilder() {
+        def controller = compile('''
+            @org.grails.webflow.compiler.CompiledFlows
+            class CheckoutController {
+                def checkoutFlow = {
+                    globalTransitions {
+                        on("cancel").to "done"
+                    }
+                    start {
+                        on("next").to "done"
+                    }
+                    done()
+                }
+            }
+        ''')
+
+        assert FlowDefinitionModel.forFlow(controller, "checkoutFlow") == null
+    }
+
+    void testFlowLevelKeywordsAreNotTakenForStates() {
+        for (keyword in ["onStart", "onEnd", "input", "flowAttributes"]) {
+            def controller = compile("""
+                @org.grails.webflow.compiler.CompiledFlows
+                class ${keyword.capitalize()}Controller {
+                    def keywordFlow = {
+                        start {
+                            on("next").to "done"
+                        }
+                        done()
+                        ${keyword} {}
+                    }
+                }
+            """)
+
+            assert FlowDefinitionModel.forFlow(controller, "keywordFlow") == null, keyword
+        }
+    }
+
+    void testTransitionToUnknownStateFailsCompilation() {
+        def message = shouldFail(MultipleCompilationErrorsException) {
+            compile('''
+                @org.grails.webflow.compiler.CompiledFlows
+                class BrokenController {
+                    def brokenFlow = {
+                        start {
+                            on("next").to "finish"
+                        }
+                        done()
+                    }
+                }
+            ''')
+        }
+
+        assert message.contains("Flow [brokenFlow] state [start] transitions to unknown state [finish]")
+    }
+
+    private Object compile(String source) {
+        new GroovyClassLoader(FlowDefinitionModel.classLoader).parseClass(source).newInstance()
+    }
+}
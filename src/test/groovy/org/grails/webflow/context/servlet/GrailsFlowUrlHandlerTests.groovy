@@ -0,0 +1,95 @@
+package org.grails.webflow.context.servlet
+
+import grails.util.GrailsWebMockUtil
+import grails.web.mapping.UrlCreator
+import grails.web.mapping.UrlMappingsHolder
+import org.grails.web.mapping.DefaultUrlMappingsHolder
+import org.grails.web.servlet.DefaultGrailsApplicationAttributes
+import org.grails.web.servlet.mvc.GrailsWebRequest
+import org.grails.webflow.MockApplicationContext
+import org.springframework.web.context.request.RequestContextHolder
+import org.springframework.webflow.core.collection.LocalAttributeMap
+
+class GrailsFlowUrlHandlerTests extends GroovyTestCase {
+
+    GrailsWebRequest webRequest
+    CountingUrlMappingsHolder holder
+    GrailsFlowUrlHandler handler
+
+    protected void setUp() {
+        super.setUp()
+        webRequest = GrailsWebMockUtil.bindMockWebRequest()
+        webRequest.currentRequest.setAttribute(DefaultGrailsApplicationAttributes.CONTROLLER_NAME_ATTRIBUTE, "book")
+        holder = new CountingUrlMappingsHolder()
+        def ctx = new MockApplicationContext()
+        ctx.registerMockBean(UrlMappingsHolder.BEAN_ID, holder)
+        handler = new GrailsFlowUrlHandler(applicationContext: ctx)
+    }
+
+    protected void tearDown() {
+        RequestContextHolder.setRequestAttributes null
+        super.tearDown()
+    }
+
+    void testExecutionLeadsQueryAndEventParamsAreDropped() {
+        webRequest.params.title = "Dune"
+        webRequest.params._eventId_next = "Next"
+        webRequest.params.execution = "e1s1"
+
+        assert "/book/shop?execution=e1s2&title=Dune" ==
+                handler.createFlowExecutionUrl("book/shop", "e1s2", webRequest.currentRequest)
+    }
+
+    void testNonGetRequestsOnlyCarryExecution() {
+        webRequest.currentRequest.method = "POST"
+        webRequest.params.title = "Dune"
+
+        assert "/book/shop?execution=e1s2" ==
+                handler.createFlowExecutionUrl("book/shop", "e1s2", webRequest.currentRequest)
+        assert "/book/shop" ==
+                handler.createFlowDefinitionUrl("book/shop", new LocalAttributeMap([author: "Herbert"]), webRequest.currentRequest)
+    }
+
+    void testReverseMappingIsReusedForSameParameterNames() {
+        webRequest.params.title = "Dune"
+        handler.createFlowExecutionUrl("book/shop", "e1s1", webRequest.currentRequest)
+        webRequest.params.title = "Emma"
+        assert "/book/shop?execution=e1s2&title=Emma" ==
+                handler.createFlowExecutionUrl("book/shop", "e1s2", webRequest.currentRequest)
+        assert 1 == holder.reverseMappingCount
+
+        webRequest.params.author = "Austen"
+        handler.createFlowExecutionUrl("book/shop", "e1s3", webRequest.currentRequest)
+        assert 2 == holder.reverseMappingCount
+    }
+
+    void testNamesContainingSeparatorsDoNotShareAReverseMapping() {
+        webRequest.params["a,b"] = "1"
+        handler.createFlowExecutionUrl("book/shop", "e1s1", webRequest.currentRequest)
+        webRequest.params.remove("a,b")
+        webRequest.params.a = "1"
+        webRequest.params.b = "2"
+        handler.createFlowExecutionUrl("book/shop", "e1s2", webRequest.currentRequest)
+        assert 2 == holder.reverseMappingCount
+
+        webRequest.params.remove("b")
+        handler.createFlowExecutionUrl("book/shop,a", "e1s3", webRequest.currentRequest)
+        webRequest.params.remove("a")
+        handler.createFlowExecutionUrl("book/shop,a", "e1s4", webRequest.currentRequest)
+        assert 4 == holder.reverseMappingCount
+    }
+
+    static class CountingUrlMappingsHolder extends DefaultUrlMappingsHolder {
+        int reverseMappingCount
+
+        CountingUrlMappingsHolder() {
+            super([])
+        }
+
+        @Override
+        UrlCreator getReverseMapping(String controller, String action, Map params) {
+            reverseMappingCount++
+            super.getReverseMapping(controller, action, params)
+        }
+    }
+}
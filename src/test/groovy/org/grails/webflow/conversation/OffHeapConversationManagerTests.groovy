@@ -0,0 +1,134 @@
+package org.grails.webflow.conversation
+
+import org.grails.webflow.conversation.ConversationHandle.StoredSnapshot
+import org.grails.webflow.execution.repository.snapshot.DeltaFlowExecutionSnapshot
+import org.springframework.webflow.context.ExternalContextHolder
+import org.springframework.webflow.conversation.Conversation
+import org.springframework.webflow.conversation.ConversationId
+import org.springframework.webflow.conversation.ConversationParameters
+import org.springframework.webflow.conversation.NoSuchConversationException
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot
+import org.springframework.webflow.test.MockExternalContext
+
+class OffHeapConversationManagerTests extends GroovyTestCase {
+
+    List<Object> written = []
+    OffHeapConversationStore store
+    OffHeapConversationManager manager
+
+    protected void setUp() {
+        super.setUp()
+        store = new OffHeapConversationStore(64 * 1024, 256) {
+            @Override
+            synchronized void put(Object key, Object owner, byte[] data) {
+                written << key
+                super.put(key, owner, data)
+            }
+        }
+        manager = new OffHeapConversationManager(store)
+        ExternalContextHolder.setExternalContext(new MockExternalContext())
+    }
+
+    protected void tearDown() {
+        ExternalContextHolder.setExternalContext(null)
+        super.tearDown()
+    }
+
+    void testSnapshotsAreWrittenOnceToEntriesOfTheirOwn() {
+        Conversation conversation = begin()
+
+        inRequest(conversation) {
+            conversation.putAttribute("snapshots", [s1: new TestSnapshot(data: "first")])
+        }
+        inRequest(conversation) {
+            conversation.getAttribute("snapshots").s2 = new TestSnapshot(data: "second")
+            conversation.putAttribute("scope", "changed")
+        }
+
+        assert [StoredSnapshot, ConversationId, StoredSnapshot, ConversationId] ==
+                written.collect { it instanceof StoredSnapshot ? StoredSnapshot : ConversationId }
+        assert 3 == store.entryCount
+        inRequest(conversation) {
+            assert ["first", "second"] == conversation.getAttribute("snapshots").values()*.data
+            assert "changed" == conversation.getAttribute("scope")
+        }
+    }
+
+    void testSnapshotsRemovedFromTheConversationLeaveTheStore() {
+        Conversation conversation = begin()
+        inRequest(conversation) {
+            conversation.putAttribute("snapshots", [s1: new TestSnapshot(data: "first"), s2: new TestSnapshot(data: "second")])
+        }
+        assert 3 == store.entryCount
+
+        inRequest(conversation) {
+            conversation.getAttribute("snapshots").remove("s1")
+            conversation.putAttribute("scope", "changed")
+        }
+        assert 2 == store.entryCount
+
+        conversation.end()
+        assert 0 == store.entryCount
+    }
+
+    void testDeltaSnapshotsKeepTheEntryOfTheirBase() {
+        Conversation conversation = begin()
+        def base = new DeltaFlowExecutionSnapshot(new byte[300])
+        inRequest(conversation) {
+            conversation.putAttribute("snapshots", [s2: new DeltaFlowExecutionSnapshot(base, new byte[10], 1)])
+        }
+        written.clear()
+
+        inRequest(conversation) {
+            conversation.getAttribute("snapshots")
+            conversation.putAttribute("scope", "changed")
+        }
+
+        assert written.every { it instanceof ConversationId }
+        assert 3 == store.entryCount
+        inRequest(conversation) {
+            DeltaFlowExecutionSnapshot delta = conversation.getAttribute("snapshots").s2
+            assert delta.delta
+            assert 300 == delta.base.size
+        }
+    }
+
+    void testConversationWithAnEvictedSnapshotIsGone() {
+        Conversation conversation = begin()
+        inRequest(conversation) {
+            conversation.putAttribute("snapshots", [s1: new TestSnapshot(data: "first")])
+        }
+        store.remove(written.find { it instanceof StoredSnapshot })
+
+        inRequest(conversation) {
+            shouldFail(NoSuchConversationException) {
+                conversation.getAttribute("snapshots")
+            }
+        }
+
+        shouldFail(NoSuchConversationException) {
+            manager.getConversation(conversation.id)
+        }
+        assert 0 == store.entryCount
+    }
+
+    private Conversation begin() {
+        Conversation conversation = manager.beginConversation(new ConversationParameters("shop", "", ""))
+        written.clear()
+        conversation
+    }
+
+    private static void inRequest(Conversation conversation, Closure work) {
+        conversation.lock()
+        try {
+            work()
+        }
+        finally {
+            conversation.unlock()
+        }
+    }
+}
+
+class TestSnapshot extends FlowExecutionSnapshot {
+    String data
+}
@@ -0,0 +1,71 @@
+package org.grails.webflow.conversation
+
+class OffHeapConversationStoreTests extends GroovyTestCase {
+
+    void testPutAndGetAcrossBlocks() {
+        def store = new OffHeapConversationStore(1024, 64)
+        byte[] data = (0..<200).collect { it as byte } as byte[]
+        store.put("c1", "owner", data)
+
+        assert data == store.get("c1", "owner")
+        assert store.getStoredBytes() == 200
+        assert store.getUsedBytes() == 256
+        assert store.getEntryCount() == 1
+    }
+
+    void testOwnerMustMatch() {
+        def store = new OffHeapConversationStore(1024, 64)
+        store.put("c1", "owner", [1, 2, 3] as byte[])
+
+        assert store.get("c1", "someoneElse") == null
+        assert !store.contains("c1", "someoneElse")
+        assert store.contains("c1", "owner")
+    }
+
+    void testReplaceReleasesPreviousBlocks() {
+        def store = new OffHeapConversationStore(1024, 64)
+        store.put("c1", "owner", new byte[500])
+        store.put("c1", "owner", new byte[10])
+
+        assert store.getUsedBytes() == 64
+        store.remove("c1")
+        assert store.getUsedBytes() == 0
+        assert store.getEntryCount() == 0
+    }
+
+    void testLeastRecentlyUsedEntriesAreEvicted() {
+        def store = new OffHeapConversationStore(256, 64)
+        store.put("c1", "owner", new byte[128])
+        store.put("c2", "owner", new byte[128])
+        // touch c1 so that c2 becomes the eldest
+        store.get("c1", "owner")
+        store.put("c3", "owner", new byte[64])
+
+        assert store.contains("c1", "owner")
+        assert !store.contains("c2", "owner")
+        assert store.contains("c3", "owner")
+        assert store.getEvictionCount() == 1
+    }
+
+    void testEntryLargerThanCapacityIsRejected() {
+        def store = new OffHeapConversationStore(256, 64)
+        shouldFail(ConversationStoreException) {
+            store.put("c1", "owner", new byte[257])
+        }
+    }
+
+    void testMappedFileStore() {
+        File file = File.createTempFile("webflow-conversations", ".dat")
+        def store = new OffHeapConversationStore(1024, 128, file.absolutePath)
+        try {
+            byte[] data = "conversation state".bytes
+            store.put("c1", "owner", data)
+            assert store.mapped
+            assert data == store.get("c1", "owner")
+        }
+        finally {
+            store.close()
+        }
+        assert !file.exists()
+    }
+}
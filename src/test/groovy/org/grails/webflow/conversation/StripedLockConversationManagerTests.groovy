@@ -0,0 +1,121 @@
+package org.grails.webflow.conversation
+
+import org.springframework.binding.collection.SharedMapDecorator
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.mock.web.MockHttpSession
+import org.springframework.webflow.context.ExternalContextHolder
+import org.springframework.webflow.conversation.Conversation
+import org.springframework.webflow.conversation.ConversationParameters
+import org.springframework.webflow.conversation.impl.LockTimeoutException
+import org.springframework.webflow.conversation.impl.SessionBindingConversationManager
+import org.springframework.webflow.core.collection.LocalSharedAttributeMap
+import org.springframework.webflow.core.collection.SharedAttributeMap
+import org.springframework.webflow.test.MockExternalContext
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.ExecutorService
+
+class StripedLockConversationManagerTests extends GroovyTestCase {
+
+    SharedAttributeMap<Object> session
+    StripedLockConversationManager manager
+    ExecutorService otherThread
+
+    protected void setUp() {
+        session = new LocalSharedAttributeMap<Object>(new SharedMapDecorator<String, Object>(new HashMap<String, Object>()))
+        manager = new StripedLockConversationManager(new SessionBindingConversationManager(), 16)
+        manager.lockTimeoutSeconds = 1
+        otherThread = Executors.newSingleThreadExecutor()
+        request(null)
+    }
+
+    protected void tearDown() {
+        otherThread.shutdownNow()
+        ExternalContextHolder.setExternalContext(null)
+    }
+
+    void testRenderOnlyRequestsShareTheConversation() {
+        Conversation conversation = manager.beginConversation(new ConversationParameters("shop", "", ""))
+        conversation.lock()
+        try {
+            assert inOtherThread(null) { manager.getConversation(conversation.id).with { lock(); unlock(); true } }
+            assert manager.contendedLockCount == 0
+        }
+        finally {
+            conversation.unlock()
+        }
+    }
+
+    void testEventRequestsWaitForRenderOnlyRequests() {
+        Conversation conversation = manager.beginConversation(new ConversationParameters("shop", "", ""))
+        conversation.lock()
+        try {
+            def outcome = inOtherThread("next") {
+                try {
+                    manager.getConversation(conversation.id).lock()
+                    "locked"
+                }
+                catch (LockTimeoutException e) {
+                    "timed out"
+                }
+            }
+            assert outcome == "timed out"
+            assert manager.contendedLockCount == 1
+            assert manager.lockWaitNanos > 0
+        }
+        finally {
+            conversation.unlock()
+        }
+        assert inOtherThread("next") { manager.getConversation(conversation.id).with { lock(); unlock(); true } }
+    }
+
+    void testAttributesGoThroughTheDecoratedConversation() {
+        Conversation conversation = manager.beginConversation(new ConversationParameters("shop", "", ""))
+        conversation.putAttribute("basket", [1, 2])
+
+        assert manager.getConversation(conversation.id).getAttribute("basket") == [1, 2]
+        assert manager.delegate.getConversation(conversation.id).getAttribute("basket") == [1, 2]
+    }
+
+    void testStripeDependsOnTheSessionIdNotTheSessionObject() {
+        manager = new StripedLockConversationManager(new SessionBindingConversationManager(), 1 << 16)
+        def id = manager.parseConversationId("1")
+
+        def stripe = stripeInSession(id, "A1B2")
+        assert (1..10).every { stripeInSession(id, "A1B2").is(stripe) }
+        assert !(1..10).every { stripeInSession(id, "session$it").is(stripe) }
+    }
+
+    void testStripesAreRoundedUpToAPowerOfTwo() {
+        assert new StripedLockConversationManager(new SessionBindingConversationManager(), 100).stripes == 128
+    }
+
+    private void request(String eventId) {
+        MockExternalContext context = new MockExternalContext()
+        context.sessionMap = session
+        if (eventId) {
+            context.eventId = eventId
+        }
+        ExternalContextHolder.setExternalContext(context)
+    }
+
+    /**
+     * Each request gets a new session object and session map, as with session wrappers such as Spring Session.
+     */
+    private def stripeInSession(id, String sessionId) {
+        MockHttpServletRequest nativeRequest = new MockHttpServletRequest()
+        nativeRequest.session = new MockHttpSession(null, sessionId)
+        MockExternalContext context = new MockExternalContext()
+        context.nativeRequest = nativeRequest
+        ExternalContextHolder.setExternalContext(context)
+        manager.stripeFor(id)
+    }
+
+    private def inOtherThread(String eventId, Closure work) {
+        otherThread.submit({
+            request(eventId)
+            work()
+        } as Callable).get()
+    }
+}
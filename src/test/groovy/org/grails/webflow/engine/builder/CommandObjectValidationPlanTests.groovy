@@ -0,0 +1,136 @@
+package org.grails.webflow.engine.builder
+
+import grails.util.GrailsWebMockUtil
+import org.grails.web.servlet.DefaultGrailsApplicationAttributes
+import org.springframework.context.ApplicationContext
+import org.springframework.context.support.StaticMessageSource
+import org.springframework.web.context.request.RequestContextHolder
+import org.springframework.webflow.test.MockRequestContext
+
+class CommandObjectValidationPlanTests extends GroovyTestCase {
+
+    List<String> lookups = []
+    ApplicationContext applicationContext
+
+    protected void setUp() {
+        super.setUp()
+        GrailsWebMockUtil.bindMockWebRequest()
+        applicationContext = newApplicationContext()
+    }
+
+    protected void tearDown() {
+        RequestContextHolder.setRequestAttributes null
+        super.tearDown()
+    }
+
+    void testPlanIsBuiltOncePerClassAndSharedByActions() {
+        def plan = CommandObjectValidationPlan.forClass(PlanTestCommand)
+
+        assert plan.is(CommandObjectValidationPlan.forClass(PlanTestCommand))
+        assert !plan.is(CommandObjectValidationPlan.forClass(PlanTestEmptyCommand))
+        def first = new ClosureInvokingAction({ PlanTestCommand command -> })
+        def second = new ClosureInvokingAction({ PlanTestEmptyCommand other, PlanTestCommand command -> })
+        assert first.validationPlans[0].is(plan)
+        assert second.validationPlans[1].is(plan)
+    }
+
+    void testMethodsAreInstalledAgainOnlyWhenTheMetaClassIsReplaced() {
+        CommandObjectValidationPlan.forClass(PlanTestCommand)
+        MetaClass installed = GroovySystem.metaClassRegistry.getMetaClass(PlanTestCommand)
+
+        CommandObjectValidationPlan.forClass(PlanTestCommand)
+        assert installed.is(GroovySystem.metaClassRegistry.getMetaClass(PlanTestCommand))
+
+        GroovySystem.metaClassRegistry.removeMetaClass(PlanTestCommand)
+        CommandObjectValidationPlan.forClass(PlanTestCommand)
+        assert !new PlanTestCommand(title: "").hasErrors()
+    }
+
+    void testCommandObjectWithConstraintsIsValidated() {
+        def plan = CommandObjectValidationPlan.forClass(PlanTestCommand)
+        def command = new PlanTestCommand(title: "")
+
+        assert plan.constrainedProperties.containsKey("title")
+        assert !plan.validate(command, applicationContext)
+        assert command.hasErrors()
+        assert command.errors.getFieldError("title")
+
+        command.title = "Dune"
+        assert plan.validate(command, applicationContext)
+        assert !command.hasErrors()
+        assert ["messageSource"] == lookups
+    }
+
+    void testCommandObjectWithoutConstraintsIsAlwaysValid() {
+        def plan = CommandObjectValidationPlan.forClass(PlanTestEmptyCommand)
+        def command = new PlanTestEmptyCommand()
+
+        assert !plan.constrainedProperties
+        assert plan.validate(command, applicationContext)
+        assert command.validate()
+        assert !command.hasErrors()
+        assert command.errors != null
+        // nothing to report, so the messageSource is never needed
+        assert lookups.empty
+    }
+
+    void testMessageSourceIsLookedUpOncePerApplicationContext() {
+        def plan = CommandObjectValidationPlan.forClass(PlanTestCommand)
+
+        plan.validate(new PlanTestCommand(title: ""), applicationContext)
+        plan.validate(new PlanTestCommand(title: "Dune"), applicationContext)
+        assert ["messageSource"] == lookups
+
+        plan.validate(new PlanTestCommand(title: ""), newApplicationContext())
+        assert ["messageSource", "messageSource"] == lookups
+    }
+
+    void testErrorsAreKeptPerInstanceForTheRequest() {
+        def plan = CommandObjectValidationPlan.forClass(PlanTestCommand)
+        def invalid = new PlanTestCommand(title: "")
+        def valid = new PlanTestCommand(title: "Dune")
+
+        plan.validate(invalid, applicationContext)
+        plan.validate(valid, applicationContext)
+
+        assert invalid.hasErrors()
+        assert !valid.hasErrors()
+        RequestContextHolder.setRequestAttributes null
+        GrailsWebMockUtil.bindMockWebRequest()
+        assert invalid.errors == null
+    }
+
+    void testValidatedCommandObjectsHaveTheirErrorsPropagated() {
+        def plan = CommandObjectValidationPlan.forClass(PlanTestCommand)
+        def context = new MockRequestContext()
+        def command = new PlanTestCommand(title: "")
+        context.flowScope.put("command", command)
+        context.flowScope.put("other", new PlanTestCommand(title: ""))
+
+        plan.validate(command, applicationContext)
+        ScopeChangeTracker.propagateErrors(context)
+
+        assert ["command"] == context.flashScope.get(ScopeChangeTracker.ERRORS_INDEX)
+        assert command.errors.is(context.flashScope.get("${DefaultGrailsApplicationAttributes.ERRORS}_command".toString()))
+    }
+
+    private ApplicationContext newApplicationContext() {
+        def messageSource = new StaticMessageSource()
+        messageSource.useCodeAsDefaultMessage = true
+        [getBean: { String name ->
+            lookups << name
+            messageSource
+        }] as ApplicationContext
+    }
+}
+
+class PlanTestCommand {
+    String title
+
+    static constraints = {
+        title(blank: false)
+    }
+}
+
+class PlanTestEmptyCommand {
+}
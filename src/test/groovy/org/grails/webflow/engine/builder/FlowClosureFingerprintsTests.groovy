@@ -0,0 +1,63 @@
+package org.grails.webflow.engine.builder
+
+import org.codehaus.groovy.control.CompilationUnit
+import org.codehaus.groovy.control.CompilerConfiguration
+
+class FlowClosureFingerprintsTests extends GroovyTestCase {
+
+    void testUnchangedClosureIsNotReportedTwice() {
+        def fingerprints = new FlowClosureFingerprints()
+        Closure flow = { start { action { [:] } } }
+
+        assert fingerprints.update("shop/order", flow)
+        assert !fingerprints.update("shop/order", flow)
+        assert !fingerprints.update("shop/order", flow.clone())
+    }
+
+    void testDifferentClosureClassIsReportedAsChanged() {
+        def fingerprints = new FlowClosureFingerprints()
+
+        assert fingerprints.update("shop/order", { start { action { [:] } } })
+        assert fingerprints.update("shop/order", { start { on("next").to "end" } })
+    }
+
+    void testRemovedFlowIsReportedAsNew() {
+        def fingerprints = new FlowClosureFingerprints()
+        Closure flow = { start() }
+        fingerprints.update("shop/order", flow)
+        fingerprints.remove("shop/order")
+
+        assert fingerprints.update("shop/order", flow)
+    }
+
+    void testChangeInsideNestedClosureIsReportedAsChanged() {
+        def fingerprints = new FlowClosureFingerprints()
+
+        assert fingerprints.update("shop/order", compileFlow("[total: 1]"))
+        assert !fingerprints.update("shop/order", compileFlow("[total: 1]"))
+        assert fingerprints.update("shop/order", compileFlow("[total: 2]"))
+    }
+
+    /**
+     * Compiles a controller to class files, so that the fingerprint can read them, with the given action body.
+     */
+    private Closure compileFlow(String actionBody) {
+        File classes = File.createTempDir()
+        CompilationUnit unit = new CompilationUnit(new CompilerConfiguration(targetDirectory: classes))
+        unit.addSource("ShopController.groovy", """
+            class ShopController {
+                def orderFlow = {
+                    start {
+                        action {
+                            $actionBody
+                        }
+                        on("success").to "end"
+                    }
+                    end()
+                }
+            }""")
+        unit.compile()
+        ClassLoader loader = new URLClassLoader([classes.toURI().toURL()] as URL[], getClass().classLoader)
+        loader.loadClass("ShopController").newInstance().orderFlow
+    }
+}
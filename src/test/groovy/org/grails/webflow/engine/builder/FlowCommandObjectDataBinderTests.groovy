@@ -0,0 +1,43 @@
+package org.grails.webflow.engine.builder
+
+import org.springframework.context.support.StaticApplicationContext
+
+class FlowCommandObjectDataBinderTests extends GroovyTestCase {
+
+    void testSimplePropertiesAreBoundDirectly() {
+        def binder = new FlowCommandObjectDataBinder()
+        binder.applicationContext = new StaticApplicationContext()
+        def command = new BinderTestCommand()
+
+        binder.bind(command, [name: ' fred ', age: '42', total: '7', agree: 'true', nickname: '', _eventId: 'next'])
+
+        assert command.name == 'fred'
+        assert command.age == 42
+        assert command.total == 7L
+        assert command.agree
+        assert command.nickname == null
+    }
+
+    void testAutowiringIsOnlyRequiredForInjectableProperties() {
+        def applicationContext = new StaticApplicationContext()
+        applicationContext.registerSingleton("bookService", Object)
+        def binder = new FlowCommandObjectDataBinder()
+        binder.applicationContext = applicationContext
+
+        assert binder.requiresAutowiring(BinderTestCommand)
+        assert !binder.requiresAutowiring(BinderTestPlainCommand)
+    }
+}
+
+class BinderTestCommand {
+    String name
+    String nickname
+    int age
+    Long total
+    boolean agree
+    def bookService
+}
+
+class BinderTestPlainCommand {
+    String title
+}
@@ -0,0 +1,148 @@
+package org.grails.webflow.engine.builder
+
+import org.grails.webflow.support.AbstractGrailsTagAwareFlowExecutionTests
+import org.springframework.webflow.definition.registry.NoSuchFlowDefinitionException
+import org.springframework.webflow.engine.builder.FlowAssembler
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class FlowDefinitionWarmUpTests extends AbstractGrailsTagAwareFlowExecutionTests {
+
+    void testWarmUpAssemblesEveryFlow() {
+        TimedFlowHolder payment = registerTimedFlow("shop/payment", getFlowClosure())
+        TimedFlowHolder order = registerTimedFlow("shop/order") {
+            start {
+                on("pay").to "payment"
+            }
+            payment {
+                subflow(controller: "shop", action: "payment")
+                on("end").to "end"
+            }
+            end()
+        }
+        assert payment.assemblyTime == -1
+        assert order.assemblyTime == -1
+
+        FlowDefinitionWarmUp warmUp = new FlowDefinitionWarmUp(flowDefinitionRegistry, 1)
+        warmUp.start()
+        assert warmUp.awaitCompletion(30, TimeUnit.SECONDS)
+
+        assert warmUp.assemblyTimes.keySet() == ["shop/payment", "shop/order"] as Set
+        assert warmUp.assemblyTimes.values().every { it >= 0 }
+        assert payment.assemblyTime >= 0
+        assert order.assemblyTime >= 0
+    }
+
+    void testFlowsUsingEachOtherAsSubflowsWarmUpAlongsideRequests() {
+        TimedFlowHolder first = registerTimedFlow("shop/first") {
+            start {
+                subflow(controller: "shop", action: "second")
+                on("end").to "end"
+            }
+            end()
+        }
+        TimedFlowHolder second = registerTimedFlow("shop/second") {
+            start {
+                subflow(controller: "shop", action: "first")
+                on("end").to "end"
+            }
+            end()
+        }
+
+        FlowDefinitionWarmUp warmUp = new FlowDefinitionWarmUp(flowDefinitionRegistry, 2)
+        def request = Executors.newSingleThreadExecutor()
+        try {
+            warmUp.start()
+            // a request assembling the flows in the opposite order to the warm-up
+            def requested = request.submit({
+                [flowDefinitionRegistry.getFlowDefinition("shop/second"), flowDefinitionRegistry.getFlowDefinition("shop/first")]
+            } as Callable)
+            assert warmUp.awaitCompletion(30, TimeUnit.SECONDS)
+            assert requested.get(30, TimeUnit.SECONDS).size() == 2
+        }
+        finally {
+            request.shutdownNow()
+        }
+
+        assert first.assemblyTime >= 0
+        assert second.assemblyTime >= 0
+        def subflowState = first.flowDefinition.getState("start")
+        assert subflowState.subflow instanceof SubflowExpression
+        assert subflowState.subflow.getValue(null).is(second.flowDefinition)
+    }
+
+    void testSubflowsAreLookedUpWhenEntered() {
+        TimedFlowHolder holder = registerTimedFlow("shop/missingSubflow") {
+            start {
+                subflow(controller: "shop", action: "missing")
+                on("end").to "end"
+            }
+            end()
+        }
+
+        def subflow = holder.flowDefinition.getState("start").subflow
+        assert "shop/missing" == subflow.expressionString
+        shouldFail(NoSuchFlowDefinitionException) {
+            subflow.getValue(null)
+        }
+    }
+
+    void testFailingFlowDoesNotStopWarmUp() {
+        TimedFlowHolder broken = registerTimedFlow("shop/broken") {
+            start {
+                throw new IllegalStateException("broken flow")
+            }
+            end()
+        }
+        TimedFlowHolder working = registerTimedFlow("shop/working", getFlowClosure())
+
+        FlowDefinitionWarmUp warmUp = new FlowDefinitionWarmUp(flowDefinitionRegistry, 2)
+        warmUp.start()
+        assert warmUp.awaitCompletion(30, TimeUnit.SECONDS)
+
+        assert warmUp.assemblyTimes.keySet() == ["shop/working"] as Set
+        assert broken.assemblyTime == -1
+        assert working.assemblyTime >= 0
+    }
+
+    void testTimedHolderRecordsAssemblyOnce() {
+        TimedFlowHolder holder = registerTimedFlow("shop/timed", getFlowClosure())
+        assert holder.assemblyTime == -1
+
+        def flow = holder.flowDefinition
+        long assemblyTime = holder.assemblyTime
+        assert assemblyTime >= 0
+        assert holder.flowDefinition.is(flow)
+        assert holder.assemblyTime == assemblyTime
+    }
+
+    void testWarmUpWithoutFlows() {
+        FlowDefinitionWarmUp warmUp = new FlowDefinitionWarmUp(flowDefinitionRegistry, 1)
+        warmUp.start()
+        assert warmUp.awaitCompletion(5, TimeUnit.SECONDS)
+        assert warmUp.assemblyTimes.isEmpty()
+    }
+
+    /**
+     * Registers the flow like the plugin does, without assembling it.
+     */
+    private TimedFlowHolder registerTimedFlow(String flowId, Closure flowClosure) {
+        FlowBuilder builder = new FlowBuilder(flowId, flowClosure, flowBuilderServices, flowDefinitionRegistry)
+        builder.viewPath = "/"
+        builder.applicationContext = appCtx
+        TimedFlowHolder holder = new TimedFlowHolder(new FlowAssembler(builder, builder.getFlowBuilderContext()))
+        flowDefinitionRegistry.registerFlowDefinition(holder)
+        holder
+    }
+
+    Closure getFlowClosure() {
+        return {
+            start {
+                on("next").to "end"
+            }
+            end()
+        }
+    }
+}
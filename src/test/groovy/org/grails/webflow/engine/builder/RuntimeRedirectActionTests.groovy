@@ -35,4 +35,12 @@ class RuntimeRedirectActionTests extends GroovyTestCase{
             RequestContextHolder.setRequestAttributes null
         }
     }
+
+    void testPropertyExpressionIsCompiledOnce() {
+        def first = PropertyExpressionResolver.getScriptClass(new PropertyExpression("flow.id"))
+        PropertyExpressionResolver.compile([id: new PropertyExpression("flow.id"), name: "static"])
+
+        assert first.is(PropertyExpressionResolver.getScriptClass(new PropertyExpression("flow.id")))
+        assert !first.is(PropertyExpressionResolver.getScriptClass(new PropertyExpression("flow.name")))
+    }
 }
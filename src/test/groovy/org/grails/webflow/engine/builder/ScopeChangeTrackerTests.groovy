@@ -0,0 +1,107 @@
+package org.grails.webflow.engine.builder
+
+import grails.util.GrailsWebMockUtil
+import org.grails.web.servlet.DefaultGrailsApplicationAttributes
+import org.springframework.validation.BeanPropertyBindingResult
+import org.springframework.web.context.request.RequestContextHolder
+import org.springframework.webflow.core.collection.MutableAttributeMap
+import org.springframework.webflow.execution.RequestContext
+import org.springframework.webflow.test.MockRequestContext
+
+class ScopeChangeTrackerTests extends GroovyTestCase {
+
+    protected void setUp() {
+        super.setUp()
+        GrailsWebMockUtil.bindMockWebRequest()
+    }
+
+    protected void tearDown() {
+        RequestContextHolder.setRequestAttributes null
+        super.tearDown()
+    }
+
+    void testOnlyTouchedEntriesArePropagated() {
+        def context = new MockRequestContext()
+        context.flowScope.put("touched", invalidForm())
+        context.flowScope.put("untouched", invalidForm())
+        ScopeChangeTracker.touched("touched")
+
+        ScopeChangeTracker.propagateErrors(context)
+
+        assert context.flashScope.contains("${DefaultGrailsApplicationAttributes.ERRORS}_touched".toString())
+        assert !context.flashScope.contains("${DefaultGrailsApplicationAttributes.ERRORS}_untouched".toString())
+        assert ["touched"] == context.flashScope.get(ScopeChangeTracker.ERRORS_INDEX)
+    }
+
+    void testValidatedObjectsArePropagated() {
+        def context = new MockRequestContext()
+        def form = invalidForm()
+        context.conversationScope.put("form", form)
+        ScopeChangeTracker.validated(form)
+
+        ScopeChangeTracker.propagateErrors(context)
+
+        assert ["form"] == context.flashScope.get(ScopeChangeTracker.ERRORS_INDEX)
+    }
+
+    void testErrorsAreRestoredFromFlash() {
+        def context = new MockRequestContext()
+        def form = invalidForm()
+        context.flowScope.put("form", form)
+        ScopeChangeTracker.touched("form")
+        ScopeChangeTracker.propagateErrors(context)
+        def errors = form.errors
+        form.errors = null
+
+        ScopeChangeTracker.restoreErrors(context)
+
+        assert form.errors.is(errors)
+    }
+
+    void testEntriesWrittenWithPutAreFoundByComparingWithCapturedValues() {
+        def context = new MockRequestContext()
+        context.flowScope.put("unchanged", invalidForm())
+        context.conversationScope.put("replaced", invalidForm())
+        def before = ScopeChangeTracker.capture(context)
+
+        // as a service or Java code would, bypassing the Groovy scope accessors
+        context.flowScope.put("book", invalidForm())
+        context.conversationScope.put("replaced", invalidForm())
+        ScopeChangeTracker.propagateErrors(context, before)
+
+        assert ["book", "replaced"] as Set == context.flashScope.get(ScopeChangeTracker.ERRORS_INDEX) as Set
+        assert !context.flashScope.contains("${DefaultGrailsApplicationAttributes.ERRORS}_unchanged".toString())
+    }
+
+    void testActionStoringAnInvalidObjectWithPutPropagatesItsErrors() {
+        def context = new MockRequestContext()
+        context.flowScope.put("other", invalidForm())
+        def action = new ClosureInvokingAction({ RequestContext ctx ->
+            TrackerTestService.store(ctx.flowScope, "book", invalidForm())
+            "stored"
+        })
+
+        action.execute(context)
+
+        assert ["book"] == context.flashScope.get(ScopeChangeTracker.ERRORS_INDEX)
+    }
+
+    private static TrackerTestForm invalidForm() {
+        def form = new TrackerTestForm()
+        form.errors = new BeanPropertyBindingResult(form, "form")
+        form.errors.reject("invalid")
+        form
+    }
+}
+
+class TrackerTestForm implements Serializable {
+    String name
+    transient errors
+}
+
+class TrackerTestService {
+    @groovy.transform.CompileStatic
+    static void store(MutableAttributeMap<Object> scope, String key, Object value) {
+        scope.put(key, value)
+    }
+}
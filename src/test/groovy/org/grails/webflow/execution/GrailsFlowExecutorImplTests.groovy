@@ -0,0 +1,72 @@
+package org.grails.webflow.execution
+
+import org.springframework.webflow.definition.FlowDefinition
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator
+import org.springframework.webflow.definition.registry.FlowDefinitionRegistry
+import org.springframework.webflow.definition.registry.NoSuchFlowDefinitionException
+import org.springframework.webflow.execution.FlowExecutionFactory
+import org.springframework.webflow.execution.repository.FlowExecutionRepository
+
+class GrailsFlowExecutorImplTests extends GroovyTestCase {
+
+    List<String> lookedUp = []
+    Set<String> registeredIds = ["admin/setup"] as Set
+
+    void testRegisteredFlowIdsAreValidWithoutAskingTheRegistry() {
+        def executor = newExecutor(registry())
+        executor.registerFlowDefinitionId("shop/order")
+        executor.registerFlowDefinitionId("shop/checkout")
+
+        assert !executor.isNotValidFlowDefinitionId("shop/order")
+        assert !executor.isNotValidFlowDefinitionId("shop/checkout")
+        assert lookedUp.empty
+    }
+
+    void testClearingAControllerForgetsOnlyItsFlowIds() {
+        def executor = newExecutor(registry())
+        executor.registerFlowDefinitionId("shop/order")
+        executor.registerFlowDefinitionId("shopping/cart")
+        executor.registerFlowDefinitionId("book/show")
+
+        executor.clearFlowDefinitionIds("shop")
+
+        assert executor.isNotValidFlowDefinitionId("shop/order")
+        assert !executor.isNotValidFlowDefinitionId("shopping/cart")
+        assert !executor.isNotValidFlowDefinitionId("book/show")
+        assert ["shop/order"] == lookedUp
+    }
+
+    void testUnindexedFlowIdsFallBackToTheRegistry() {
+        def executor = newExecutor(registry())
+
+        assert !executor.isNotValidFlowDefinitionId("admin/setup")
+        assert executor.isNotValidFlowDefinitionId("admin/missing")
+        assert ["admin/setup", "admin/missing"] == lookedUp
+    }
+
+    void testUnindexedFlowIdsFallBackToALocatorThatIsNotARegistry() {
+        def locator = [getFlowDefinition: { String id ->
+            lookedUp << id
+            if (!registeredIds.contains(id)) {
+                throw new NoSuchFlowDefinitionException(id)
+            }
+            [getId: { id }] as FlowDefinition
+        }] as FlowDefinitionLocator
+        def executor = newExecutor(locator)
+
+        assert !executor.isNotValidFlowDefinitionId("admin/setup")
+        assert executor.isNotValidFlowDefinitionId("admin/missing")
+        assert ["admin/setup", "admin/missing"] == lookedUp
+    }
+
+    private FlowDefinitionRegistry registry() {
+        [containsFlowDefinition: { String id ->
+            lookedUp << id
+            registeredIds.contains(id)
+        }] as FlowDefinitionRegistry
+    }
+
+    private static GrailsFlowExecutorImpl newExecutor(FlowDefinitionLocator locator) {
+        new GrailsFlowExecutorImpl(locator, [:] as FlowExecutionFactory, [:] as FlowExecutionRepository)
+    }
+}
@@ -0,0 +1,87 @@
+package org.grails.webflow.execution.repository
+
+import org.springframework.webflow.core.collection.LocalAttributeMap
+import org.springframework.webflow.engine.Flow
+import org.springframework.webflow.execution.FlowExecution
+import org.springframework.webflow.execution.repository.snapshot.FlowExecutionSnapshot
+import org.springframework.webflow.test.MockFlowSession
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class UnchangedSnapshotDetectorTests extends GroovyTestCase {
+
+    UnchangedSnapshotDetector detector
+    MockFlowSession session
+    FlowExecution execution
+    FlowExecutionSnapshot restoredSnapshot
+
+    protected void setUp() {
+        detector = new UnchangedSnapshotDetector()
+        session = new MockFlowSession(new Flow("shop"))
+        LocalAttributeMap flash = new LocalAttributeMap()
+        execution = [getActiveSession: { -> session }, getFlashScope: { -> flash }] as FlowExecution
+        restoredSnapshot = [:] as FlowExecutionSnapshot
+    }
+
+    void testUnchangedExecutionReusesSnapshot() {
+        session.scope.put("basket", [items: ["Groovy"], total: 10L])
+        detector.restored(execution, restoredSnapshot)
+
+        assert detector.getUnchangedSnapshot(execution).is(restoredSnapshot)
+        assert detector.skippedSnapshotCount == 1
+        assert detector.takenSnapshotCount == 0
+    }
+
+    void testChangeInsideScopedObjectTakesSnapshot() {
+        List items = ["Groovy"]
+        session.scope.put("items", items)
+        detector.restored(execution, restoredSnapshot)
+        items << "Grails"
+
+        assert detector.getUnchangedSnapshot(execution) == null
+        FlowExecutionSnapshot taken = [:] as FlowExecutionSnapshot
+        detector.snapshotTaken(execution, taken)
+        assert detector.takenSnapshotCount == 1
+        assert detector.skippedSnapshotCount == 0
+
+        // the new snapshot is reused by the next unchanged pause
+        assert detector.getUnchangedSnapshot(execution).is(taken)
+        assert detector.skippedSnapshotCount == 1
+    }
+
+    void testAtomicCounterIncrementedInPlace() {
+        AtomicInteger counter = new AtomicInteger()
+        session.scope.put("counter", counter)
+        detector.restored(execution, restoredSnapshot)
+        counter.incrementAndGet()
+
+        assert detector.getUnchangedSnapshot(execution) == null
+    }
+
+    void testStringWithCollidingHashCode() {
+        assert "Aa".hashCode() == "BB".hashCode()
+        session.scope.put("code", "Aa")
+        detector.restored(execution, restoredSnapshot)
+        session.scope.put("code", "BB")
+
+        assert detector.getUnchangedSnapshot(execution) == null
+    }
+
+    void testLongWithCollidingHashCode() {
+        assert 1L.hashCode() == 0x100000000L.hashCode()
+        session.scope.put("id", 1L)
+        detector.restored(execution, restoredSnapshot)
+        session.scope.put("id", 0x100000000L)
+
+        assert detector.getUnchangedSnapshot(execution) == null
+    }
+
+    void testScopeWriteSkipsFingerprint() {
+        detector.restored(execution, restoredSnapshot)
+        UnchangedSnapshotDetector.markScopeModified()
+
+        assert detector.getUnchangedSnapshot(execution) == null
+        detector.snapshotTaken(execution, [:] as FlowExecutionSnapshot)
+        assert detector.takenSnapshotCount == 1
+    }
+}
@@ -0,0 +1,67 @@
+package org.grails.webflow.execution.repository.snapshot
+
+class DeltaCodecTests extends GroovyTestCase {
+
+    void testRoundTripWithSmallChange() {
+        byte[] base = randomBytes(8192, 1)
+        byte[] target = base.clone()
+        target[4000] = (byte) (target[4000] + 1)
+        target[4001] = (byte) (target[4001] + 1)
+
+        byte[] delta = DeltaCodec.encode(base, target)
+
+        assert target == DeltaCodec.apply(base, delta)
+        assert delta.length < 64
+    }
+
+    void testRoundTripWithInsertedAndRemovedRegions() {
+        byte[] base = randomBytes(4096, 2)
+        def out = new ByteArrayOutputStream()
+        out.write(base, 0, 1000)
+        out.write("inserted in the middle".bytes)
+        out.write(base, 1500, 2596)
+        byte[] target = out.toByteArray()
+
+        byte[] delta = DeltaCodec.encode(base, target)
+
+        assert target == DeltaCodec.apply(base, delta)
+        assert delta.length < 128
+    }
+
+    void testUnrelatedDataIsCarriedAsLiteral() {
+        byte[] base = randomBytes(1024, 3)
+        byte[] target = randomBytes(1024, 4)
+
+        assert target == DeltaCodec.apply(base, DeltaCodec.encode(base, target))
+    }
+
+    void testShortArrays() {
+        byte[] empty = new byte[0]
+        byte[] target = [1, 2, 3] as byte[]
+
+        assert target == DeltaCodec.apply(empty, DeltaCodec.encode(empty, target))
+        assert empty == DeltaCodec.apply(target, DeltaCodec.encode(target, empty))
+    }
+
+    void testSnapshotRebuildsFromBase() {
+        byte[] full = randomBytes(2048, 5)
+        byte[] next = full.clone()
+        next[10] = 42
+        def base = new DeltaFlowExecutionSnapshot(full)
+        def second = new DeltaFlowExecutionSnapshot(base, DeltaCodec.encode(full, next), 1)
+        def third = new DeltaFlowExecutionSnapshot(second, DeltaCodec.encode(full, full), 2)
+
+        assert !base.delta
+        assert second.delta
+        assert second.base.is(base)
+        assert third.base.is(base)
+        assert next == second.fullData
+        assert full == third.fullData
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length]
+        new Random(seed).nextBytes(data)
+        data
+    }
+}
@@ -0,0 +1,134 @@
+package org.grails.webflow.execution.repository.snapshot
+
+import org.springframework.webflow.core.collection.LocalAttributeMap
+import org.springframework.webflow.definition.registry.FlowDefinitionLocator
+import org.springframework.webflow.engine.EndState
+import org.springframework.webflow.engine.Flow
+import org.springframework.webflow.engine.ViewState
+import org.springframework.webflow.engine.impl.FlowExecutionImplFactory
+import org.springframework.webflow.execution.FlowExecution
+import org.springframework.webflow.execution.ViewFactory
+import org.springframework.webflow.test.MockExternalContext
+import org.springframework.webflow.test.MockFlowExecutionKeyFactory
+
+class DeltaFlowExecutionSnapshotFactoryTests extends GroovyTestCase {
+
+    Flow flow
+    MockFlowExecutionKeyFactory keyFactory
+    FlowExecutionImplFactory executionFactory
+    DeltaFlowExecutionSnapshotFactory snapshotFactory
+
+    protected void setUp() {
+        super.setUp()
+        flow = new Flow("shop")
+        new ViewState(flow, "basket", [getView: { context -> null }] as ViewFactory)
+        new EndState(flow, "done")
+        keyFactory = new MockFlowExecutionKeyFactory()
+        executionFactory = new FlowExecutionImplFactory()
+        executionFactory.executionKeyFactory = keyFactory
+        // pausing redirects rather than rendering the view, as configured by the plugin
+        executionFactory.executionAttributes = new LocalAttributeMap(alwaysRedirectOnPause: true)
+        snapshotFactory = new DeltaFlowExecutionSnapshotFactory(executionFactory,
+                [getFlowDefinition: { String id -> flow }] as FlowDefinitionLocator)
+    }
+
+    void testDeltaSnapshotRestoresTheExecutionItWasTakenFrom() {
+        FlowExecution execution = start()
+        execution.activeSession.scope.put("items", items(200, 1))
+        DeltaFlowExecutionSnapshot first = snapshotFactory.createSnapshot(execution)
+        execution.activeSession.scope.put("step", 2)
+        DeltaFlowExecutionSnapshot second = snapshotFactory.createSnapshot(execution)
+
+        assert !first.delta
+        assert second.delta
+        assert second.size < first.size
+
+        FlowExecution restored = restore(second)
+        assert execution.definition.id == restored.definition.id
+        assert execution.activeSession.state.id == restored.activeSession.state.id
+        assert execution.activeSession.scope.asMap() == restored.activeSession.scope.asMap()
+        assert !restore(first).activeSession.scope.contains("step")
+    }
+
+    void testNewBaseIsTakenAfterTheRebaseInterval() {
+        snapshotFactory.rebaseInterval = 2
+        FlowExecution execution = start()
+        execution.activeSession.scope.put("items", items(200, 1))
+
+        List<DeltaFlowExecutionSnapshot> snapshots = (1..5).collect { int step ->
+            execution.activeSession.scope.put("step", step)
+            (DeltaFlowExecutionSnapshot) snapshotFactory.createSnapshot(execution)
+        }
+
+        assert [false, true, true, false, true] == snapshots*.delta
+        assert [0, 1, 2, 0, 1] == snapshots*.depth
+        assert snapshots[4].base.is(snapshots[3])
+        assert 2L == snapshotFactory.baseSnapshotCount
+        assert 3L == snapshotFactory.deltaSnapshotCount
+        snapshots.eachWithIndex { snapshot, i ->
+            assert i + 1 == restore(snapshot).activeSession.scope.get("step")
+        }
+    }
+
+    void testDeltaLargerThanTheMaxRatioCutsOverToANewBase() {
+        snapshotFactory.maxDeltaRatio = 0.5f
+        FlowExecution execution = start()
+        execution.activeSession.scope.put("items", items(200, 1))
+        snapshotFactory.createSnapshot(execution)
+
+        execution.activeSession.scope.put("items", items(200, 2))
+        DeltaFlowExecutionSnapshot replaced = snapshotFactory.createSnapshot(execution)
+        execution.activeSession.scope.put("step", 3)
+        DeltaFlowExecutionSnapshot changed = snapshotFactory.createSnapshot(execution)
+
+        assert !replaced.delta
+        assert changed.delta
+        assert changed.base.is(replaced)
+        assert items(200, 2) == restore(changed).activeSession.scope.get("items")
+    }
+
+    void testDeltaIsRestoredOnceTheExecutionItWasTakenFromIsCollected() {
+        List<DeltaFlowExecutionSnapshot> snapshots = takeSnapshotsOfDiscardedExecution()
+        Map restoredFrom = snapshotFactory.@restoredFrom
+        for (int i = 0; i < 50 && !restoredFrom.isEmpty(); i++) {
+            System.gc()
+            Thread.sleep(10)
+        }
+        assert restoredFrom.isEmpty()
+
+        FlowExecution restored = restore(snapshots[1])
+        assert 2 == restored.activeSession.scope.get("step")
+        assert items(200, 1) == restored.activeSession.scope.get("items")
+
+        // the restored execution carries on against the same base
+        restored.activeSession.scope.put("step", 3)
+        DeltaFlowExecutionSnapshot next = snapshotFactory.createSnapshot(restored)
+        assert next.delta
+        assert next.base.is(snapshots[0])
+        assert 2 == next.depth
+    }
+
+    private List<DeltaFlowExecutionSnapshot> takeSnapshotsOfDiscardedExecution() {
+        FlowExecution execution = start()
+        execution.activeSession.scope.put("items", items(200, 1))
+        def first = snapshotFactory.createSnapshot(execution)
+        execution.activeSession.scope.put("step", 2)
+        [first, snapshotFactory.createSnapshot(execution)]
+    }
+
+    private FlowExecution start() {
+        FlowExecution execution = executionFactory.createFlowExecution(flow)
+        execution.start(null, new MockExternalContext())
+        assert execution.active
+        execution
+    }
+
+    private FlowExecution restore(DeltaFlowExecutionSnapshot snapshot) {
+        snapshotFactory.restoreExecution(snapshot, "shop", keyFactory.getKey(null), new LocalAttributeMap(), keyFactory)
+    }
+
+    private static List<String> items(int count, long seed) {
+        Random random = new Random(seed)
+        (1..count).collect { Long.toHexString(random.nextLong()) }
+    }
+}
@@ -0,0 +1,93 @@
+package org.grails.webflow.execution.repository.snapshot
+
+class RegisteredClassFlowExecutionSerializerTests extends GroovyTestCase {
+
+    void testRoundTripWithRegisteredAndUnregisteredClasses() {
+        def serializer = new RegisteredClassFlowExecutionSerializer()
+        serializer.registeredClasses = [SampleCommand]
+        def value = [command: new SampleCommand(name: "fred", age: 42), other: new UnregisteredCommand(name: "barney")]
+
+        def copy = readBack(serializer, write(serializer, value))
+
+        assert copy.command instanceof SampleCommand
+        assert copy.command.name == "fred"
+        assert copy.command.age == 42
+        assert copy.other instanceof UnregisteredCommand
+        assert copy.other.name == "barney"
+    }
+
+    void testRegisteredClassesProduceSmallerOutput() {
+        def registered = new RegisteredClassFlowExecutionSerializer()
+        registered.registeredClasses = [SampleCommand.name]
+        def value = new ArrayList([new SampleCommand(name: "fred", age: 42), new Date(0), 1L, new BigDecimal("1.5")])
+
+        assert write(registered, value).length < write(new JdkFlowExecutionSerializer(), value).length
+    }
+
+    void testDifferentRegistrationsAreRejected() {
+        def writer = new RegisteredClassFlowExecutionSerializer()
+        writer.registeredClasses = [SampleCommand]
+        byte[] data = write(writer, [new SampleCommand(name: "fred")])
+
+        shouldFail(InvalidClassException) {
+            readBack(new RegisteredClassFlowExecutionSerializer(), data)
+        }
+    }
+
+    void testRestoringAfterAFieldChangeIsRejected() {
+        def before = compileVersion("String name")
+        def after = compileVersion("String name\n    Integer age")
+        def serializer = new RegisteredClassFlowExecutionSerializer()
+        serializer.registeredClasses = ["VersionedCommand"]
+        byte[] data = write(serializer, new ArrayList([before.newInstance(name: "fred")]))
+
+        assert readBack(serializer, data, before.classLoader)[0].name == "fred"
+        def message = shouldFail(InvalidClassException) {
+            readBack(serializer, data, after.classLoader)
+        }
+        assert message.contains("serializable fields changed")
+    }
+
+    void testNonSerializableClassesCannotBeRegistered() {
+        shouldFail(IllegalArgumentException) {
+            new RegisteredClassFlowExecutionSerializer().registeredClasses = [Object]
+        }
+    }
+
+    private static byte[] write(JdkFlowExecutionSerializer serializer, value) {
+        def bytes = new ByteArrayOutputStream()
+        def out = serializer.createObjectOutputStream(bytes)
+        out.writeObject(value)
+        out.close()
+        bytes.toByteArray()
+    }
+
+    private static Class compileVersion(String fields) {
+        new GroovyClassLoader(SampleCommand.classLoader).parseClass("""
+class VersionedCommand implements Serializable {
+    private static final long serialVersionUID = 1L
+    $fields
+}
+""")
+    }
+
+    private static readBack(JdkFlowExecutionSerializer serializer, byte[] data,
+                            ClassLoader classLoader = SampleCommand.classLoader) {
+        def input = serializer.createObjectInputStream(new ByteArrayInputStream(data), classLoader)
+        try {
+            input.readObject()
+        }
+        finally {
+            input.close()
+        }
+    }
+}
+
+class SampleCommand implements Serializable {
+    String name
+    Integer age
+}
+
+class UnregisteredCommand implements Serializable {
+    String name
+}
@@ -0,0 +1,129 @@
+package org.grails.webflow.metrics
+
+import org.grails.webflow.execution.repository.snapshot.CompactFlowExecutionSnapshot
+import org.springframework.boot.actuate.metrics.CounterService
+import org.springframework.boot.actuate.metrics.GaugeService
+import org.springframework.webflow.definition.TransitionDefinition
+import org.springframework.webflow.engine.ActionState
+import org.springframework.webflow.engine.EndState
+import org.springframework.webflow.engine.Flow
+import org.springframework.webflow.execution.Event
+import org.springframework.webflow.execution.FlowExecutionContext
+import org.springframework.webflow.execution.RequestContext
+
+class FlowMetricsExecutionListenerTests extends GroovyTestCase {
+
+    List<String> counters = []
+    Map<String, Double> gauges = [:]
+    Flow flow
+    ActionState check
+    EndState done
+    TransitionDefinition next
+    RequestContext context
+
+    protected void setUp() {
+        super.setUp()
+        flow = new Flow("shop/order")
+        check = new ActionState(flow, "check")
+        done = new EndState(flow, "done")
+        next = [getId: { "next" }] as TransitionDefinition
+        def flowExecution = [getDefinition: { flow }] as FlowExecutionContext
+        context = [getFlowExecutionContext: { flowExecution },
+                   getCurrentState: { check },
+                   getMatchingTransition: { String eventId -> eventId == "next" ? next : null }] as RequestContext
+    }
+
+    void testRequestActionAndRenderTimesAreSubmitted() {
+        def listener = newListener(true)
+
+        listener.requestSubmitted(context)
+        listener.stateEntered(context, null, check)
+        listener.transitionExecuting(context, next)
+        listener.viewRendering(context, null, done)
+        listener.viewRendered(context, null, done)
+        listener.requestProcessed(context)
+
+        assert ["timer.webflow.shop.order.check.action", "timer.webflow.shop.order.done.render",
+                "timer.webflow.shop.order.request"] == gauges.keySet() as List
+        assert gauges.values().every { it >= 0d }
+        assert ["webflow.shop.order.check.transition.next"] == counters
+    }
+
+    void testActionTimeIsSubmittedOnceWhenTheRequestEndsInTheActionState() {
+        def listener = newListener(true)
+
+        listener.requestSubmitted(context)
+        listener.stateEntered(context, null, check)
+        listener.requestProcessed(context)
+        gauges.clear()
+        listener.requestSubmitted(context)
+        listener.requestProcessed(context)
+
+        assert ["timer.webflow.shop.order.request"] == gauges.keySet() as List
+    }
+
+    void testEventsAreCountedUnderTheMatchingTransition() {
+        def listener = newListener(true)
+
+        listener.eventSignaled(context, new Event(this, "next"))
+        listener.eventSignaled(context, new Event(this, "cancel"))
+        listener.eventSignaled(context, new Event(this, "other"))
+
+        assert ["webflow.shop.order.check.event.next", "webflow.shop.order.check.event.unmatched",
+                "webflow.shop.order.check.event.unmatched"] == counters
+    }
+
+    void testPauseResumeFlushAndLockMetrics() {
+        def listener = newListener(true)
+
+        listener.paused(context)
+        listener.resuming(context)
+        listener.flushCompleted("shop/order", 2000000L, 12, 3)
+        listener.conversationLockWaited(1000000L, false)
+        listener.conversationLockWaited(4000000L, true)
+        listener.snapshotTaken(new CompactFlowExecutionSnapshot(new byte[128]), 500000L)
+
+        assert ["webflow.shop.order.paused", "webflow.shop.order.resumed",
+                "webflow.conversation.lock.contended", "webflow.conversation.lock.contended"] == counters
+        assert 2d == gauges["timer.webflow.shop.order.flush"]
+        assert 12d == gauges["histogram.webflow.shop.order.flush.statements"]
+        assert 3d == gauges["histogram.webflow.shop.order.flush.batches"]
+        assert 1d == gauges["timer.webflow.conversation.lock.wait"]
+        assert 4d == gauges["timer.webflow.conversation.lock.wait.shared"]
+        assert 0.5d == gauges["timer.webflow.snapshot.serialize"]
+        assert 128d == gauges["histogram.webflow.snapshot.size"]
+    }
+
+    void testNothingIsRecordedWhenDisabled() {
+        def listener = newListener(false)
+        assert !listener.enabled
+
+        listener.requestSubmitted(context)
+        listener.stateEntered(context, null, check)
+        listener.eventSignaled(context, new Event(this, "next"))
+        listener.transitionExecuting(context, next)
+        listener.viewRendering(context, null, done)
+        listener.viewRendered(context, null, done)
+        listener.paused(context)
+        listener.resuming(context)
+        listener.requestProcessed(context)
+        listener.flushCompleted("shop/order", 1L, 1, 1)
+        listener.conversationLockWaited(1L, true)
+        listener.snapshotTaken(new CompactFlowExecutionSnapshot(new byte[1]), 1L)
+
+        assert counters.empty
+        assert gauges.isEmpty()
+    }
+
+    void testListenerWithoutServicesIsDisabled() {
+        assert !new FlowMetricsExecutionListener(true, null, null).enabled
+    }
+
+    private FlowMetricsExecutionListener newListener(boolean enabled) {
+        def counterService = [increment: { String name -> counters << name },
+                              decrement: { String name -> },
+                              reset: { String name -> }] as CounterService
+        def gaugeService = [submit: { String name, double value -> gauges[name] = value }] as GaugeService
+        new FlowMetricsExecutionListener(enabled, counterService, gaugeService)
+    }
+}
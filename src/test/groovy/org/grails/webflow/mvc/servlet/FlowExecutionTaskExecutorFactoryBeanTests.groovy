@@ -0,0 +1,38 @@
+package org.grails.webflow.mvc.servlet
+
+import org.springframework.core.task.AsyncTaskExecutor
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor
+
+import java.util.concurrent.Callable
+import java.util.concurrent.TimeUnit
+
+class FlowExecutionTaskExecutorFactoryBeanTests extends GroovyTestCase {
+
+    void testThreadPool() {
+        def factoryBean = new FlowExecutionTaskExecutorFactoryBean(poolSize: 2, queueCapacity: 5)
+        try {
+            AsyncTaskExecutor executor = factoryBean.object
+            assert executor instanceof ThreadPoolTaskExecutor
+            assert executor.maxPoolSize == 2
+            assert executor.submit({ Thread.currentThread().name } as Callable).get(5, TimeUnit.SECONDS).startsWith("webflow-")
+            assert factoryBean.object.is(executor)
+        }
+        finally {
+            factoryBean.destroy()
+        }
+    }
+
+    void testVirtualThreadsWhenSupported() {
+        def factoryBean = new FlowExecutionTaskExecutorFactoryBean(virtualThreads: true)
+        try {
+            AsyncTaskExecutor executor = factoryBean.object
+            boolean virtual = executor.submit({
+                Thread.currentThread().respondsTo("isVirtual") && Thread.currentThread().isVirtual()
+            } as Callable).get(5, TimeUnit.SECONDS)
+            assert virtual == !(executor instanceof ThreadPoolTaskExecutor)
+        }
+        finally {
+            factoryBean.destroy()
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.grails.webflow.mvc.servlet
+
+import grails.core.GrailsApplication
+import org.grails.web.servlet.mvc.GrailsWebRequest
+import org.grails.web.util.WebUtils
+import org.springframework.context.i18n.LocaleContextHolder
+import org.springframework.context.i18n.SimpleLocaleContext
+import org.springframework.core.task.SimpleAsyncTaskExecutor
+import org.springframework.core.task.TaskDecorator
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.mock.web.MockHttpServletResponse
+import org.springframework.mock.web.MockServletContext
+import org.springframework.transaction.support.TransactionSynchronizationManager
+import org.springframework.web.context.request.RequestAttributes
+import org.springframework.web.context.request.RequestContextHolder
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest
+import org.springframework.web.context.request.async.WebAsyncManager
+import org.springframework.web.context.request.async.WebAsyncUtils
+import org.springframework.web.servlet.ModelAndView
+
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class GrailsFlowHandlerAdapterTests extends GroovyTestCase {
+
+    MockHttpServletRequest request
+    MockHttpServletResponse response
+    GrailsWebRequest webRequest
+    RecordingFlowHandlerAdapter adapter
+    WebAsyncManager asyncManager
+    CountDownLatch workerDone
+    volatile Object attributesAfter
+    volatile Object localeContextAfter
+    volatile boolean resourceBoundAfter
+
+    protected void setUp() {
+        MockServletContext servletContext = new MockServletContext()
+        request = new MockHttpServletRequest(servletContext)
+        request.asyncSupported = true
+        response = new MockHttpServletResponse()
+        webRequest = new GrailsWebRequest(request, response, servletContext)
+        webRequest.controllerName = "shop"
+        webRequest.params.id = "42"
+        WebUtils.storeGrailsWebRequest(webRequest)
+        LocaleContextHolder.setLocaleContext(new SimpleLocaleContext(Locale.GERMAN))
+
+        adapter = new RecordingFlowHandlerAdapter()
+        adapter.grailsApplication = [getArtefactByLogicalPropertyName: { String type, String name -> null }] as GrailsApplication
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("webflow-test-")
+        workerDone = new CountDownLatch(1)
+        executor.taskDecorator = { Runnable task ->
+            return {
+                try {
+                    task.run()
+                }
+                finally {
+                    attributesAfter = RequestContextHolder.requestAttributes
+                    localeContextAfter = LocaleContextHolder.localeContext
+                    resourceBoundAfter = TransactionSynchronizationManager.hasResource("sessionFactory")
+                    workerDone.countDown()
+                }
+            } as Runnable
+        } as TaskDecorator
+        adapter.asyncExecutor = executor
+
+        asyncManager = WebAsyncUtils.getAsyncManager(request)
+        asyncManager.asyncWebRequest = new StandardServletAsyncWebRequest(request, response)
+    }
+
+    protected void tearDown() {
+        TransactionSynchronizationManager.unbindResourceIfPossible("sessionFactory")
+        LocaleContextHolder.resetLocaleContext()
+        RequestContextHolder.resetRequestAttributes()
+    }
+
+    void testFlowRequestRunsOnWorkerThreadWithItsOwnWebRequest() {
+        TransactionSynchronizationManager.bindResource("sessionFactory", "session")
+
+        assert adapter.handle(request, response, "handler") == null
+        assert request.asyncStarted
+
+        ModelAndView result = awaitResult()
+        assert workerDone.await(10, TimeUnit.SECONDS)
+        assert result.viewName == "shop/order"
+        assert adapter.calls == 1
+        assert !adapter.thread.is(Thread.currentThread())
+        assert adapter.thread.name.startsWith("webflow-test-")
+        assert adapter.webRequest instanceof GrailsWebRequest
+        assert !adapter.webRequest.is(webRequest)
+        assert adapter.webRequestAttribute.is(adapter.webRequest)
+        assert adapter.params.id == "42"
+        assert adapter.locale == Locale.GERMAN
+        assert adapter.resource == "session"
+        assert adapter.webRequestCompleted
+        // the worker thread was left as it was found
+        assert attributesAfter == null
+        assert localeContextAfter == null
+        assert !resourceBoundAfter
+        assert GrailsWebRequest.lookup(request).is(webRequest)
+    }
+
+    void testExceptionIsRethrownOnDispatch() {
+        adapter.failure = new IllegalStateException("Flow failed")
+
+        adapter.handle(request, response, "handler")
+        assert awaitConcurrentResult() instanceof IllegalStateException
+        def e = shouldFail(IllegalStateException) {
+            adapter.handle(request, response, "handler")
+        }
+        assert e == "Flow failed"
+        assert !asyncManager.hasConcurrentResult()
+    }
+
+    void testRunsOnContainerThreadWithoutAsyncSupport() {
+        request.asyncSupported = false
+
+        assert adapter.handle(request, response, "handler").viewName == "shop/order"
+        assert adapter.thread.is(Thread.currentThread())
+        assert adapter.webRequest.is(webRequest)
+    }
+
+    void testRunsOnContainerThreadWithoutExecutor() {
+        adapter.asyncExecutor = null
+
+        assert adapter.handle(request, response, "handler").viewName == "shop/order"
+        assert adapter.thread.is(Thread.currentThread())
+        assert !request.asyncStarted
+    }
+
+    private ModelAndView awaitResult() {
+        awaitConcurrentResult()
+        ModelAndView result = adapter.handle(request, response, "handler")
+        assert !asyncManager.hasConcurrentResult()
+        result
+    }
+
+    private Object awaitConcurrentResult() {
+        long deadline = System.currentTimeMillis() + 10000
+        while (!asyncManager.hasConcurrentResult()) {
+            assert System.currentTimeMillis() < deadline, "Flow request did not complete"
+            Thread.sleep(10)
+        }
+        asyncManager.concurrentResult
+    }
+}
+
+/**
+ * Records the thread state a flow request sees instead of running a flow.
+ */
+class RecordingFlowHandlerAdapter extends GrailsFlowHandlerAdapter {
+    volatile int calls
+    volatile Thread thread
+    volatile Object webRequest
+    volatile Object webRequestAttribute
+    volatile Map params
+    volatile Locale locale
+    volatile Object resource
+    volatile boolean webRequestCompleted
+    Exception failure
+
+    @Override
+    protected ModelAndView handleFlowRequest(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        calls++
+        thread = Thread.currentThread()
+        webRequest = RequestContextHolder.requestAttributes
+        webRequestAttribute = GrailsWebRequest.lookup(request)
+        params = new HashMap(((GrailsWebRequest) webRequest).params)
+        locale = LocaleContextHolder.locale
+        resource = TransactionSynchronizationManager.getResource("sessionFactory")
+        ((GrailsWebRequest) webRequest).registerDestructionCallback("completed", { webRequestCompleted = true } as Runnable,
+                RequestAttributes.SCOPE_REQUEST)
+        if (failure) {
+            throw failure
+        }
+        new ModelAndView("shop/order")
+    }
+}
@@ -0,0 +1,89 @@
+package org.grails.webflow.mvc.servlet
+
+import grails.core.GrailsControllerClass
+import grails.web.mapping.UrlMappingInfo
+import grails.web.mapping.UrlMappingsHolder
+import org.grails.web.servlet.DefaultGrailsApplicationAttributes
+import org.springframework.mock.web.MockHttpServletRequest
+
+class GrailsFlowHandlerMappingTests extends GroovyTestCase {
+
+    List<String> matched = []
+    GrailsControllerClass shopController
+    GrailsFlowHandlerMapping mapping
+
+    protected void setUp() {
+        super.setUp()
+        def mappings = [matchAll: { String uri, String method, String version ->
+            matched << "$method $uri".toString()
+            def parts = uri.tokenize("/")
+            [mappingInfo(parts[0], parts[1])] as UrlMappingInfo[]
+        }] as UrlMappingsHolder
+        shopController = [getLogicalPropertyName: { "shop" }, getDefaultAction: { "index" }] as GrailsControllerClass
+        mapping = new GrailsFlowHandlerMapping(mappings)
+        mapping.registerFlow(shopController, "order")
+    }
+
+    void testFlowUriIsResolvedOnceAndThenServedFromTheCache() {
+        def first = handlerFor("GET", "/shop/order")
+        def request = new MockHttpServletRequest("GET", "/shop/order")
+        def second = mapping.getHandlerInternal(request)
+
+        assert "shop/order" == first.flowId
+        assert first.is(second)
+        assert "order" == request.getAttribute(DefaultGrailsApplicationAttributes.ACTION_NAME_ATTRIBUTE)
+        assert "shop" == request.getAttribute(DefaultGrailsApplicationAttributes.CONTROLLER_NAME_ATTRIBUTE)
+        assert ["GET /shop/order"] == matched
+        assert 1L == mapping.cacheMissCount
+        assert 1L == mapping.cacheHitCount
+    }
+
+    void testNonFlowUriIsCachedAsWell() {
+        assert handlerFor("GET", "/shop/list") == null
+        assert handlerFor("GET", "/shop/list") == null
+        assert handlerFor("GET", "/book/show") == null
+        assert handlerFor("GET", "/book/show") == null
+
+        assert ["GET /shop/list", "GET /book/show"] == matched
+        assert 2L == mapping.cacheMissCount
+        assert 2L == mapping.cacheHitCount
+    }
+
+    void testRequestMethodIsPartOfTheCacheKey() {
+        handlerFor("GET", "/shop/order")
+        assert "shop/order" == handlerFor("POST", "/shop/order").flowId
+
+        assert ["GET /shop/order", "POST /shop/order"] == matched
+        assert 2L == mapping.cacheMissCount
+        assert 0L == mapping.cacheHitCount
+    }
+
+    void testRegisteringAFlowInvalidatesTheCache() {
+        assert handlerFor("GET", "/shop/list") == null
+
+        mapping.registerFlow(shopController, "list")
+
+        assert "shop/list" == handlerFor("GET", "/shop/list").flowId
+        assert ["GET /shop/list", "GET /shop/list"] == matched
+        assert 2L == mapping.cacheMissCount
+        assert 0L == mapping.cacheHitCount
+    }
+
+    void testClearingFlowsInvalidatesTheCache() {
+        assert "shop/order" == handlerFor("GET", "/shop/order").flowId
+
+        mapping.clearFlows(shopController)
+
+        assert handlerFor("GET", "/shop/order") == null
+        assert ["GET /shop/order", "GET /shop/order"] == matched
+        assert 2L == mapping.cacheMissCount
+    }
+
+    private handlerFor(String method, String uri) {
+        mapping.getHandlerInternal(new MockHttpServletRequest(method, uri))
+    }
+
+    private static UrlMappingInfo mappingInfo(String controllerName, String actionName) {
+        [getControllerName: { controllerName }, getActionName: { actionName }, configure: { webRequest -> }] as UrlMappingInfo
+    }
+}
@@ -0,0 +1,148 @@
+package org.grails.webflow.persistence
+
+import org.grails.webflow.conversation.StripedLockConversationManager
+import org.hibernate.Session
+import org.hibernate.SessionFactory
+import org.hibernate.engine.spi.SessionImplementor
+import org.hibernate.metadata.ClassMetadata
+import org.springframework.binding.collection.SharedMapDecorator
+import org.springframework.webflow.context.ExternalContextHolder
+import org.springframework.webflow.conversation.ConversationParameters
+import org.springframework.webflow.conversation.impl.SessionBindingConversationManager
+import org.springframework.webflow.core.collection.LocalAttributeMap
+import org.springframework.webflow.core.collection.LocalSharedAttributeMap
+import org.springframework.webflow.core.collection.SharedAttributeMap
+import org.springframework.webflow.execution.FlowExecutionContext
+import org.springframework.webflow.execution.RequestContext
+import org.springframework.webflow.test.MockExternalContext
+import org.springframework.webflow.test.MockRequestContext
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class EntityReferenceCompactorTests extends GroovyTestCase {
+
+    List<Book> persistent
+    boolean dirty
+    EntityReferenceCompactor compactor
+    Session session
+
+    protected void setUp() {
+        persistent = [new Book(id: 1L, version: 3L), new Book(id: 2L, version: 0L)]
+        dirty = false
+        ClassMetadata metadata = [
+            getEntityName: { -> Book.name },
+            getIdentifier: { Object entity, SessionImplementor s -> entity.id },
+            isVersioned: { -> true },
+            getVersion: { Object entity -> entity.version }] as ClassMetadata
+        SessionFactory sessionFactory = [getClassMetadata: { Class type -> type == Book ? metadata : null }] as SessionFactory
+        compactor = new EntityReferenceCompactor(sessionFactory)
+        session = ProxyGenerator.INSTANCE.instantiateAggregate([
+            contains: { Object entity -> persistent.any { it.is(entity) } },
+            isReadOnly: { Object entity -> false },
+            isDirty: { -> dirty },
+            load: { String entityName, Serializable id -> persistent.find { it.id == id } }], [Session, SessionImplementor])
+    }
+
+    void testUnmodifiedEntitiesAreCompactedAndRestored() {
+        MockRequestContext context = new MockRequestContext()
+        context.flowScope.put("book", persistent[0])
+        context.flowScope.put("title", "Groovy")
+        context.conversationScope.put("books", [persistent[0], persistent[1]] as Set)
+
+        assert compactor.compact(context, session) == 2
+
+        EntityReference reference = context.flowScope.get("book")
+        assert reference.entityName == Book.name
+        assert reference.id == 1L
+        assert reference.version == 3L
+        assert context.flowScope.get("title") == "Groovy"
+        assert context.conversationScope.get("books") instanceof EntityReferenceCollection
+
+        assert compactor.restore(context, session) == 2
+        assert context.flowScope.get("book").is(persistent[0])
+        assert context.conversationScope.get("books") == [persistent[0], persistent[1]] as Set
+    }
+
+    void testRenderOnlyRequestsSharingAConversationRestoreItsScopeOnce() {
+        persistent = (1L..50L).collect { new Book(id: it, version: 0L) }
+        SharedAttributeMap<Object> httpSession = new LocalSharedAttributeMap<Object>(
+                new SharedMapDecorator<String, Object>(new HashMap<String, Object>()))
+        def manager = new StripedLockConversationManager(new SessionBindingConversationManager(), 16)
+        request(httpSession, null)
+        def conversationId = manager.beginConversation(new ConversationParameters("shop", "", "")).id
+        def conversationScope = new LocalAttributeMap<Object>()
+        persistent.each { conversationScope.put("book" + it.id, new EntityReference(Book.name, it.id, 0L)) }
+        def flowExecution = [getActiveSession: { -> null }] as FlowExecutionContext
+        RequestContext context = [getFlowExecutionContext: { -> flowExecution },
+                                  getConversationScope: { -> conversationScope }] as RequestContext
+
+        def pool = Executors.newFixedThreadPool(8)
+        try {
+            def results = (1..200).collect {
+                pool.submit({
+                    request(httpSession, null)
+                    def conversation = manager.getConversation(conversationId)
+                    conversation.lock()
+                    try {
+                        int restored = compactor.restore(context, session)
+                        boolean entitiesOnly = conversationScope.asMap().values().every { it instanceof Book }
+                        compactor.compact(context, session)
+                        [restored, entitiesOnly]
+                    }
+                    finally {
+                        conversation.unlock()
+                        ExternalContextHolder.setExternalContext(null)
+                    }
+                } as Callable)
+            }*.get()
+
+            assert 50 == results.sum { it[0] }
+            assert results.every { it[1] }
+        }
+        finally {
+            pool.shutdownNow()
+        }
+
+        // the next request signaling an event holds the conversation alone and compacts its scope again
+        request(httpSession, "next")
+        def conversation = manager.getConversation(conversationId)
+        conversation.lock()
+        try {
+            assert 50 == compactor.compact(context, session)
+            assert conversationScope.asMap().values().every { it instanceof EntityReference }
+        }
+        finally {
+            conversation.unlock()
+            ExternalContextHolder.setExternalContext(null)
+        }
+    }
+
+    void testModifiedAndTransientEntitiesStayInScope() {
+        MockRequestContext context = new MockRequestContext()
+        Book unsaved = new Book()
+        context.flowScope.put("unsaved", unsaved)
+        context.flowScope.put("mixed", [persistent[0], unsaved])
+        assert compactor.compact(context, session) == 0
+
+        dirty = true
+        context.flowScope.put("book", persistent[1])
+        assert compactor.compact(context, session) == 0
+        assert context.flowScope.get("book").is(persistent[1])
+        assert context.flowScope.get("unsaved").is(unsaved)
+    }
+
+    private static void request(SharedAttributeMap<Object> httpSession, String eventId) {
+        MockExternalContext context = new MockExternalContext()
+        context.sessionMap = httpSession
+        if (eventId) {
+            context.eventId = eventId
+        }
+        ExternalContextHolder.setExternalContext(context)
+    }
+}
+
+class Book {
+    Long id
+    Long version
+}
@@ -0,0 +1,74 @@
+package org.grails.webflow.persistence
+
+import org.grails.webflow.support.AbstractGrailsTagAwareFlowExecutionTests
+import org.springframework.webflow.definition.FlowDefinition
+
+class FlowPersistencePolicyTests extends AbstractGrailsTagAwareFlowExecutionTests {
+
+    void testPolicyIsStoredWhenTheFlowIsBuilt() {
+        FlowDefinition flow = registerFlow("policy/commitAndClear", getFlowClosure())
+
+        FlowPersistencePolicy policy = flow.attributes.get(FlowPersistencePolicy.ATTRIBUTE)
+        assert policy.persistenceContext
+        assert policy.commitAndClearOnPause
+        assert policy.is(FlowPersistencePolicy.forFlow(flow))
+    }
+
+    void testNonTransactionalFlow() {
+        FlowDefinition flow = registerFlow("policy/nonTransactional") {
+            flowAttributes {
+                [transactional: false]
+            }
+            start {
+                on("next").to "end"
+            }
+            end()
+        }
+
+        FlowPersistencePolicy policy = FlowPersistencePolicy.forFlow(flow)
+        assert !policy.persistenceContext
+        assert !policy.commitAndClearOnPause
+    }
+
+    void testReadOnlyPersistenceContext() {
+        FlowDefinition flow = registerFlow("policy/readOnly") {
+            persistenceContext(readOnly: true)
+            start {
+                on("next").to "end"
+            }
+            end()
+        }
+
+        FlowPersistencePolicy policy = FlowPersistencePolicy.forFlow(flow)
+        assert policy.persistenceContext
+        assert policy.readOnly
+        assert !flow.containsState("persistenceContext")
+    }
+
+    void testJdbcBatchSize() {
+        FlowDefinition flow = registerFlow("policy/batched") {
+            flowAttributes {
+                [commitAndClearOnPause: true, jdbcBatchSize: "50"]
+            }
+            start {
+                on("next").to "end"
+            }
+            end()
+        }
+
+        assert FlowPersistencePolicy.forFlow(flow).jdbcBatchSize == 50
+        assert FlowPersistencePolicy.forFlow(registerFlow("policy/unbatched", getFlowClosure())).jdbcBatchSize == 0
+    }
+
+    Closure getFlowClosure() {
+        return {
+            flowAttributes {
+                [commitAndClearOnPause: true]
+            }
+            start {
+                on("next").to "end"
+            }
+            end()
+        }
+    }
+}
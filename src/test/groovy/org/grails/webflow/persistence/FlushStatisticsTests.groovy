@@ -0,0 +1,48 @@
+package org.grails.webflow.persistence
+
+import org.hibernate.Session
+import org.hibernate.SessionEventListener
+
+class FlushStatisticsTests extends GroovyTestCase {
+
+    void testStatementsBatchesAndFlushesAreCounted() {
+        def statistics = new FlushStatistics()
+
+        statistics.flushStart()
+        3.times { statistics.jdbcExecuteStatementEnd() }
+        sleep 1
+        statistics.jdbcExecuteBatchEnd()
+        statistics.flushEnd(5, 2)
+        statistics.flushStart()
+        statistics.jdbcExecuteBatchEnd()
+        statistics.flushEnd(1, 0)
+
+        assert 2 == statistics.flushes
+        assert 3 == statistics.statements
+        assert 2 == statistics.batches
+        assert 6 == statistics.entities
+        assert 2 == statistics.collections
+        assert statistics.flushNanos > 0L
+        assert statistics.toString().startsWith("2 flushes of 6 entities and 2 collections in ")
+        assert statistics.toString().endsWith("ms, 3 statements and 2 batches")
+    }
+
+    void testFlushEndWithoutStartIsNotTimed() {
+        def statistics = new FlushStatistics()
+
+        statistics.flushEnd(4, 1)
+
+        assert 1 == statistics.flushes
+        assert 4 == statistics.entities
+        assert 0L == statistics.flushNanos
+    }
+
+    void testStatisticsAreRegisteredOnTheSession() {
+        List<SessionEventListener> listeners = []
+        Session session = [addEventListeners: { SessionEventListener[] added -> listeners.addAll(added) }] as Session
+        def statistics = new FlushStatistics()
+
+        assert SessionHolderAccessor.get().addFlushStatistics(session, statistics)
+        assert [statistics] == listeners
+    }
+}
@@ -0,0 +1,66 @@
+package org.grails.webflow.persistence
+
+import org.hibernate.Session
+import org.hibernate.SessionFactory
+import org.hibernate.StatelessSession
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator
+import org.hibernate.jdbc.ReturningWork
+import org.hibernate.resource.jdbc.spi.JdbcSessionOwner
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.TransactionDefinition
+import org.springframework.transaction.TransactionStatus
+import org.springframework.transaction.support.SimpleTransactionStatus
+
+import java.sql.Connection
+
+class StatelessBulkOperationsTests extends GroovyTestCase {
+
+    List<String> events = []
+    Connection connection
+    StatelessSession statelessSession
+    StatelessBulkOperations bulkOperations
+
+    protected void setUp() {
+        super.setUp()
+        connection = [:] as Connection
+        def jdbcCoordinator = [executeBatch: { -> events << "executeBatch" }] as JdbcCoordinator
+        statelessSession = ProxyGenerator.INSTANCE.instantiateAggregate([
+            insert: { Object entity -> events << "insert " + entity; 1L },
+            getJdbcCoordinator: { -> jdbcCoordinator },
+            close: { -> events << "close" }], [StatelessSession, JdbcSessionOwner])
+        Session session = [doReturningWork: { ReturningWork work -> work.execute(connection) }] as Session
+        SessionFactory sessionFactory = [
+            getCurrentSession: { -> session },
+            openStatelessSession: { Connection c ->
+                assert c.is(connection)
+                statelessSession
+            }] as SessionFactory
+        PlatformTransactionManager transactionManager = [
+            getTransaction: { TransactionDefinition definition -> new SimpleTransactionStatus() },
+            commit: { TransactionStatus status -> events << "commit" },
+            rollback: { TransactionStatus status -> events << "rollback" }] as PlatformTransactionManager
+        bulkOperations = new StatelessBulkOperations(sessionFactory, transactionManager)
+    }
+
+    void testPendingBatchIsExecutedBeforeTheSessionIsClosed() {
+        def result = bulkOperations.execute({ StatelessSession session ->
+            ["dune", "emma"].each { session.insert(it) }
+            2
+        } as StatelessSessionCallback)
+
+        assert 2 == result
+        assert ["insert dune", "insert emma", "executeBatch", "close", "commit"] == events
+    }
+
+    void testFailedCallbackClosesTheSessionWithoutExecutingTheBatch() {
+        def message = shouldFail(IllegalStateException) {
+            bulkOperations.execute({ StatelessSession session ->
+                session.insert("dune")
+                throw new IllegalStateException("constraint violated")
+            } as StatelessSessionCallback)
+        }
+
+        assert "constraint violated" == message
+        assert ["insert dune", "close", "rollback"] == events
+    }
+}